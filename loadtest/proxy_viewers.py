@@ -0,0 +1,184 @@
+#!/usr/bin/env python3
+"""
+Closed-loop viewer load test for the secure VOD proxy (/m3u8-encoder/api/v2/proxy).
+
+Each simulated viewer repeatedly starts a playback session the way an HLS player does:
+master playlist -> first variant playlist -> encryption key -> the first N segments.
+Concurrency is raised step by step; for every step the script reports throughput, latency
+percentiles per request kind, shed requests (503) and errors, and finally the highest
+concurrency whose overall p99 stays under the target.
+
+Standard library only. Segment redirects (proxy.segment.delivery=redirect) are not followed,
+so the numbers measure this node, not the object store.
+
+    python3 loadtest/proxy_viewers.py --base-url http://localhost:8080 --bearer "$TOKEN" \
+        --job-id job-... --job-id job-... --steps 25,50,100,200,400 --p99-ms 500
+"""
+
+import argparse
+import csv
+import http.client
+import re
+import sys
+import threading
+import time
+from urllib.parse import urlsplit
+
+KINDS = ("master", "variant", "key", "segment")
+
+
+class Viewer(threading.Thread):
+
+    def __init__(self, args, job_id, deadline):
+        super().__init__(daemon=True)
+        self.args = args
+        self.job_id = job_id
+        self.deadline = deadline
+        self.samples = []  # (kind, latency_ms, outcome) with outcome in ok / shed / error
+        self.conn = None
+
+    def run(self):
+        while time.monotonic() < self.deadline:
+            try:
+                self.session()
+            except Exception:
+                self.reset()
+            if self.args.think_ms:
+                time.sleep(self.args.think_ms / 1000)
+        self.reset()
+
+    def session(self):
+        master = self.get("master", "/m3u8-encoder/api/v2/proxy/" + self.job_id)
+        variants = uri_lines(master)
+        if not variants:
+            return
+        variant = self.get("variant", path_of(variants[0]))
+        if variant is None:
+            return
+        key = re.search(r'#EXT-X-KEY:[^\n]*URI="([^"]+)"', variant)
+        if key:
+            self.get("key", path_of(key.group(1)))
+        for segment in uri_lines(variant)[:self.args.segments_per_session]:
+            if time.monotonic() >= self.deadline:
+                return
+            self.get("segment", path_of(segment))
+
+    def get(self, kind, path):
+        if self.conn is None:
+            base = urlsplit(self.args.base_url)
+            cls = http.client.HTTPSConnection if base.scheme == "https" else http.client.HTTPConnection
+            self.conn = cls(base.netloc, timeout=self.args.timeout)
+        started = time.perf_counter()
+        try:
+            self.conn.request("GET", path, headers=self.args.headers)
+            response = self.conn.getresponse()
+            body = response.read()
+            status = response.status
+        except Exception:
+            self.samples.append((kind, (time.perf_counter() - started) * 1000, "error"))
+            self.reset()
+            return None
+        latency = (time.perf_counter() - started) * 1000
+        if status == 503:
+            self.samples.append((kind, latency, "shed"))
+            return None
+        if status >= 400:
+            self.samples.append((kind, latency, "error"))
+            return None
+        self.samples.append((kind, latency, "ok"))
+        return body.decode("utf-8", "replace") if kind in ("master", "variant") else None
+
+    def reset(self):
+        if self.conn is not None:
+            self.conn.close()
+            self.conn = None
+
+
+def uri_lines(playlist):
+    if playlist is None:
+        return []
+    return [line.strip() for line in playlist.splitlines() if line.strip() and not line.startswith("#")]
+
+
+def path_of(uri):
+    # Playlists carry absolute URLs built from the public host; send them to the node under test
+    parts = urlsplit(uri)
+    return (parts.path or "/") + ("?" + parts.query if parts.query else "")
+
+
+def percentile(values, fraction):
+    if not values:
+        return 0.0
+    ordered = sorted(values)
+    return ordered[min(len(ordered) - 1, int(round(fraction * (len(ordered) - 1))))]
+
+
+def run_step(args, concurrency):
+    deadline = time.monotonic() + args.step_seconds
+    viewers = [Viewer(args, args.job_id[i % len(args.job_id)], deadline) for i in range(concurrency)]
+    started = time.monotonic()
+    for viewer in viewers:
+        viewer.start()
+    for viewer in viewers:
+        viewer.join(args.step_seconds + args.timeout + 5)
+    elapsed = time.monotonic() - started
+
+    samples = [sample for viewer in viewers for sample in viewer.samples]
+    ok = [latency for _, latency, outcome in samples if outcome == "ok"]
+    row = {
+        "concurrency": concurrency,
+        "requests": len(samples),
+        "rps": round(len(samples) / elapsed, 1),
+        "shed": sum(1 for _, _, outcome in samples if outcome == "shed"),
+        "errors": sum(1 for _, _, outcome in samples if outcome == "error"),
+        "p50_ms": round(percentile(ok, 0.50), 1),
+        "p95_ms": round(percentile(ok, 0.95), 1),
+        "p99_ms": round(percentile(ok, 0.99), 1),
+    }
+    for kind in KINDS:
+        row[kind + "_p99_ms"] = round(percentile([l for k, l, o in samples if k == kind and o == "ok"], 0.99), 1)
+    failed = row["shed"] + row["errors"]
+    row["within_target"] = bool(ok) and row["p99_ms"] <= args.p99_ms and failed <= 0.01 * max(1, len(samples))
+    return row
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--base-url", default="http://localhost:8080")
+    parser.add_argument("--job-id", action="append", required=True,
+                        help="completed job to play; repeat to spread viewers over several jobs")
+    parser.add_argument("--steps", default="25,50,100,200,400", help="concurrent viewers per step")
+    parser.add_argument("--step-seconds", type=int, default=30)
+    parser.add_argument("--p99-ms", type=float, default=500, help="latency target for all requests")
+    parser.add_argument("--segments-per-session", type=int, default=3)
+    parser.add_argument("--think-ms", type=int, default=0, help="pause between sessions of one viewer")
+    parser.add_argument("--timeout", type=float, default=10)
+    parser.add_argument("--user-agent", default="proxy-loadtest/1.0")
+    parser.add_argument("--bearer", help="access token sent as Authorization: Bearer (the proxy requires the admin role)")
+    parser.add_argument("--csv", help="write one row per step to this file")
+    args = parser.parse_args()
+    args.headers = {"User-Agent": args.user_agent}
+    if args.bearer:
+        args.headers["Authorization"] = "Bearer " + args.bearer
+
+    rows = []
+    for concurrency in (int(step) for step in args.steps.split(",")):
+        row = run_step(args, concurrency)
+        rows.append(row)
+        print("{concurrency:>5} viewers  {rps:>8} req/s  p50 {p50_ms:>7} ms  p95 {p95_ms:>7} ms  "
+              "p99 {p99_ms:>7} ms  shed {shed:>5}  errors {errors:>5}  {verdict}".format(
+                  verdict="OK" if row["within_target"] else "over target", **row), flush=True)
+
+    if args.csv:
+        with open(args.csv, "w", newline="") as out:
+            writer = csv.DictWriter(out, fieldnames=list(rows[0].keys()))
+            writer.writeheader()
+            writer.writerows(rows)
+
+    passing = [row["concurrency"] for row in rows if row["within_target"]]
+    print("Max concurrent viewers with p99 <= {} ms: {}".format(args.p99_ms, max(passing) if passing else "none"))
+    return 0 if passing else 1
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -1,5 +1,6 @@
 package com.xksgroup.m3u8encoderv2.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -23,4 +24,34 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * Runs origin fetches for the live proxy caches (playlist refreshes, shared segment fills). Bounded queue:
+     * when it is full, live playlist requests are shed with 503 and segments are passed through uncached.
+     */
+    @Bean(name = "proxyIoExecutor")
+    public ThreadPoolTaskExecutor proxyIoExecutor(@Value("${proxy.io.threads:32}") int threads,
+                                                  @Value("${proxy.io.queueCapacity:2000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("proxy-io-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor for Spring MVC async processing (reactive live handlers, StreamingResponseBody)
+     */
+    @Bean(name = "mvcAsyncExecutor")
+    public ThreadPoolTaskExecutor mvcAsyncExecutor(@Value("${proxy.async.threads:32}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(10_000);
+        executor.setThreadNamePrefix("mvc-async-");
+        executor.initialize();
+        return executor;
+    }
 }
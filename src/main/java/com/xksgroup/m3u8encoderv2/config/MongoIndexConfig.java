@@ -0,0 +1,172 @@
+package com.xksgroup.m3u8encoderv2.config;
+
+import com.xksgroup.m3u8encoderv2.model.Job.Job;
+import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
+import com.xksgroup.m3u8encoderv2.model.UploadManifest;
+import com.xksgroup.m3u8encoderv2.model.VariantSegment;
+import com.xksgroup.m3u8encoderv2.model.VariantSegmentIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ensures the indexes declared on the models exist (auto-index-creation is off in Spring Boot),
+ * then explains the hot queries and refuses to start if one of them would scan a whole collection.
+ * An index that cannot be built (e.g. a unique index over duplicate jobIds) also stops startup,
+ * with the duplicate values in the error, unless mongo.indexes.failOnCollscan is false.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MongoIndexConfig implements ApplicationRunner {
+
+    private static final List<Class<?>> INDEXED_ENTITIES = List.of(
+            Job.class, MasterPlaylistRecord.class, VariantSegment.class,
+            VariantSegmentIndex.class, UploadManifest.class, LiveUrl.class);
+
+    // Duplicate values listed when a unique index cannot be built
+    private static final int MAX_REPORTED_DUPLICATES = 10;
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+
+    @Value("${mongo.indexes.ensureOnStartup:true}")
+    private boolean ensureOnStartup;
+
+    @Value("${mongo.indexes.failOnCollscan:true}")
+    private boolean failOnCollscan;
+
+    public MongoIndexConfig(MongoTemplate mongoTemplate, MongoMappingContext mappingContext) {
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!ensureOnStartup) {
+            log.info("MongoDB index management disabled");
+            return;
+        }
+        ensureIndexes();
+        verifyQueryPlans();
+    }
+
+    private void ensureIndexes() {
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        List<String> failures = new ArrayList<>();
+        for (Class<?> type : INDEXED_ENTITIES) {
+            MongoPersistentEntity<?> entity = mappingContext.getRequiredPersistentEntity(type);
+            IndexOperations indexOps = mongoTemplate.indexOps(entity.getCollection());
+            resolver.resolveIndexForEntity(entity).forEach(holder -> {
+                try {
+                    String name = indexOps.createIndex(holder.getIndexDefinition());
+                    log.debug("Ensured index {} on {}", name, entity.getCollection());
+                } catch (Exception e) {
+                    failures.add(describeFailure(entity.getCollection(), holder.getIndexKeys(),
+                            holder.getIndexOptions(), e));
+                }
+            });
+        }
+
+        if (failures.isEmpty()) {
+            log.info("Ensured MongoDB indexes for {} collections", INDEXED_ENTITIES.size());
+        } else if (failOnCollscan) {
+            // Fail here with the cause; the plan check would only report the resulting COLLSCAN
+            throw new IllegalStateException("Failed to create MongoDB indexes: " + failures);
+        } else {
+            log.error("Failed to create MongoDB indexes: {}", failures);
+        }
+    }
+
+    /**
+     * Names the offending values when a unique index cannot be built over existing duplicates (e.g. legacy jobIds)
+     */
+    private String describeFailure(String collection, Document keys, Document options, Exception e) {
+        String failure = collection + " " + keys.toJson() + ": " + e.getMessage();
+        if (!options.getBoolean("unique", false)) {
+            return failure;
+        }
+        Document groupKey = new Document();
+        keys.keySet().forEach(field -> groupKey.append(field, "$" + field));
+        List<String> duplicates = new ArrayList<>();
+        try {
+            mongoTemplate.getCollection(collection).aggregate(List.of(
+                            new Document("$group", new Document("_id", groupKey).append("count", new Document("$sum", 1))),
+                            new Document("$match", new Document("count", new Document("$gt", 1))),
+                            new Document("$limit", MAX_REPORTED_DUPLICATES)))
+                    .allowDiskUse(true)
+                    .forEach(duplicate -> duplicates.add(
+                            duplicate.get("_id", Document.class).toJson() + " x" + duplicate.get("count")));
+        } catch (Exception lookup) {
+            log.warn("Could not list duplicates in {}: {}", collection, lookup.getMessage());
+        }
+        return duplicates.isEmpty() ? failure : failure + " (duplicate values: " + duplicates + ")";
+    }
+
+    /**
+     * Explains each hot query and fails fast if its winning plan is a collection scan
+     */
+    private void verifyQueryPlans() {
+        Map<String, List<Document>> hotQueries = Map.of(
+                "jobs", List.of(
+                        new Document("jobId", "probe"),
+                        new Document("slug", "probe"),
+                        new Document("status", new Document("$in", List.of("PENDING", "ENCODING")))),
+                "master_playlists", List.of(new Document("jobId", "probe")),
+                "variant_segments", List.of(new Document("masterId", "probe")),
+                "variant_segment_index", List.of(new Document("masterId", "probe").append("variantLabel", "probe")),
+                "upload_manifests", List.of(new Document("jobId", "probe")),
+                "live_urls", List.of(new Document("urlId", "probe")));
+
+        List<String> scans = new ArrayList<>();
+        hotQueries.forEach((collection, filters) -> {
+            if (!mongoTemplate.collectionExists(collection)) {
+                return;
+            }
+            for (Document filter : filters) {
+                Document explain = mongoTemplate.getCollection(collection).find(filter).explain();
+                Object winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan");
+                if (containsStage(winningPlan, "COLLSCAN")) {
+                    scans.add(collection + " " + filter.toJson());
+                }
+            }
+        });
+
+        if (scans.isEmpty()) {
+            log.info("All hot MongoDB queries are index-backed");
+        } else if (failOnCollscan) {
+            throw new IllegalStateException("Hot MongoDB queries fall back to COLLSCAN: " + scans);
+        } else {
+            log.warn("Hot MongoDB queries fall back to COLLSCAN: {}", scans);
+        }
+    }
+
+    // Plans nest through inputStage/inputStages (and queryPlan on the SBE engine)
+    private static boolean containsStage(Object plan, String stage) {
+        if (plan instanceof Document doc) {
+            if (stage.equals(doc.getString("stage"))) {
+                return true;
+            }
+            return doc.values().stream().anyMatch(value -> containsStage(value, stage));
+        }
+        if (plan instanceof List<?> list) {
+            return list.stream().anyMatch(value -> containsStage(value, stage));
+        }
+        return false;
+    }
+}
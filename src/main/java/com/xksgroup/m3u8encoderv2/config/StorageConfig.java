@@ -13,7 +13,13 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import com.xksgroup.m3u8encoderv2.service.storage.LocalObjectStore;
+import com.xksgroup.m3u8encoderv2.service.storage.ObjectStore;
+import com.xksgroup.m3u8encoderv2.service.storage.S3ObjectStore;
+
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
 
 @Configuration
 public class StorageConfig {
@@ -83,4 +89,29 @@ public class StorageConfig {
                         AwsBasicCredentials.create(accessKey, secret)))
                 .build();
     }
+
+    @Bean
+    @Profile("!local") // r2 or aws: whichever S3Client/S3Presigner pair is active
+    public ObjectStore s3ObjectStore(
+            S3Client s3Client,
+            S3Presigner s3Presigner,
+            @Value("${r2.bucket}") String bucket,
+            @Value("${r2.accountId:}") String accountId,
+            @Value("${cdn.baseUrl:}") String cdnBaseUrl
+    ) {
+        String baseUrl = cdnBaseUrl != null && !cdnBaseUrl.isBlank()
+                ? cdnBaseUrl
+                : "https://" + accountId + ".r2.cloudflarestorage.com";
+        return new S3ObjectStore(s3Client, s3Presigner, bucket, baseUrl);
+    }
+
+    @Bean
+    @Profile("local") // run with: --spring.profiles.active=local
+    public LocalObjectStore localObjectStore(
+            @Value("${storage.local.root}") String root,
+            @Value("${storage.local.baseUrl}") String baseUrl,
+            @Value("${storage.local.signingSecret}") String signingSecret
+    ) throws IOException {
+        return new LocalObjectStore(Path.of(root), baseUrl, signingSecret);
+    }
 }
@@ -42,7 +42,9 @@ public class SecurityConfig {
                                 "/test.html",
                                 "/live-url-test.html",
                                 "/actuator/health",
-                                "/actuator/info"
+                                "/actuator/info",
+                                // Local object store (profile "local"), access is checked against the URL signature
+                                "/m3u8-encoder/api/v2/local-store/**"
                         ).permitAll()
 
                         .anyRequest().hasRole(ADMIN))
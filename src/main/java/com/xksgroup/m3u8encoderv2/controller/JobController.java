@@ -5,9 +5,12 @@ import com.xksgroup.m3u8encoderv2.model.Job.JobStatus;
 import com.xksgroup.m3u8encoderv2.model.ResourceType;
 import com.xksgroup.m3u8encoderv2.repo.JobRepository;
 import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
+import com.xksgroup.m3u8encoderv2.repo.VariantSegmentIndexRepository;
 import com.xksgroup.m3u8encoderv2.repo.VariantSegmentRepository;
 import com.xksgroup.m3u8encoderv2.service.JobService;
+import com.xksgroup.m3u8encoderv2.service.PlaylistCache;
 import com.xksgroup.m3u8encoderv2.service.R2StorageService;
+import com.xksgroup.m3u8encoderv2.service.StorageReconciler;
 import com.xksgroup.m3u8encoderv2.service.helper.CleanDirectory;
 import com.xksgroup.m3u8encoderv2.model.dto.JobProgressDto;
 import io.swagger.v3.oas.annotations.Operation;
@@ -45,8 +48,11 @@ public class JobController {
     private final JobRepository jobRepository;
     private final MasterPlaylistRecordRepository masterPlaylistRecordRepository;
     private final VariantSegmentRepository variantSegmentRepository;
+    private final VariantSegmentIndexRepository variantSegmentIndexRepository;
     private final JobService jobService;
     private final R2StorageService r2StorageService;
+    private final StorageReconciler storageReconciler;
+    private final PlaylistCache playlistCache;
     private final CleanDirectory cleanDirectory;
 
     @GetMapping
@@ -797,6 +803,24 @@ public class JobController {
         }
     }
 
+    @PostMapping("/storage/reconcile")
+    @Operation(
+        summary = "Réconcilier le stockage avec la base de données",
+        description = "Recherche les objets du stockage qui ne sont plus référencés par aucune playlist maître ni upload en cours. En mode dryRun, ils sont seulement listés dans les logs."
+    )
+    public ResponseEntity<Object> reconcileStorage(
+            @Parameter(description = "Ne rien supprimer, seulement compter les objets orphelins")
+            @RequestParam(defaultValue = "true") boolean dryRun) {
+        Map<String, Object> report = storageReconciler.reconcile(dryRun);
+        if ("ALREADY_RUNNING".equals(report.get("status"))) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(report);
+        }
+        if ("FAILED".equals(report.get("status"))) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(report);
+        }
+        return ResponseEntity.ok(report);
+    }
+
     @DeleteMapping("/all-content")
     @Operation(
         summary = "Supprimer TOUT le contenu de R2 et de la base de données", 
@@ -829,10 +853,12 @@ public class JobController {
             // 3. Delete any remaining master playlist records
             long masterPlaylistCount = masterPlaylistRecordRepository.count();
             masterPlaylistRecordRepository.deleteAll();
+            playlistCache.invalidateAll();
             
-            // 4. Delete any remaining variant segments
-            long segmentCount = variantSegmentRepository.count();
+            // 4. Delete any remaining variant segments and segment indexes
+            long segmentCount = variantSegmentRepository.count() + variantSegmentIndexRepository.count();
             variantSegmentRepository.deleteAll();
+            variantSegmentIndexRepository.deleteAll();
             
             // 5. Clean up temporary directories
             cleanDirectory.cleanFileAndDirectory();
@@ -0,0 +1,221 @@
+package com.xksgroup.m3u8encoderv2.controller;
+
+import com.xksgroup.m3u8encoderv2.service.LiveDvrService;
+import com.xksgroup.m3u8encoderv2.service.helper.ProxyHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.RangeResponseHelper;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Objects;
+
+@Slf4j
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping("/m3u8-encoder/api/v2/live-url/dvr")
+@Tag(name = "DVR URLs Live", description = "Diffusion des streams live depuis un tampon local glissant (timeshift)")
+public class LiveDvrController {
+
+    private static final String BASE_PATH = "/m3u8-encoder/api/v2/live-url/dvr/";
+
+    private final LiveDvrService liveDvrService;
+
+    @Value("${protocol}")
+    private String protocol;
+
+    @Value("${security.cors.allowed-origins:*}")
+    private String allowedOrigins;
+
+    public LiveDvrController(LiveDvrService liveDvrService) {
+        this.liveDvrService = liveDvrService;
+    }
+
+    private HttpHeaders getCorsHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Access-Control-Allow-Origin", allowedOrigins);
+        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "*");
+        headers.add("Access-Control-Expose-Headers", "*");
+        headers.add("Access-Control-Max-Age", "3600");
+        return headers;
+    }
+
+    @GetMapping("/{urlId}/master.m3u8")
+    @Operation(
+            summary = "Playlist maître d'un live servi depuis le tampon DVR",
+            description = """
+                    Démarre si nécessaire l'ingestion en arrière-plan de l'URL live (un seul client vers l'origine
+                    par rendition) et renvoie une playlist maître dont les variantes pointent vers le tampon local.
+
+                    **Notes :**
+                    - Le tampon conserve les N dernières minutes (`proxy.live.dvr.windowMinutes`), ce qui permet le timeshift
+                    - Il est supprimé après `proxy.live.dvr.idleSeconds` sans spectateur
+                    - Les renditions alternatives (#EXT-X-MEDIA) ne sont pas mises en tampon
+                    """
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Playlist maître générée",
+                    content = @Content(mediaType = "application/vnd.apple.mpegurl")),
+            @ApiResponse(responseCode = "503", description = "Limite de chaînes DVR atteinte ou origine indisponible", content = @Content)
+    })
+    public ResponseEntity<byte[]> master(
+            @Parameter(description = "Identifiant unique de l'URL live", example = "url-123", required = true)
+            @PathVariable String urlId,
+            HttpServletRequest request) {
+        try {
+            String base = ProxyHelper.buildServerUrl(request, protocol) + BASE_PATH + urlId + "/";
+            StringBuilder out = new StringBuilder();
+            for (String line : liveDvrService.masterLines(urlId)) {
+                // Variant URI lines were replaced by the rendition index
+                out.append(line.startsWith("#") ? line : base + line + "/index.m3u8").append('\n');
+            }
+            return playlist(out.toString());
+        } catch (Exception e) {
+            return failure(urlId, e);
+        }
+    }
+
+    @GetMapping("/{urlId}/{rendition}/index.m3u8")
+    @Operation(
+            summary = "Playlist média d'une rendition du tampon DVR",
+            description = """
+                    Renvoie la fenêtre glissante mise en tampon pour une rendition, de la plus ancienne
+                    à la plus récente, avec #EXT-X-PROGRAM-DATE-TIME pour la navigation dans le temps.
+                    """
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Playlist média générée",
+                    content = @Content(mediaType = "application/vnd.apple.mpegurl")),
+            @ApiResponse(responseCode = "400", description = "Rendition inconnue", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Limite de chaînes DVR atteinte ou origine indisponible", content = @Content)
+    })
+    public ResponseEntity<byte[]> media(
+            @Parameter(description = "Identifiant unique de l'URL live", example = "url-123", required = true)
+            @PathVariable String urlId,
+            @Parameter(description = "Index de la rendition dans la playlist maître", example = "0", required = true)
+            @PathVariable int rendition,
+            HttpServletRequest request) {
+        try {
+            String serverUrl = ProxyHelper.buildServerUrl(request, protocol);
+            LiveDvrService.DvrWindow window = liveDvrService.window(urlId, rendition);
+            List<LiveDvrService.DvrSegment> segments = window.segments();
+
+            int targetDuration = (int) Math.ceil(segments.stream()
+                    .mapToDouble(LiveDvrService.DvrSegment::duration)
+                    .max().orElse(window.targetDuration()));
+            StringBuilder out = new StringBuilder();
+            out.append("#EXTM3U\n");
+            out.append("#EXT-X-VERSION:").append(segments.stream().anyMatch(s -> s.mapTag() != null) ? 7 : 3).append('\n');
+            out.append("#EXT-X-TARGETDURATION:").append(Math.max(targetDuration, window.targetDuration())).append('\n');
+            out.append("#EXT-X-MEDIA-SEQUENCE:").append(segments.isEmpty() ? 0 : segments.get(0).sequence()).append('\n');
+            out.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(window.discontinuitySequence()).append('\n');
+
+            String keyTag = null;
+            String mapTag = null;
+            for (LiveDvrService.DvrSegment segment : segments) {
+                if (segment.discontinuity()) {
+                    out.append("#EXT-X-DISCONTINUITY\n");
+                }
+                if (!Objects.equals(keyTag, segment.keyTag()) && segment.keyTag() != null) {
+                    out.append(LiveDvrService.proxiedUriTag(segment.keyTag(), serverUrl)).append('\n');
+                }
+                if (!Objects.equals(mapTag, segment.mapTag()) && segment.mapTag() != null) {
+                    out.append(LiveDvrService.proxiedUriTag(segment.mapTag(), serverUrl)).append('\n');
+                }
+                keyTag = segment.keyTag();
+                mapTag = segment.mapTag();
+                out.append("#EXT-X-PROGRAM-DATE-TIME:")
+                        .append(DateTimeFormatter.ISO_INSTANT.format(segment.programDateTime())).append('\n');
+                out.append("#EXTINF:").append(segment.duration()).append(",\n");
+                out.append(serverUrl).append(BASE_PATH).append(urlId).append('/').append(rendition).append('/')
+                        .append(segment.sequence()).append(".ts\n");
+            }
+            return playlist(out.toString());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .headers(getCorsHeaders())
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(("Error: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return failure(urlId, e);
+        }
+    }
+
+    @GetMapping("/{urlId}/{rendition}/{sequence}.ts")
+    @Operation(
+            summary = "Segment du tampon DVR",
+            description = "Sert un segment depuis le disque local (requêtes Range supportées), sans contacter l'origine."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Segment servi",
+                    content = @Content(mediaType = "application/octet-stream")),
+            @ApiResponse(responseCode = "404", description = "Segment sorti de la fenêtre DVR", content = @Content)
+    })
+    public void segment(
+            @Parameter(description = "Identifiant unique de l'URL live", example = "url-123", required = true)
+            @PathVariable String urlId,
+            @Parameter(description = "Index de la rendition", example = "0", required = true)
+            @PathVariable int rendition,
+            @Parameter(description = "Numéro de séquence local du segment", example = "42", required = true)
+            @PathVariable long sequence,
+            HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        getCorsHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        LiveDvrService.DvrSegment segment = liveDvrService.segment(urlId, rendition, sequence);
+        if (segment == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        String contentType = segment.mapTag() != null ? "video/mp4" : "video/mp2t";
+        try (FileChannel channel = FileChannel.open(segment.path(), StandardOpenOption.READ)) {
+            RangeResponseHelper.write(channel, segment.path(), contentType, request, response);
+        } catch (NoSuchFileException e) {
+            // Evicted between the lookup and the read
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+        }
+    }
+
+    @RequestMapping(value = "/**", method = RequestMethod.OPTIONS)
+    @Operation(summary = "Prévol pour CORS - DVR", description = "Endpoint OPTIONS pour la gestion CORS")
+    public ResponseEntity<Void> options() {
+        return ResponseEntity.ok()
+                .headers(getCorsHeaders())
+                .build();
+    }
+
+    private ResponseEntity<byte[]> playlist(String text) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.ok()
+                .headers(getCorsHeaders())
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
+                .contentLength(body.length)
+                .body(body);
+    }
+
+    private ResponseEntity<byte[]> failure(String urlId, Exception e) {
+        log.warn("Live DVR unavailable - urlId: {}: {}", urlId, e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .headers(getCorsHeaders())
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .build();
+    }
+}
@@ -1,7 +1,11 @@
 package com.xksgroup.m3u8encoderv2.controller;
 
 
+import com.xksgroup.m3u8encoderv2.model.Job.Job;
 import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.model.RequestIssuer;
+import com.xksgroup.m3u8encoderv2.model.dto.LiveRecordingRequest;
+import com.xksgroup.m3u8encoderv2.service.LiveRecordingService;
 import com.xksgroup.m3u8encoderv2.service.LiveUrlService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -14,6 +18,8 @@ import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
@@ -27,6 +33,7 @@ import java.util.Map;
 public class LiveUrlController {
 
     private final LiveUrlService liveUrlService;
+    private final LiveRecordingService liveRecordingService;
 
 
     @PostMapping
@@ -142,4 +149,88 @@ public class LiveUrlController {
         LiveUrl result = liveUrlService.updateLiveUrl(urlId, updated);
         return ResponseEntity.ok(result);
     }
+
+    @PostMapping("/{urlId}/recordings")
+    @Operation(
+            summary = "Enregistrer une URL live en contenu VOD",
+            description = """
+                    Capture la meilleure rendition d'une URL live entre `startAt` et `endAt` (ou jusqu'à l'arrêt),
+                    par copie de flux des segments dans un répertoire local, puis crée un job d'encodage classique.
+
+                    **Déroulement :**
+                    1. Le job est créé immédiatement avec le statut `DOWNLOADING` pendant la capture
+                    2. À la fin de la capture, il passe à `PENDING` puis suit le pipeline habituel (encodage, téléversement)
+
+                    **Modes :**
+                    - `LADDER` (défaut) : la capture est ré-encodée en variantes ABR
+                    - `COPY` : la capture devient l'unique variante, sans ré-encodage (VIDEO uniquement)
+
+                    `startAt` peut être dans le passé tant que les segments sont encore dans la fenêtre de l'origine.
+                    """
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "202",
+                    description = "Enregistrement démarré",
+                    content = @Content(schema = @Schema(implementation = Map.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "URL live non trouvée ou plage horaire invalide",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<Map<String, Object>> startRecording(
+            @Parameter(description = "Identifiant unique de l'URL live", example = "url-123", required = true)
+            @PathVariable String urlId,
+            @Valid @RequestBody LiveRecordingRequest request,
+            @AuthenticationPrincipal Jwt principal) throws Exception {
+        RequestIssuer userAgent = RequestIssuer.builder()
+                .email(principal.getClaimAsString("email"))
+                .name(principal.getClaimAsString("name"))
+                .issuerId(principal.getClaimAsString("sub"))
+                .scope(principal.getClaimAsString("scope"))
+                .build();
+
+        Job job = liveRecordingService.start(urlId, request, userAgent);
+        Map<String, Object> body = new HashMap<>();
+        body.put("status", "accepted");
+        body.put("message", "Live recording started");
+        body.put("jobId", job.getJobId());
+        body.put("slug", job.getSlug());
+        body.put("title", job.getTitle());
+        body.put("urlId", urlId);
+        body.put("mode", request.getMode().name());
+        body.put("jobStatus", "DOWNLOADING");
+        return ResponseEntity.accepted().body(body);
+    }
+
+    @PostMapping("/recordings/{jobId}/stop")
+    @Operation(
+            summary = "Arrêter un enregistrement live",
+            description = "Termine la capture d'un enregistrement en cours ; le contenu capturé est ensuite encodé et téléversé"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Arrêt demandé",
+                    content = @Content(schema = @Schema(implementation = Map.class))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Aucun enregistrement en cours pour ce job",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<Map<String, Object>> stopRecording(
+            @Parameter(description = "Identifiant du job d'enregistrement", example = "job-123", required = true)
+            @PathVariable String jobId) {
+        if (!liveRecordingService.stop(jobId)) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("stopped", true);
+        body.put("jobId", jobId);
+        return ResponseEntity.ok(body);
+    }
 }
@@ -1,8 +1,18 @@
 package com.xksgroup.m3u8encoderv2.controller;
 
 import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.service.LiveOriginClients;
+import com.xksgroup.m3u8encoderv2.service.LiveOriginProber;
+import com.xksgroup.m3u8encoderv2.service.LivePlaylistCache;
+import com.xksgroup.m3u8encoderv2.service.LiveSegmentCache;
+import com.xksgroup.m3u8encoderv2.service.LiveTranscodeService;
 import com.xksgroup.m3u8encoderv2.service.LiveUrlService;
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import com.xksgroup.m3u8encoderv2.service.helper.LivePlaylistRewriter;
+import com.xksgroup.m3u8encoderv2.service.helper.LiveRewriteWindow;
+import com.xksgroup.m3u8encoderv2.service.helper.PlaylistCompression;
 import com.xksgroup.m3u8encoderv2.service.helper.ProxyHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.RangeResponseHelper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -12,19 +22,31 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import jakarta.servlet.http.HttpServletRequest;
-import java.net.URL;
-import java.net.URLEncoder;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static java.net.URLDecoder.decode;
 
@@ -35,8 +57,14 @@ import static java.net.URLDecoder.decode;
 @Tag(name = "Proxy URLs Live", description = "Proxy pour les streams HLS depuis des URLs live externes")
 public class LiveUrlProxyController {
 
-    private final WebClient webClient;
+    private final LiveOriginClients originClients;
+    private final LiveOriginProber liveOriginProber;
     private final LiveUrlService liveUrlService;
+    private final LiveSegmentCache liveSegmentCache;
+    private final LivePlaylistCache livePlaylistCache;
+    private final LiveTranscodeService liveTranscodeService;
+    // Last rewritten window per live stream (urlId, origin URL, server URL)
+    private final BoundedCache<String, LiveRewriteWindow> rewriteWindows;
 
     @Value("${protocol}")
     private String protocol;
@@ -44,14 +72,21 @@ public class LiveUrlProxyController {
     @Value("${security.cors.allowed-origins:*}")
     private String allowedOrigins;
 
+    // Origin buffers queued per streamed segment before the viewer connection applies backpressure
+    private static final int SEGMENT_PREFETCH = 4;
+
     @Autowired
-    public LiveUrlProxyController(LiveUrlService liveUrlService, WebClient.Builder webClientBuilder) {
-        this.webClient = webClientBuilder
-                .codecs(configurer -> configurer
-                        .defaultCodecs()
-                        .maxInMemorySize(16 * 1024 * 1024)) // 16MB limit
-                .build();
+    public LiveUrlProxyController(LiveUrlService liveUrlService, LiveSegmentCache liveSegmentCache,
+                                   LivePlaylistCache livePlaylistCache, LiveOriginClients originClients,
+                                   LiveOriginProber liveOriginProber, LiveTranscodeService liveTranscodeService,
+                                   @Value("${proxy.live.rewriteWindows.maxEntries:10000}") long rewriteWindowEntries) {
+        this.originClients = originClients;
+        this.liveOriginProber = liveOriginProber;
         this.liveUrlService = liveUrlService;
+        this.liveSegmentCache = liveSegmentCache;
+        this.livePlaylistCache = livePlaylistCache;
+        this.liveTranscodeService = liveTranscodeService;
+        this.rewriteWindows = new BoundedCache<>(rewriteWindowEntries, 0, window -> 1);
     }
 
     private HttpHeaders getCorsHeaders() {
@@ -82,6 +117,8 @@ public class LiveUrlProxyController {
                     - Support des tags média (#EXT-X-MEDIA)
                     - Support des streams I-frame (#EXT-X-I-FRAME-STREAM-INF)
                     - Support des tags MAP (#EXT-X-MAP)
+                    - LL-HLS : réécriture de #EXT-X-PART, #EXT-X-PRELOAD-HINT et #EXT-X-RENDITION-REPORT,
+                      rechargement bloquant via `_HLS_msn` / `_HLS_part` (une seule requête amont par partie attendue)
                     - Gestion CORS automatique
                     """
     )
@@ -102,69 +139,68 @@ public class LiveUrlProxyController {
                     content = @Content
             )
     })
-    public Mono<ResponseEntity<String>> proxyM3U8(
+    public Mono<ResponseEntity<byte[]>> proxyM3U8(
             @Parameter(description = "Identifiant unique de l'URL live", example = "url-123", required = true)
             @PathVariable String urlId,
             @Parameter(description = "URL absolue pour les playlists imbriquées (usage interne)", required = false)
             @RequestParam(value = "u", required = false) String overrideUrl,
+            @Parameter(description = "LL-HLS : numéro de séquence média attendu (rechargement bloquant)")
+            @RequestParam(value = "_HLS_msn", required = false) Long blockingMsn,
+            @Parameter(description = "LL-HLS : index de la partie attendue (rechargement bloquant)")
+            @RequestParam(value = "_HLS_part", required = false) Integer blockingPart,
             HttpServletRequest request) {
 
         try {
             String baseFetchUrl;
 
             if (overrideUrl != null && !overrideUrl.isBlank()) {
-                baseFetchUrl = decode(overrideUrl, StandardCharsets.UTF_8);
-                log.info("LiveUrl proxy - nested playlist request - urlId: {}, overrideUrl: {}", urlId, baseFetchUrl);
+                // Nested playlists move to a healthy mirror as soon as their origin is probed down
+                baseFetchUrl = liveOriginProber.preferred(decode(overrideUrl, StandardCharsets.UTF_8));
+                log.debug("LiveUrl proxy - nested playlist request - urlId: {}, overrideUrl: {}", urlId, baseFetchUrl);
             } else {
-                LiveUrl liveUrl = liveUrlService.findLiveUrlByUrlId(urlId);
-                baseFetchUrl = liveUrl.getUrl();
-                log.info("LiveUrl proxy - initial request - urlId: {}, baseUrl: {}", urlId, baseFetchUrl);
+                LiveUrl liveUrl = liveUrlService.resolveLiveUrl(urlId);
+                baseFetchUrl = liveOriginProber.pickOrigin(liveUrl);
+                log.debug("LiveUrl proxy - initial request - urlId: {}, baseUrl: {}", urlId, baseFetchUrl);
             }
 
             String serverUrl = ProxyHelper.buildServerUrl(request,protocol);
-
-            return webClient.get()
-                    .uri(baseFetchUrl)
-                    .header("Accept", "application/vnd.apple.mpegurl,application/x-mpegURL,text/plain,*/*")
-                    .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120 Safari/537.36")
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .map(m3u8Content -> {
-                        if (m3u8Content == null || m3u8Content.trim().isEmpty()) {
-                            throw new IllegalArgumentException("Failed to fetch M3U8 content");
-                        }
-
-                        // Log first few lines of fetched content
-                        if (log.isDebugEnabled()) {
-                            String[] contentLines = m3u8Content.split("\n", 10);
-                            log.debug("Fetched M3U8 content (first {} lines, total {} chars):", contentLines.length, m3u8Content.length());
-                            for (int i = 0; i < Math.min(contentLines.length, 8); i++) {
-                                log.debug("  Fetched line {}: {}", i + 1, contentLines[i]);
-                            }
-                        }
-
-                        try {
-                            String processedContent = processM3U8Content(m3u8Content, baseFetchUrl, serverUrl, urlId);
-                            log.info("LiveUrl proxy - processed content length: {} chars, serverUrl: {}", processedContent.length(), serverUrl);
-
-                            HttpHeaders headers = getCorsHeaders();
-                            return ResponseEntity.ok()
-                                    .headers(headers)
-                                    .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                                    .body(processedContent);
-                        } catch (Exception e) {
-                            log.error("Error processing M3U8 content: {}", e.getMessage(), e);
-                            throw new RuntimeException("Error processing M3U8 content", e);
+            boolean gzip = PlaylistCompression.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+            // One origin fetch and rewrite per target-duration half-window, shared by every viewer on this server URL;
+            // LL-HLS blocking reloads share one upstream blocking request per requested part.
+            // The rewrite resolves URIs against the origin actually used, so viewers follow a failover.
+            return withFailover(baseFetchUrl, url -> {
+                        LivePlaylistCache.Rewriter rewriter = body -> processM3U8Content(body, url, serverUrl, urlId);
+                        return Mono.fromFuture(blockingMsn != null
+                                ? livePlaylistCache.getBlocking(urlId, url, serverUrl, blockingMsn, blockingPart, rewriter)
+                                : livePlaylistCache.getRewritten(urlId, url, serverUrl, rewriter));
+                    })
+                    .map(playlist -> {
+                        HttpHeaders headers = getCorsHeaders();
+                        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                        byte[] body = playlist.text();
+                        if (gzip && playlist.gzipped() != null) {
+                            body = playlist.gzipped();
+                            headers.add(HttpHeaders.CONTENT_ENCODING, PlaylistCompression.GZIP);
                         }
+                        return ResponseEntity.ok()
+                                .headers(headers)
+                                .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
+                                .contentLength(body.length)
+                                .body(body);
+                    })
+                    .onErrorResume(e -> e instanceof RejectedExecutionException || e instanceof LiveOriginClients.OriginUnavailableException, e -> {
+                        log.warn("Shedding live playlist request - urlId: {}: {}", urlId, e.getMessage());
+                        return Mono.just(unavailable(e.getMessage()));
                     })
                     .onErrorResume(e -> {
                         log.error("LiveUrl proxy error - urlId: {}, msg: {}", urlId, e.getMessage(), e);
-                        return Mono.just(ResponseEntity.badRequest().body("Error: " + e.getMessage()));
+                        return Mono.just(errorBody(e));
                     });
 
         } catch (Exception e) {
             log.error("LiveUrl proxy error - urlId: {}, msg: {}", urlId, e.getMessage(), e);
-            return Mono.just(ResponseEntity.badRequest().body("Error: " + e.getMessage()));
+            return Mono.just(errorBody(e));
         }
     }
 
@@ -176,6 +212,67 @@ public class LiveUrlProxyController {
                 .build();
     }
 
+    @GetMapping({"/{urlId}/abr/master.m3u8", "/{urlId}/abr/{variant}/{file}"})
+    @Operation(
+            summary = "Servir une URL live transcodée en plusieurs qualités (ABR)",
+            description = """
+                    Pour les sources live mono-débit : le premier spectateur démarre un transcodage ffmpeg
+                    continu de l'URL live vers les variantes de l'échelle ABR (sans upscale), écrit dans une
+                    fenêtre HLS glissante locale. Le transcodage est arrêté après `proxy.live.transcode.idleSeconds`
+                    sans requête.
+
+                    **Chemins :**
+                    - `/{urlId}/abr/master.m3u8` : playlist maître
+                    - `/{urlId}/abr/v{N}/index.m3u8` et `/{urlId}/abr/v{N}/seg_{NNNNN}.ts` : référencés en relatif par la playlist maître
+                    """
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Playlist ou segment servi", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Fichier inconnu ou sorti de la fenêtre", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Limite de transcodages atteinte ou démarrage trop long", content = @Content)
+    })
+    public void transcoded(
+            @Parameter(description = "Identifiant unique de l'URL live", example = "url-123", required = true)
+            @PathVariable String urlId,
+            @PathVariable(required = false) String variant,
+            @PathVariable(required = false) String file,
+            HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        getCorsHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        String relativePath = variant != null ? variant + "/" + file : "master.m3u8";
+        Path path;
+        try {
+            path = liveTranscodeService.file(urlId, relativePath);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        } catch (IllegalStateException e) {
+            log.warn("Live transcode unavailable - urlId: {}: {}", urlId, e.getMessage());
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return;
+        }
+        if (path == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        if (relativePath.endsWith(".m3u8")) {
+            byte[] body = Files.readAllBytes(path);
+            response.setContentType("application/vnd.apple.mpegurl");
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            RangeResponseHelper.write(channel, path, "video/mp2t", request, response);
+        } catch (NoSuchFileException e) {
+            // Deleted from the window between the lookup and the read
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+        }
+    }
+
     @RequestMapping(value = "/segment", method = RequestMethod.OPTIONS)
     @Operation(summary = "Prévol pour CORS - Segment", description = "Endpoint OPTIONS pour la gestion CORS")
     public ResponseEntity<Void> proxySegmentOptions() {
@@ -210,28 +307,21 @@ public class LiveUrlProxyController {
                     content = @Content
             )
     })
-    public Mono<ResponseEntity<byte[]>> proxySegment(
+    public Mono<ResponseEntity<StreamingResponseBody>> proxySegment(
             @Parameter(description = "URL encodée du segment à proxifier", example = "https%3A%2F%2Fexample.com%2Fsegment.ts", required = true)
-            @RequestParam("u") String origin) {
+            @RequestParam("u") String origin,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) {
         try {
-            String fetchUrl = decode(origin, StandardCharsets.UTF_8);
-
-            return webClient.get()
-                    .uri(fetchUrl)
-                    .header("Accept", "*/*")
-                    .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120 Safari/537.36")
-                    .retrieve()
-                    .toEntity(byte[].class)
-                    .map(response -> {
-                        MediaType contentType = response.getHeaders().getContentType();
-                        MediaType finalType = contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM;
+            String fetchUrl = liveOriginProber.preferred(decode(origin, StandardCharsets.UTF_8));
 
-                        HttpHeaders headers = getCorsHeaders();
-                        return ResponseEntity.ok()
-                                .headers(headers)
-                                .contentType(finalType)
-                                .body(response.getBody());
+            return withFailover(fetchUrl, url -> fetchSegment(url, range))
+                    .onErrorResume(WebClientResponseException.class, e -> {
+                        // Keep the origin status (e.g. 404, 416) so players can react to it
+                        log.warn("LiveUrl segment origin returned {}: {}", e.getStatusCode(), fetchUrl);
+                        return Mono.just(ResponseEntity.status(e.getStatusCode()).headers(getCorsHeaders()).build());
                     })
+                    .onErrorResume(e -> e instanceof RejectedExecutionException || e instanceof LiveOriginClients.OriginUnavailableException,
+                            e -> Mono.just(unavailable(e.getMessage())))
                     .onErrorResume(e -> {
                         log.error("LiveUrl segment proxy error: {}", e.getMessage(), e);
                         return Mono.just(ResponseEntity.badRequest().body(null));
@@ -243,184 +333,157 @@ public class LiveUrlProxyController {
         }
     }
 
-    private String processM3U8Content(String content, String baseUrl, String serverUrl, String urlId) throws Exception {
-        if (content == null || content.trim().isEmpty()) {
-            throw new IllegalArgumentException("M3U8 content is empty or null");
-        }
-
-        List<String> newLines = new ArrayList<>();
-        String[] lines = content.split("\n");
-        URL baseURL = new URL(baseUrl);
-
-        for (String line : lines) {
-            if (line == null) {
-                continue;
-            }
-            // Keep empty lines as they may be significant in M3U8 format
-            if (line.trim().isEmpty()) {
-                newLines.add("");
-                continue;
-            }
-
-            if (line.startsWith("#")) {
-                if (line.startsWith("#EXT-X-KEY:")) {
-                    String modifiedLine = processKeyLine(line, baseURL, serverUrl);
-                    newLines.add(modifiedLine);
-                } else if (line.startsWith("#EXT-X-I-FRAME-STREAM-INF:")) {
-                    String modifiedLine = processIFrameStreamInf(line, baseURL, serverUrl, urlId);
-                    newLines.add(modifiedLine);
-                } else if (line.startsWith("#EXT-X-MEDIA:")) {
-                    String modifiedLine = processMediaTag(line, baseURL, serverUrl, urlId);
-                    newLines.add(modifiedLine);
-                } else if (line.startsWith("#EXT-X-MAP:")) {
-                    String modifiedLine = processMapTag(line, baseURL, serverUrl);
-                    newLines.add(modifiedLine);
-                } else {
-                    newLines.add(line);
-                }
-            } else {
-                String modifiedLine = processMediaLine(line, baseURL, serverUrl, urlId);
-                newLines.add(modifiedLine);
-                // Log first few media lines to debug
-                if (newLines.size() <= 15 && log.isDebugEnabled()) {
-                    log.debug("Media line rewritten: '{}' -> '{}'", line, modifiedLine);
-                }
-            }
+    /**
+     * Every viewer of the channel joins the same origin fetch; objects too large to cache, or fetches shed by a full
+     * executor, are passed through
+     */
+    private Mono<ResponseEntity<StreamingResponseBody>> fetchSegment(String url, String range) {
+        if (!liveSegmentCache.isEnabled()) {
+            return passThrough(url, range);
         }
+        return Mono.fromFuture(liveSegmentCache.get(url))
+                .map(segment -> cachedSegment(segment, range))
+                .switchIfEmpty(Mono.defer(() -> passThrough(url, range)))
+                .onErrorResume(RejectedExecutionException.class, e -> passThrough(url, range));
+    }
 
-        String result = String.join("\n", newLines);
-        // Log sample of result for debugging
-        if (log.isDebugEnabled()) {
-            String[] resultLines = result.split("\n", 20);
-            log.debug("Processed M3U8 sample (first {} lines):", resultLines.length);
-            for (int i = 0; i < Math.min(resultLines.length, 15); i++) {
-                log.debug("  Line {}: {}", i + 1, resultLines[i]);
-            }
+    /**
+     * Runs the request against the URL, then against the same path on each mirror while the origin is failing
+     * (5xx, timeouts, connection errors or an open breaker); 4xx answers are returned as they are
+     */
+    private <T> Mono<T> withFailover(String url, Function<String, Mono<T>> attempt) {
+        Mono<T> result = Mono.defer(() -> attempt.apply(url));
+        for (String alternative : liveOriginProber.alternatives(url)) {
+            result = result.onErrorResume(LiveUrlProxyController::isOriginFailure, e -> {
+                log.warn("Live origin failed for {} ({}), failing over to {}", url, e.getMessage(), alternative);
+                return attempt.apply(alternative);
+            });
         }
         return result;
     }
 
-    private String processKeyLine(String line, URL baseURL, String serverUrl) throws Exception {
-        if (line == null || !line.contains("URI=\"")) {
-            return line;
+    private static boolean isOriginFailure(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            return response.getStatusCode().is5xxServerError();
         }
-
-        int urlStart = line.indexOf("URI=\"") + 5;
-        int urlEnd = line.indexOf("\"", urlStart);
-        if (urlStart > 4 && urlEnd > urlStart) {
-            String keyUrl = line.substring(urlStart, urlEnd);
-            URL fullUrl = new URL(baseURL, keyUrl);
-            String proxyUrl = serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/segment?u=" +
-                    URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8);
-            return line.substring(0, urlStart) + proxyUrl + line.substring(urlEnd);
-        }
-        return line;
+        return !(e instanceof RejectedExecutionException) && !(e instanceof IllegalArgumentException);
     }
 
-    private String processIFrameStreamInf(String line, URL baseURL, String serverUrl, String urlId) throws Exception {
-        int uriIdx = line.indexOf("URI=\"");
-        if (uriIdx < 0) {
-            return line;
-        }
-        int start = uriIdx + 5;
-        int end = line.indexOf('"', start);
-        if (end <= start) {
-            return line;
+    /**
+     * Serves a cached live segment from disk, honouring a single Range
+     */
+    private ResponseEntity<StreamingResponseBody> cachedSegment(LiveSegmentCache.LiveSegment segment, String range) {
+        RangeResponseHelper.Slice slice = RangeResponseHelper.slice(range, segment.size());
+        HttpHeaders headers = getCorsHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (slice.contentRange() != null) {
+            headers.set(HttpHeaders.CONTENT_RANGE, slice.contentRange());
         }
-        String uriValue = line.substring(start, end);
-        boolean isPlaylist = uriValue.toLowerCase().contains(".m3u8");
-        URL fullUrl = new URL(baseURL, uriValue);
-        if (!isPlaylist) {
-            isPlaylist = fullUrl.toString().toLowerCase().contains(".m3u8");
+        if (slice.status() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE) {
+            return ResponseEntity.status(slice.status()).headers(headers).build();
         }
-        String proxied = isPlaylist
-                ? serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/" + urlId + "?u=" +
-                URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8)
-                : serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/segment?u=" +
-                URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8);
-        return line.substring(0, start) + proxied + line.substring(end);
+        // An eviction between here and the write only truncates this response; the player retries the segment
+        StreamingResponseBody body = out -> {
+            try (FileChannel channel = FileChannel.open(segment.path(), StandardOpenOption.READ)) {
+                RangeResponseHelper.transfer(channel, slice, out);
+            }
+        };
+        return ResponseEntity.status(slice.status())
+                .headers(headers)
+                .contentType(MediaType.parseMediaType(segment.contentType()))
+                .contentLength(slice.length())
+                .body(body);
     }
 
-    private String processMediaTag(String line, URL baseURL, String serverUrl, String urlId) throws Exception {
-        int uriIdx = line.indexOf("URI=\"");
-        if (uriIdx < 0) {
-            return line;
-        }
-        int start = uriIdx + 5;
-        int end = line.indexOf('"', start);
-        if (end <= start) {
-            return line;
-        }
-        String uriValue = line.substring(start, end);
-        boolean isPlaylist = uriValue.toLowerCase().contains(".m3u8");
-        URL fullUrl = new URL(baseURL, uriValue);
-        if (!isPlaylist) {
-            isPlaylist = fullUrl.toString().toLowerCase().contains(".m3u8");
-        }
-        String proxied = isPlaylist
-                ? serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/" + urlId + "?u=" +
-                URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8)
-                : serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/segment?u=" +
-                URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8);
-        return line.substring(0, start) + proxied + line.substring(end);
+    /**
+     * Streams the origin response straight through, forwarding Range
+     */
+    private Mono<ResponseEntity<StreamingResponseBody>> passThrough(String fetchUrl, String range) {
+        return originClients.execute(fetchUrl, client -> client.get()
+                .uri(fetchUrl)
+                .header("Accept", "*/*")
+                .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120 Safari/537.36")
+                .headers(h -> {
+                    if (range != null && !range.isBlank()) {
+                        h.set(HttpHeaders.RANGE, range);
+                    }
+                })
+                .retrieve()
+                // Headers arrive first; the body stays an unconsumed Flux until the servlet response is ready
+                .toEntityFlux(DataBuffer.class)
+                .map(response -> {
+                    HttpHeaders origHeaders = response.getHeaders();
+                    MediaType contentType = origHeaders.getContentType();
+                    MediaType finalType = contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM;
+
+                    HttpHeaders headers = getCorsHeaders();
+                    copyHeader(origHeaders, headers, HttpHeaders.CONTENT_LENGTH);
+                    copyHeader(origHeaders, headers, HttpHeaders.CONTENT_RANGE);
+                    copyHeader(origHeaders, headers, HttpHeaders.ACCEPT_RANGES);
+                    return ResponseEntity.status(response.getStatusCode())
+                            .headers(headers)
+                            .contentType(finalType)
+                            .body(streamBody(response.getBody()));
+                }));
     }
 
-    private String processMapTag(String line, URL baseURL, String serverUrl) throws Exception {
-        int uriIdx = line.indexOf("URI=\"");
-        if (uriIdx < 0) {
-            return line;
-        }
-        int start = uriIdx + 5;
-        int end = line.indexOf('"', start);
-        if (end <= start) {
-            return line;
-        }
-        String uriValue = line.substring(start, end);
-        URL fullUrl = new URL(baseURL, uriValue);
-        String proxied = serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/segment?u=" +
-                URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8);
-        return line.substring(0, start) + proxied + line.substring(end);
+    /**
+     * Writes origin buffers to the servlet output as they arrive, releasing each one after the write.
+     * A small prefetch provides backpressure; closing the stream cancels the origin request if the viewer goes away.
+     */
+    private static StreamingResponseBody streamBody(Flux<DataBuffer> body) {
+        return out -> {
+            if (body == null) {
+                return;
+            }
+            try (Stream<DataBuffer> buffers = body
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .toStream(SEGMENT_PREFETCH)) {
+                Iterator<DataBuffer> it = buffers.iterator();
+                while (it.hasNext()) {
+                    try (InputStream in = it.next().asInputStream(true)) {
+                        in.transferTo(out);
+                    }
+                }
+                out.flush();
+            }
+        };
     }
 
-    private String processMediaLine(String line, URL baseURL, String serverUrl, String urlId) throws Exception {
-        if (line == null || line.trim().isEmpty()) {
-            return line;
+    private static void copyHeader(HttpHeaders from, HttpHeaders to, String name) {
+        String value = from.getFirst(name);
+        if (value != null) {
+            to.set(name, value);
         }
+    }
 
-        String trimmedLine = line.trim();
-
-        // First check the original line for .m3u8 (before URL resolution)
-        // This catches cases like "video=285868.m3u8?context=..." where .m3u8 is in the filename
-        boolean isPlaylist = trimmedLine.toLowerCase().contains(".m3u8");
+    /**
+     * 503 for an overloaded proxy or an origin whose circuit breaker is open; players retry after a second
+     */
+    private <T> ResponseEntity<T> unavailable(String reason) {
+        log.debug("Live proxy unavailable: {}", reason);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .headers(getCorsHeaders())
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .build();
+    }
 
-        URL segmentUrl;
-        try {
-            if (trimmedLine.startsWith("http://") || trimmedLine.startsWith("https://")) {
-                segmentUrl = new URL(trimmedLine);
-            } else {
-                // Relative URL - resolve against base URL
-                segmentUrl = new URL(baseURL, trimmedLine);
-                // Double-check the resolved URL
-                if (!isPlaylist) {
-                    String resolvedUrl = segmentUrl.toString().toLowerCase();
-                    isPlaylist = resolvedUrl.contains(".m3u8");
-                }
-            }
-        } catch (Exception e) {
-            log.warn("Failed to parse URL from line '{}' with base '{}': {}", trimmedLine, baseURL, e.getMessage());
-            return line; // Return original line if URL parsing fails
-        }
+    private static ResponseEntity<byte[]> errorBody(Throwable e) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(("Error: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+    }
 
-        String result;
-        if (isPlaylist) {
-            result = serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/" + urlId + "?u=" +
-                    URLEncoder.encode(segmentUrl.toString(), StandardCharsets.UTF_8);
-            log.debug("Rewritten playlist: '{}' -> '{}'", trimmedLine, result);
-        } else {
-            result = serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/segment?u=" +
-                    URLEncoder.encode(segmentUrl.toString(), StandardCharsets.UTF_8);
+    private String processM3U8Content(String content, String baseUrl, String serverUrl, String urlId) throws Exception {
+        // Lines still in the window since the last refresh of this stream keep their already encoded proxy URI
+        String streamKey = urlId + "|" + baseUrl + "|" + serverUrl;
+        LivePlaylistRewriter.Result result = LivePlaylistRewriter.rewrite(content, baseUrl, serverUrl, urlId,
+                rewriteWindows.getIfPresent(streamKey));
+        if (result.window() != null) {
+            rewriteWindows.put(streamKey, result.window());
         }
-        return result;
+        liveSegmentCache.onMediaPlaylist(result.segmentUrls(), result.windowMillis());
+        return result.content();
     }
 
 
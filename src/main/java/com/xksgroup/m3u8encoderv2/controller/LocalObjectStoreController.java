@@ -0,0 +1,70 @@
+package com.xksgroup.m3u8encoderv2.controller;
+
+import com.xksgroup.m3u8encoderv2.service.helper.RangeResponseHelper;
+import com.xksgroup.m3u8encoderv2.service.storage.LocalObjectStore;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Serves objects of the local filesystem store through HMAC-signed URLs (the local equivalent of presigned URLs)
+ */
+@Slf4j
+@RestController
+@Profile("local")
+@RequestMapping("/m3u8-encoder/api/v2/local-store")
+@Tag(name = "Stockage local", description = "Accès aux objets du stockage local via des URLs signées")
+public class LocalObjectStoreController {
+
+    private static final String BASE_PATH = "/m3u8-encoder/api/v2/local-store/";
+
+    private final LocalObjectStore objectStore;
+
+    public LocalObjectStoreController(LocalObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    @GetMapping("/**")
+    @Operation(summary = "Télécharger un objet du stockage local avec une URL signée")
+    public void getObject(@RequestParam("exp") long expires,
+                          @RequestParam("sig") String signature,
+                          HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        int start = path.indexOf(BASE_PATH);
+        if (start < 0) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        String key = URLDecoder.decode(path.substring(start + BASE_PATH.length()), StandardCharsets.UTF_8);
+
+        if (!objectStore.verifySignature(key, expires, signature)) {
+            log.warn("Rejected local store request with invalid or expired signature: {}", key);
+            response.sendError(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+
+        try (FileChannel channel = objectStore.openChannel(key)) {
+            response.setHeader("Cache-Control", "private, max-age=" + Math.max(0, expires - System.currentTimeMillis() / 1000));
+            RangeResponseHelper.write(channel, RangeResponseHelper.contentTypeOf(key), request, response);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value());
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package com.xksgroup.m3u8encoderv2.controller;
 
 import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
-import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
+import com.xksgroup.m3u8encoderv2.service.EncryptionKeyCache;
+import com.xksgroup.m3u8encoderv2.service.PlaylistCache;
 import com.xksgroup.m3u8encoderv2.service.R2StorageService;
+import com.xksgroup.m3u8encoderv2.service.SegmentAccessCache;
+import com.xksgroup.m3u8encoderv2.service.SegmentDiskCache;
 import com.xksgroup.m3u8encoderv2.service.TokenService;
 import com.xksgroup.m3u8encoderv2.service.helper.EncryptionHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.PlaylistCompression;
 import com.xksgroup.m3u8encoderv2.service.helper.ProxyHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.RangeResponseHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.VariantPlaylistTemplate;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
@@ -17,10 +24,15 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.net.URLEncoder;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Optional;
+import java.util.function.IntFunction;
 
 @Slf4j
 @RestController
@@ -30,17 +42,26 @@ public class ProxyController {
 
     private final R2StorageService storageService;
     private final TokenService tokenService;
-    private final MasterPlaylistRecordRepository masterRepo;
     private final EncryptionHelper encryptionHelper;
+    private final PlaylistCache playlistCache;
+    private final SegmentAccessCache segmentAccessCache;
+    private final EncryptionKeyCache keyCache;
+    private final SegmentDiskCache segmentDiskCache;
 
     public ProxyController(R2StorageService storageService,
                            TokenService tokenService,
-                           MasterPlaylistRecordRepository masterRepo,
-                           EncryptionHelper encryptionHelper) {
+                           EncryptionHelper encryptionHelper,
+                           PlaylistCache playlistCache,
+                           SegmentAccessCache segmentAccessCache,
+                           EncryptionKeyCache keyCache,
+                           SegmentDiskCache segmentDiskCache) {
         this.storageService = storageService;
         this.tokenService = tokenService;
-        this.masterRepo = masterRepo;
         this.encryptionHelper = encryptionHelper;
+        this.playlistCache = playlistCache;
+        this.segmentAccessCache = segmentAccessCache;
+        this.keyCache = keyCache;
+        this.segmentDiskCache = segmentDiskCache;
     }
 
 
@@ -50,12 +71,27 @@ public class ProxyController {
     @Value("${protocol:https}")
     private String protocol;
 
+    // "hmac": one prefix signature per playlist, "jwt": one JWT per segment (legacy). getSegment accepts both.
+    @Value("${proxy.segment.signing:hmac}")
+    private String segmentSigning;
+
+    // Playlists smaller than this are sent uncompressed
+    @Value("${proxy.compression.minBytes:1024}")
+    private int compressionMinBytes;
+
+    // Typical length of "token=<JWT>" per segment, used to decide whether a per-viewer playlist is worth compressing
+    private static final int JWT_QUERY_LENGTH = 300;
+
+    // "redirect": 302 to a presigned origin URL, "stream": serve bytes from the node-local segment cache
+    @Value("${proxy.segment.delivery:redirect}")
+    private String segmentDelivery;
+
     /**
      * Master playlist endpoint - just /proxy/{jobId}
      */
     @GetMapping("/{jobId}")
     @Operation(summary = "Obtenir la playlist maître en utilisant l'ID du job")
-    public ResponseEntity<String> getMasterPlaylist(
+    public ResponseEntity<?> getMasterPlaylist(
             @Parameter(description = "ID du job", example = "job-123e4567-e89b-12d3-a456-426614174000")
             @PathVariable String jobId,
             HttpServletRequest request) {
@@ -64,8 +100,8 @@ public class ProxyController {
         log.info(" master playlist request - JobId: {}, User-Agent: {}", jobId, userAgent);
 
         try {
-            // Look up the record by job ID
-            Optional<MasterPlaylistRecord> recordOpt = masterRepo.findByJobId(jobId);
+            // Look up the record by job ID (cached)
+            Optional<MasterPlaylistRecord> recordOpt = playlistCache.getRecord(jobId);
             if (recordOpt.isEmpty()) {
                 log.warn("No record found for job ID: {}", jobId);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -75,23 +111,36 @@ public class ProxyController {
             MasterPlaylistRecord record = recordOpt.get();
             String keyPrefix = extractKeyPrefix(record.getMasterKey());
 
-            // Fetch original master playlist from R2
-            String originalPlaylist = storageService.getPlaylistContent(record.getMasterKey());
+            // The rewritten master carries no tokens: it only changes with the record or the serving host
+            String baseEtag = ProxyHelper.etag("master", record.getId(), record.getUpdatedAt(), record.getTitle(),
+                    ProxyHelper.buildServerUrl(request, protocol));
+            boolean gzip = PlaylistCompression.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            String etag = gzip ? PlaylistCompression.gzipETag(baseEtag) : baseEtag;
+            Instant changedAt = record.getUpdatedAt() != null ? record.getUpdatedAt() : record.getCreatedAt();
+            long lastModified = changedAt != null ? changedAt.toEpochMilli() : -1;
+            if (ProxyHelper.isNotModified(request, etag, lastModified)) {
+                return playlistNotModified(etag, lastModified, "public, no-cache");
+            }
 
-            // Rewrite variant playlist URLs to go through our proxy with tokens
-            String rewrittenPlaylist = rewriteMasterPlaylist(originalPlaylist, keyPrefix, userAgent, record.getTitle(),request);
+            // Rewritten (and compressed) once per record version and host; the origin master is cached as well
+            PlaylistCache.RenderedPlaylist rendered = playlistCache.getRendered(jobId, baseEtag, compressionMinBytes,
+                    () -> rewriteMasterPlaylist(playlistCache.getPlaylist(jobId, record.getMasterKey()),
+                            keyPrefix, userAgent, record.getTitle(), request));
 
-            log.info("Served  master playlist for job ID: {} (length: {} chars)", jobId, rewrittenPlaylist.length());
+            log.info("Served  master playlist for job ID: {} (length: {} bytes)", jobId, rendered.text().length);
 
-            return ResponseEntity.ok()
+            return playlistBody(withLastModified(ResponseEntity.ok(), lastModified)
                     .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                    .header("Cache-Control", "no-cache, no-store, must-revalidate")
+                    .eTag(etag)
+                    .header("Cache-Control", "public, no-cache")
                     .header("Access-Control-Allow-Origin", allowedOrigins)
-                    .header("Access-Control-Allow-Headers", "Range, Content-Type")
+                    .header("Access-Control-Allow-Headers", "Range, Content-Type, If-None-Match, If-Modified-Since")
                     .header("Access-Control-Allow-Methods", "GET, HEAD, OPTIONS")
+                    .header("Access-Control-Expose-Headers", "ETag, Last-Modified")
                     .header("Accept-Ranges", "bytes")
                     .header("Content-Disposition", "inline; filename=\"" + record.getTitle() + ".m3u8\"")
-                    .body(rewrittenPlaylist);
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING),
+                    rendered, gzip);
 
         } catch (Exception e) {
             log.error("Failed to serve  master playlist for job ID: {} - Error: {}", jobId, e.getMessage(), e);
@@ -107,7 +156,7 @@ public class ProxyController {
     public ResponseEntity<Void> variantPlaylistOptions(@PathVariable String jobId, @PathVariable String variant) {
         return ResponseEntity.ok()
                 .header("Access-Control-Allow-Origin", allowedOrigins)
-                .header("Access-Control-Allow-Headers", "Range, Content-Type")
+                .header("Access-Control-Allow-Headers", "Range, Content-Type, If-None-Match, If-Modified-Since")
                 .header("Access-Control-Allow-Methods", "GET, HEAD, OPTIONS")
                 .header("Access-Control-Max-Age", "86400")
                 .build();
@@ -118,7 +167,7 @@ public class ProxyController {
      */
     @GetMapping("/{jobId}/{variant}/index.m3u8")
     @Operation(summary = "Obtenir la playlist de variante en utilisant l'ID du job")
-    public ResponseEntity<String> getVariantPlaylist(
+    public ResponseEntity<?> getVariantPlaylist(
             @PathVariable String jobId,
             @PathVariable String variant,
             HttpServletRequest request) {
@@ -127,7 +176,7 @@ public class ProxyController {
         log.info(" variant playlist request - JobId: {}, Variant: {}, User-Agent: {}", jobId, variant, userAgent);
 
         try {
-            Optional<MasterPlaylistRecord> recordOpt = masterRepo.findByJobId(jobId);
+            Optional<MasterPlaylistRecord> recordOpt = playlistCache.getRecord(jobId);
             if (recordOpt.isEmpty()) {
                 log.warn("No record found for job ID: {}", jobId);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -136,24 +185,64 @@ public class ProxyController {
 
             MasterPlaylistRecord record = recordOpt.get();
             String keyPrefix = extractKeyPrefix(record.getMasterKey());
-            String variantKey = keyPrefix + "/" + variant + "/index.m3u8";
 
-            String originalPlaylist = storageService.getPlaylistContent(variantKey);
-
-            String rewrittenPlaylist = rewriteVariantPlaylist(originalPlaylist, keyPrefix, variant, userAgent, record.getDurationSeconds(), record.getTitle(),request);
+            // Tokens are fixed within a token epoch, so the rendered playlist only changes with the record or the epoch
+            boolean deterministic = !"jwt".equalsIgnoreCase(segmentSigning);
+            long epoch = tokenService.currentEpoch();
+            String baseEtag = ProxyHelper.etag("variant", record.getId(), record.getUpdatedAt(), record.getTitle(), variant,
+                    segmentSigning, epoch, ProxyHelper.buildServerUrl(request, protocol));
+            boolean gzip = PlaylistCompression.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            String etag = gzip ? PlaylistCompression.gzipETag(baseEtag) : baseEtag;
+            if (!deterministic) {
+                etag = "W/" + etag; // per-request JWTs: equivalent, not byte-identical
+            }
+            long epochStart = epoch * tokenService.getEpochSeconds() * 1000;
+            long lastModified = record.getUpdatedAt() != null ? Math.max(record.getUpdatedAt().toEpochMilli(), epochStart) : epochStart;
+            String cacheControl = deterministic ? "public, no-cache" : "private, no-cache";
+            if (ProxyHelper.isNotModified(request, etag, lastModified)) {
+                return playlistNotModified(etag, lastModified, cacheControl);
+            }
 
-            log.info("Served  variant playlist for job ID: {}, variant: {} (length: {} chars)",
-                    jobId, variant, rewrittenPlaylist.length());
+            VariantPlaylistTemplate template = playlistCache.getVariantTemplate(record, keyPrefix, variant);
+            VariantRendering rendering = variantRendering(template, keyPrefix, variant, userAgent, record.getDurationSeconds(), request);
+            String title = record.getTitle();
 
-            return ResponseEntity.ok()
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                     .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                    .header("Cache-Control", "no-cache, no-store, must-revalidate")
+                    .eTag(etag)
+                    .lastModified(lastModified)
+                    .header("Cache-Control", cacheControl)
                     .header("Access-Control-Allow-Origin", allowedOrigins)
-                    .header("Access-Control-Allow-Headers", "Range, Content-Type")
+                    .header("Access-Control-Allow-Headers", "Range, Content-Type, If-None-Match, If-Modified-Since")
                     .header("Access-Control-Allow-Methods", "GET, HEAD, OPTIONS")
+                    .header("Access-Control-Expose-Headers", "ETag, Last-Modified")
                     .header("Accept-Ranges", "bytes")
-                    .header("Content-Disposition", "inline; filename=\"" + record.getTitle() + "_" + variant + ".m3u8\"")
-                    .body(rewrittenPlaylist);
+                    .header("Content-Disposition", "inline; filename=\"" + title + "_" + variant + ".m3u8\"")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            if (deterministic) {
+                // Same bytes for every viewer during the epoch: render and compress once
+                PlaylistCache.RenderedPlaylist rendered = playlistCache.getRendered(jobId, baseEtag, compressionMinBytes,
+                        () -> template.render(title, variant, rendering.keyTag(), rendering.segmentUriPrefix(), rendering.segmentQuery()));
+                log.info("Served  variant playlist for job ID: {}, variant: {} (length: {} bytes)", jobId, variant, rendered.text().length);
+                return playlistBody(response, rendered, gzip);
+            }
+
+            // Per-viewer tokens: stream the rendering through the compressor instead of building it first
+            if (gzip && template.estimateLength(title, rendering.keyTag(), rendering.segmentUriPrefix(), JWT_QUERY_LENGTH) >= compressionMinBytes) {
+                StreamingResponseBody body = out -> {
+                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(PlaylistCompression.gzipStream(out), StandardCharsets.UTF_8), 16 * 1024)) {
+                        template.renderTo(writer, title, variant, rendering.keyTag(), rendering.segmentUriPrefix(), rendering.segmentQuery());
+                    }
+                };
+                log.info("Streaming compressed variant playlist for job ID: {}, variant: {}", jobId, variant);
+                return response.header(HttpHeaders.CONTENT_ENCODING, PlaylistCompression.GZIP).body(body);
+            }
+
+            String rewrittenPlaylist = template.render(title, variant, rendering.keyTag(), rendering.segmentUriPrefix(), rendering.segmentQuery());
+            log.info("Served  variant playlist for job ID: {}, variant: {} (length: {} chars)",
+                    jobId, variant, rewrittenPlaylist.length());
+            return response.body(rewrittenPlaylist);
 
         } catch (Exception e) {
             log.error("Failed to serve variant playlist for job ID: {}, variant: {} - Error: {}",
@@ -164,36 +253,57 @@ public class ProxyController {
     }
 
     /**
-     * Handles segment requests - validates token and redirects to presigned URL
+     * Handles segment requests - validates token (JWT) or prefix signature (exp + sig), then either redirects
+     * to a presigned URL or streams the bytes (with Range support) from the local segment cache
      */
-    @GetMapping("/segment")
+    @RequestMapping(value = "/segment", method = {RequestMethod.GET, RequestMethod.HEAD})
     @Operation(summary = "Obtenir un segment vidéo avec validation du token")
     public ResponseEntity<Void> getSegment(
-            @Parameter(description = "Token d'accès", required = true)
-            @RequestParam("token") String token,
+            @Parameter(description = "Token d'accès (JWT, ancien schéma)")
+            @RequestParam(value = "token", required = false) String token,
+            @Parameter(description = "Expiration de la signature (epoch secondes)")
+            @RequestParam(value = "exp", required = false) Long expires,
+            @Parameter(description = "Signature HMAC du préfixe de la variante")
+            @RequestParam(value = "sig", required = false) String signature,
             @Parameter(description = "Clé de ressource du segment", required = true)
             @RequestParam("resource") String resourceKey,
-            HttpServletRequest request) {
+            HttpServletRequest request,
+            HttpServletResponse response) {
 
         String userAgent = request.getHeader("User-Agent");
-        log.info("Segment request - Resource: {}, User-Agent: {}", resourceKey, userAgent);
+        log.debug("Segment request - Resource: {}, User-Agent: {}", resourceKey, userAgent);
 
         try {
-            TokenService.TokenValidationResult validation = tokenService.validateToken(token);
+            if (signature != null && expires != null) {
+                if (!segmentAccessCache.validatePrefixSignature(resourceKey, expires, signature)) {
+                    log.warn("Invalid or expired signature for segment: {}", resourceKey);
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
+            } else if (token != null) {
+                TokenService.TokenValidationResult validation = segmentAccessCache.validateToken(token);
 
-            if (!validation.isValid()) {
-                log.warn("Invalid token for segment: {} - Error: {}", resourceKey, validation.getError());
+                if (!validation.isValid()) {
+                    log.warn("Invalid token for segment: {} - Error: {}", resourceKey, validation.getError());
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
+
+                if (!resourceKey.equals(validation.getResourceKey())) {
+                    log.warn("Token resource mismatch - Token: {}, Requested: {}", validation.getResourceKey(), resourceKey);
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
+            } else {
+                log.warn("Segment request without token or signature: {}", resourceKey);
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
 
-            if (!resourceKey.equals(validation.getResourceKey())) {
-                log.warn("Token resource mismatch - Token: {}, Requested: {}", validation.getResourceKey(), resourceKey);
-                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            if ("stream".equalsIgnoreCase(segmentDelivery)) {
+                streamSegment(resourceKey, request, response);
+                return null; // response already written
             }
 
-            String presignedUrl = storageService.generatePresignedUrl(resourceKey, 10);
+            String presignedUrl = segmentAccessCache.presignedUrl(resourceKey);
 
-            log.info("Redirecting to presigned URL for segment: {}", resourceKey);
+            log.debug("Redirecting to presigned URL for segment: {}", resourceKey);
 
             return ResponseEntity.status(HttpStatus.FOUND)
                     .header(HttpHeaders.LOCATION, presignedUrl)
@@ -215,126 +325,167 @@ public class ProxyController {
     public ResponseEntity<byte[]> getEncryptionKey(
             @Parameter(description = "ID du job", required = true)
             @PathVariable String jobId,
-            @Parameter(description = "Token d'accès", required = false)
+            @Parameter(description = "Token d'accès (JWT)", required = false)
             @RequestParam(value = "token", required = false) String token,
+            @Parameter(description = "Expiration de la signature (epoch secondes)")
+            @RequestParam(value = "exp", required = false) Long expires,
+            @Parameter(description = "Signature HMAC de la clé")
+            @RequestParam(value = "sig", required = false) String signature,
             HttpServletRequest request) {
 
         String userAgent = request.getHeader("User-Agent");
-        log.info("Encryption key request - JobId: {}, User-Agent: {}", jobId, userAgent);
+        log.debug("Encryption key request - JobId: {}, User-Agent: {}", jobId, userAgent);
 
         try {
-            if (token == null || token.trim().isEmpty()) {
-                log.warn("Missing token for encryption key request: {}", jobId);
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .header("Content-Type", "text/plain")
-                        .body("Token required for key access".getBytes());
-            }
+            String expectedResourceKey = "key/" + jobId;
+            if (signature != null && expires != null) {
+                if (!tokenService.validateScopeSignature(expectedResourceKey, expires, signature)) {
+                    log.warn("Invalid or expired signature for encryption key: {}", jobId);
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
+            } else {
+                if (token == null || token.trim().isEmpty()) {
+                    log.warn("Missing token for encryption key request: {}", jobId);
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                            .header("Content-Type", "text/plain")
+                            .body("Token required for key access".getBytes());
+                }
 
-            TokenService.TokenValidationResult validation = tokenService.validateToken(token);
+                TokenService.TokenValidationResult validation = segmentAccessCache.validateToken(token);
 
-            if (!validation.isValid()) {
-                log.warn("Invalid token for encryption key: {} - Error: {}", jobId, validation.getError());
-                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-            }
+                if (!validation.isValid()) {
+                    log.warn("Invalid token for encryption key: {} - Error: {}", jobId, validation.getError());
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
 
-            String expectedResourceKey = "key/" + jobId;
-            if (!expectedResourceKey.equals(validation.getResourceKey())) {
-                log.warn("Token resource mismatch for key - Token: {}, Expected: {}",
-                        validation.getResourceKey(), expectedResourceKey);
-                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                if (!expectedResourceKey.equals(validation.getResourceKey())) {
+                    log.warn("Token resource mismatch for key - Token: {}, Expected: {}",
+                            validation.getResourceKey(), expectedResourceKey);
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
             }
 
-            Optional<MasterPlaylistRecord> recordOpt = masterRepo.findAll().stream()
-                    .filter(record -> record.getMasterKey().contains(jobId))
-                    .findFirst();
-
+            Optional<MasterPlaylistRecord> recordOpt = playlistCache.getRecord(jobId);
             if (recordOpt.isEmpty()) {
-                log.error("No master playlist record found containing jobId: {}", jobId);
+                log.error("No master playlist record found for jobId: {}", jobId);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
-
             MasterPlaylistRecord record = recordOpt.get();
-            String keyPrefix = extractKeyPrefix(record.getMasterKey());
-
-            String keyFileName = encryptionHelper.getKeyFileName(jobId);
-            String keyPath = keyPrefix + "/" + keyFileName;
 
-            try {
-                byte[] keyData = storageService.getKeyData(keyPath);
-
-                log.info("Served encryption key for jobId: {}", jobId);
-
-                return ResponseEntity.ok()
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .header("Cache-Control", "private, no-cache, no-store, must-revalidate")
+            // Keys never change for a job; the ETag comes from the record so no key material leaks into a
+            // header, and revalidating players get a 304 without the key being loaded at all
+            String etag = ProxyHelper.etag("key", jobId, record.getId(), record.getUpdatedAt());
+            if (ProxyHelper.isNotModified(request, etag, -1)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .header("Cache-Control", "private, no-cache")
                         .header("Access-Control-Allow-Origin", allowedOrigins)
-                        .body(keyData);
+                        .build();
+            }
 
+            byte[] keyData;
+            try {
+                // Normally warmed at upload time; after a restart the key is fetched once
+                keyData = keyCache.get(jobId, () -> storageService.getKeyData(
+                        extractKeyPrefix(record.getMasterKey()) + "/" + encryptionHelper.getKeyFileName(jobId)));
             } catch (Exception e) {
-                log.error("Failed to retrieve encryption key from storage: {} - Error: {}", keyPath, e.getMessage());
+                log.error("Failed to retrieve encryption key for jobId: {} - Error: {}", jobId, e.getMessage());
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+
+            if (keyData == null) {
+                log.error("No encryption key found for jobId: {}", jobId);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
 
+            log.debug("Served encryption key for jobId: {}", jobId);
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .eTag(etag)
+                    .header("Cache-Control", "private, no-cache")
+                    .header("Access-Control-Allow-Origin", allowedOrigins)
+                    .header("Access-Control-Expose-Headers", "ETag")
+                    .body(keyData);
+
         } catch (Exception e) {
             log.error("Failed to serve encryption key: {} - Error: {}", jobId, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    private String rewriteVariantPlaylist(String content, String keyPrefix, String variant, String userAgent, Long videoDurationSeconds, String title, HttpServletRequest request) {
+    private ResponseEntity<String> playlistNotModified(String etag, long lastModified, String cacheControl) {
+        return withLastModified(ResponseEntity.status(HttpStatus.NOT_MODIFIED), lastModified)
+                .eTag(etag)
+                .header("Cache-Control", cacheControl)
+                .header("Access-Control-Allow-Origin", allowedOrigins)
+                .header("Access-Control-Expose-Headers", "ETag, Last-Modified")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    private static ResponseEntity.BodyBuilder withLastModified(ResponseEntity.BodyBuilder builder, long lastModified) {
+        return lastModified >= 0 ? builder.lastModified(lastModified) : builder;
+    }
+
+    private void streamSegment(String resourceKey, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        try (SegmentDiskCache.OpenSegment segment = segmentDiskCache.open(resourceKey)) {
+            // Segment bytes never change; private keeps shared caches from bypassing token checks
+            response.setHeader("Cache-Control", "private, max-age=86400, immutable");
+            response.setHeader("Access-Control-Allow-Origin", allowedOrigins);
+            response.setHeader("Access-Control-Expose-Headers", "Content-Length, Content-Range, Accept-Ranges");
+            RangeResponseHelper.write(segment.channel(), segment.path(), RangeResponseHelper.contentTypeOf(resourceKey),
+                    request, response);
+        }
+    }
+
+    /**
+     * Per-request parts of a variant playlist: key tag and segment URLs with their tokens or signature
+     */
+    private record VariantRendering(String keyTag, String segmentUriPrefix, IntFunction<String> segmentQuery) { }
+
+    private VariantRendering variantRendering(VariantPlaylistTemplate template, String keyPrefix, String variant, String userAgent, Long videoDurationSeconds, HttpServletRequest request) {
         String serverHost = ProxyHelper.buildServerUrl(request,protocol);
-        StringBuilder result = new StringBuilder();
-        String[] lines = content.split("\n");
-        boolean keyTagAdded = false;
-        boolean headerAdded = false;
+        String segmentUriPrefix = serverHost + "/m3u8-encoder/api/v2/proxy/segment?";
 
-        for (String line : lines) {
-            if (line.startsWith("#EXTM3U") && !headerAdded) {
-                result.append(line).append("\n");
-                result.append("# Title: ").append(title).append(" (").append(variant.toUpperCase()).append(")\n");
-                result.append("# Variant: ").append(variant).append("\n");
-                headerAdded = true;
-                continue;
-            }
+        String keyTag = null;
+        String jobId = extractJobIdFromKeyPrefix(keyPrefix);
 
-            if (line.trim().startsWith("#EXT-X-KEY:")) {
-                log.debug("Skipping existing EXT-X-KEY tag: {}", line.trim());
-                continue;
+        if (!"jwt".equalsIgnoreCase(segmentSigning)) {
+            long expires = tokenService.computeExpiry(videoDurationSeconds);
+            if (jobId != null) {
+                keyTag = "#EXT-X-KEY:METHOD=AES-128,URI=\"" + serverHost + "/m3u8-encoder/api/v2/proxy/key/" + jobId
+                        + "?exp=" + expires + "&sig=" + tokenService.signPrefix("key/" + jobId, expires) + "\"";
             }
+            String query = "exp=" + expires + "&sig=" + tokenService.signPrefix(keyPrefix + "/" + variant + "/", expires);
+            return new VariantRendering(keyTag, segmentUriPrefix, segment -> query);
+        }
 
-            if (line.trim().startsWith("#EXT-X-VERSION") && !keyTagAdded) {
-                result.append(line).append("\n");
-
-                String jobId = extractJobIdFromKeyPrefix(keyPrefix);
-                if (jobId != null) {
-                    String keyToken = tokenService.generateKeyToken("key/" + jobId, userAgent, videoDurationSeconds);
-                    String  keyUrl = String.format("%s/m3u8-encoder/api/v2/proxy/key/%s?token=%s",
-                                 serverHost, jobId, keyToken);
+        if (jobId != null) {
+            String keyToken = tokenService.generateKeyToken("key/" + jobId, userAgent, videoDurationSeconds);
+            keyTag = "#EXT-X-KEY:METHOD=AES-128,URI=\"" + serverHost + "/m3u8-encoder/api/v2/proxy/key/" + jobId
+                    + "?token=" + keyToken + "\"";
+        }
 
-                    result.append("#EXT-X-KEY:METHOD=AES-128,URI=\"").append(keyUrl).append("\"\n");
-                    keyTagAdded = true;
-                    log.debug("Added encryption key tag for jobId: {}", jobId);
-                }
-            } else if (line.trim().endsWith(".ts")) {
-                String segmentFilename = extractSegmentFilename(line.trim());
-                String segmentKey = keyPrefix + "/" + variant + "/" + segmentFilename;
-                String token = videoDurationSeconds != null ?
+        return new VariantRendering(keyTag, segmentUriPrefix, segment -> {
+            String segmentKey = template.getSegmentKey(segment);
+            String token = videoDurationSeconds != null ?
                     tokenService.generateSegmentTokenWithDuration(segmentKey, userAgent, videoDurationSeconds) :
                     tokenService.generateSegmentToken(segmentKey, userAgent);
+            return "token=" + token;
+        });
+    }
 
-                String encodedResource = URLEncoder.encode(segmentKey, StandardCharsets.UTF_8);
-                String proxyUrl = String.format("%s/m3u8-encoder/api/v2/proxy/segment?token=%s&resource=%s",
-                            serverHost, token, encodedResource);
-
-                result.append(proxyUrl).append("\n");
-
-                log.debug("Rewritten segment: {} -> proxy URL with token", line.trim());
-            } else {
-                result.append(line).append("\n");
-            }
+    /**
+     * Body of a cached rendered playlist, gzip-encoded when the client accepts it and the playlist is large enough
+     */
+    private static ResponseEntity<byte[]> playlistBody(ResponseEntity.BodyBuilder builder, PlaylistCache.RenderedPlaylist rendered, boolean gzip) {
+        if (gzip && rendered.gzipped() != null) {
+            return builder.header(HttpHeaders.CONTENT_ENCODING, PlaylistCompression.GZIP)
+                    .contentLength(rendered.gzipped().length)
+                    .body(rendered.gzipped());
         }
-
-        return result.toString();
+        return builder.contentLength(rendered.text().length).body(rendered.text());
     }
 
     private String extractKeyPrefix(String masterKey) {
@@ -388,11 +539,6 @@ public class ProxyController {
         return segments[segments.length - 1];
     }
 
-    private String extractSegmentFilename(String url) {
-        String[] segments = url.split("/");
-        return segments[segments.length - 1];
-    }
-
     private String extractJobIdFromKeyPrefix(String keyPrefix) {
         if (keyPrefix == null || keyPrefix.isEmpty()) {
             return null;
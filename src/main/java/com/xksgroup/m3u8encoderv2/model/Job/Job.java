@@ -7,6 +7,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -17,11 +19,14 @@ import java.util.Map;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "jobs")
+@CompoundIndex(name = "status_createdAt", def = "{ 'status' : 1, 'createdAt' : -1 }")
 public class Job {
     @Id
     private String id;
     
+    @Indexed(unique = true, sparse = true)
     private String jobId;
+    @Indexed
     private String slug;
     private String title;
     private ResourceType resourceType;
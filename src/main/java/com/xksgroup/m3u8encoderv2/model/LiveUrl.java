@@ -7,9 +7,12 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 @Data
 @Builder
@@ -23,14 +26,30 @@ public class LiveUrl {
     private String id;
     
     @NotBlank(message = "urlId is required")
+    @Indexed(unique = true)
     private String urlId;
     
     @NotBlank(message = "url is required")
     private String url;
+
+    // Mirrors of the same stream (same path layout below their master playlist), used for failover
+    private List<String> fallbackUrls;
     
     private Instant createdAt;
     
     private Instant updatedAt;
+
+    /**
+     * Primary URL followed by the fallbacks
+     */
+    public List<String> allUrls() {
+        List<String> urls = new ArrayList<>();
+        urls.add(url);
+        if (fallbackUrls != null) {
+            fallbackUrls.stream().filter(u -> u != null && !u.isBlank() && !u.equals(url)).forEach(urls::add);
+        }
+        return urls;
+    }
 }
 
 
@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -18,8 +19,10 @@ import java.util.List;
 public class MasterPlaylistRecord {
     @Id
     private String id;
+    @Indexed(unique = true, sparse = true)
     private String jobId; // Add jobId to link to specific job
     private String title;
+    @Indexed
     private String slug;
     private String resourceType;
     private String sourceKey;
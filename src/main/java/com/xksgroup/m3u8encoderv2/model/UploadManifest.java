@@ -0,0 +1,50 @@
+package com.xksgroup.m3u8encoderv2.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Per-job record of the objects already pushed to storage, so a failed upload can resume
+ * instead of starting over.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "upload_manifests")
+public class UploadManifest {
+
+    @Id
+    private String id;
+
+    @Indexed(unique = true, sparse = true)
+    private String jobId;
+    private String keyPrefix;     // resourceType/slug/jobId/
+
+    public enum Status { IN_PROGRESS, COMPLETED, CANCELLED }
+    private Status status;
+
+    private int attempts;         // number of uploadAbrJob runs for this job
+    private List<Entry> entries;  // objects confirmed in storage with their checksum
+
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String key;       // object key in storage (R2/S3)
+        private String md5;       // hex MD5 of the uploaded bytes
+        private long size;
+    }
+}
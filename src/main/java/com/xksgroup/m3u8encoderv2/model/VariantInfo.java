@@ -14,6 +14,10 @@ public class VariantInfo {
     private String bandwidth;
     private String resolution;
     private String codecs;
+    private String averageBandwidth; // measured bits/s over the whole rendition (bandwidth is the measured peak)
+    private String frameRate;
+    private Double durationSeconds;
+    private Long totalBytes;
     private String playlistKey;
     private String playlistUrl;
     private int segmentCount;
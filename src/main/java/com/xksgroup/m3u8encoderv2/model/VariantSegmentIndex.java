@@ -0,0 +1,80 @@
+package com.xksgroup.m3u8encoderv2.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * All segments of one variant in a single document: durations and sizes are packed arrays
+ * (big-endian int per segment) and keys are derived from a template, so a 5,000-segment variant
+ * costs one small document instead of 5,000.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "variant_segment_index")
+@CompoundIndex(name = "master_variant", def = "{ 'masterId' : 1, 'variantLabel' : 1 }")
+public class VariantSegmentIndex {
+
+    @Id
+    private String id;
+
+    private String masterId;      // reference to MasterPlaylistRecord
+    private String variantLabel;  // e.g., v0 or folder name
+
+    private int segmentCount;
+
+    // String.format template for segment keys, e.g. "video/slug/job-1/v0/seg_%04d.ts", first number = startNumber
+    private String keyTemplate;
+    private int startNumber;
+
+    // Explicit keys, only when file names do not follow a numbered pattern (keyTemplate is then null)
+    private List<String> keys;
+
+    private byte[] durationsMillis; // int per segment
+    private byte[] sizes;           // int per segment, bytes (0 if unknown)
+
+    private long averageBitrate;    // bits/s, total size over total duration
+    private long peakBitrate;       // bits/s, highest single-segment bitrate
+
+    private Instant createdAt;
+
+    public String keyAt(int position) {
+        if (keyTemplate == null) {
+            return keys.get(position);
+        }
+        return String.format(keyTemplate, startNumber + position);
+    }
+
+    public double durationAt(int position) {
+        return intAt(durationsMillis, position) / 1000.0;
+    }
+
+    public long sizeAt(int position) {
+        return Integer.toUnsignedLong(intAt(sizes, position));
+    }
+
+    public double totalDurationSeconds() {
+        long total = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            total += intAt(durationsMillis, i);
+        }
+        return total / 1000.0;
+    }
+
+    private static int intAt(byte[] packed, int position) {
+        if (packed == null || packed.length < (position + 1) * Integer.BYTES) {
+            return 0;
+        }
+        return ByteBuffer.wrap(packed).getInt(position * Integer.BYTES);
+    }
+}
@@ -0,0 +1,55 @@
+package com.xksgroup.m3u8encoderv2.model.dto;
+
+import com.xksgroup.m3u8encoderv2.model.ResourceType;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Schema(description = "Requête d'enregistrement d'une URL live en contenu VOD")
+public class LiveRecordingRequest {
+
+    public enum Mode {
+        /** The captured rendition is stream-copied and becomes the only rung */
+        COPY,
+        /** The capture is encoded through the regular ABR ladder */
+        LADDER
+    }
+
+    @NotBlank(message = "title is required")
+    @Schema(
+        description = "Titre du contenu VOD. Utilisé pour générer le slug, comme pour un téléversement.",
+        example = "Match du 12 mars (replay)"
+    )
+    private String title;
+
+    @Schema(
+        description = "Type de ressource du contenu produit.",
+        example = "VIDEO",
+        allowableValues = {"VIDEO", "AUDIO"}
+    )
+    private ResourceType resourceType = ResourceType.VIDEO;
+
+    @Schema(
+        description = "Début de l'enregistrement (ISO-8601). Absent : maintenant. Peut être dans le passé " +
+                     "tant que les segments sont encore dans la fenêtre de l'origine.",
+        example = "2025-03-12T20:00:00Z"
+    )
+    private Instant startAt;
+
+    @Schema(
+        description = "Fin de l'enregistrement (ISO-8601). Absent : jusqu'à l'appel de l'endpoint d'arrêt " +
+                     "(ou la durée maximale configurée).",
+        example = "2025-03-12T22:00:00Z"
+    )
+    private Instant endAt;
+
+    @Schema(
+        description = "COPY : la rendition capturée est conservée telle quelle (copie de flux, une seule qualité, VIDEO uniquement). " +
+                     "LADDER : la capture est ré-encodée en variantes ABR comme un téléversement.",
+        example = "LADDER"
+    )
+    private Mode mode = Mode.LADDER;
+}
@@ -4,9 +4,11 @@ import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface MasterPlaylistRecordRepository extends MongoRepository<MasterPlaylistRecord, String> {
@@ -14,6 +16,10 @@ public interface MasterPlaylistRecordRepository extends MongoRepository<MasterPl
     Optional<MasterPlaylistRecord> findBySlug(String slug);
     Optional<MasterPlaylistRecord> findByJobId(String jobId);
     Page<MasterPlaylistRecord> findByTitleContainingIgnoreCase(String title, Pageable pageable);
+
+    // Cursor over master keys only, for the storage reconciler (caller must close the stream)
+    @Query(value = "{}", fields = "{ 'masterKey' : 1 }")
+    Stream<MasterPlaylistRecord> streamAllMasterKeys();
 }
 
 
@@ -0,0 +1,20 @@
+package com.xksgroup.m3u8encoderv2.repo;
+
+import com.xksgroup.m3u8encoderv2.model.UploadManifest;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+@Repository
+public interface UploadManifestRepository extends MongoRepository<UploadManifest, String> {
+    Optional<UploadManifest> findByJobId(String jobId);
+    long deleteByJobId(String jobId);
+
+    // Prefixes of uploads still in progress and checkpointed since the given time (caller must close the stream)
+    @Query(value = "{ 'status' : 'IN_PROGRESS', 'updatedAt' : { $gt : ?0 } }", fields = "{ 'keyPrefix' : 1 }")
+    Stream<UploadManifest> streamInProgressPrefixesUpdatedAfter(Instant since);
+}
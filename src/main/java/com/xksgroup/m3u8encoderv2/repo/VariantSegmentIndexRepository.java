@@ -0,0 +1,16 @@
+package com.xksgroup.m3u8encoderv2.repo;
+
+import com.xksgroup.m3u8encoderv2.model.VariantSegmentIndex;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface VariantSegmentIndexRepository extends MongoRepository<VariantSegmentIndex, String> {
+    Optional<VariantSegmentIndex> findByMasterIdAndVariantLabel(String masterId, String variantLabel);
+
+    boolean existsByMasterId(String masterId);
+
+    long deleteByMasterId(String masterId);
+}
@@ -15,6 +15,8 @@ public interface VariantSegmentRepository extends MongoRepository<VariantSegment
     long countByMasterId(String masterId);
     long countByMasterIdAndUploadStatus(String masterId, VariantSegment.UploadStatus status);
     long countByMasterIdAndVariantLabel(String masterId, String variantLabel);
+
+    long deleteByMasterId(String masterId);
 }
 
 
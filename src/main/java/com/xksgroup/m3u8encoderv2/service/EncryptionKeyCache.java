@@ -0,0 +1,100 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Bounded in-memory cache of HLS content keys, filled at upload time so key requests need neither Mongo nor R2.
+ * Keys are held wrapped with AES-GCM under a per-process key (never persisted), bound to their jobId,
+ * so a heap dump alone does not expose content keys.
+ */
+@Slf4j
+@Service
+public class EncryptionKeyCache {
+
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    // 12-byte nonce + 16-byte key + 16-byte tag, plus map/entry overhead
+    private static final long ENTRY_WEIGHT = 128;
+
+    private final SecretKey wrappingKey;
+    private final SecureRandom random = new SecureRandom();
+    private final BoundedCache<String, byte[]> wrappedKeys;
+
+    public EncryptionKeyCache(MeterRegistry meterRegistry,
+                              @Value("${proxy.cache.keys.maxEntries:50000}") long maxEntries) throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        this.wrappingKey = generator.generateKey();
+        this.wrappedKeys = new BoundedCache<>(maxEntries * ENTRY_WEIGHT, 0, wrapped -> ENTRY_WEIGHT);
+
+        FunctionCounter.builder("proxy.cache.hits", wrappedKeys, BoundedCache::hitCount)
+                .tag("cache", "keys").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.misses", wrappedKeys, BoundedCache::missCount)
+                .tag("cache", "keys").register(meterRegistry);
+    }
+
+    /**
+     * Cache a content key as produced by EncryptionHelper for a job
+     */
+    public void put(String jobId, byte[] key) {
+        try {
+            wrappedKeys.put(jobId, wrap(jobId, key));
+            log.debug("Cached encryption key for job: {}", jobId);
+        } catch (GeneralSecurityException e) {
+            log.warn("Failed to cache encryption key for job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    /**
+     * Content key for a job; on a miss (e.g. after a restart) the loader fetches it once and it is cached
+     */
+    public byte[] get(String jobId, BoundedCache.Loader<byte[]> loader) throws Exception {
+        byte[] wrapped = wrappedKeys.get(jobId, () -> {
+            byte[] key = loader.load();
+            return key != null ? wrap(jobId, key) : null;
+        });
+        return wrapped != null ? unwrap(jobId, wrapped) : null;
+    }
+
+    public void invalidate(String jobId) {
+        wrappedKeys.invalidate(jobId);
+    }
+
+    public void invalidateAll() {
+        wrappedKeys.invalidateAll();
+    }
+
+    private byte[] wrap(String jobId, byte[] key) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, wrappingKey, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(jobId.getBytes(StandardCharsets.UTF_8));
+        byte[] sealed = cipher.doFinal(key);
+
+        byte[] wrapped = Arrays.copyOf(nonce, NONCE_BYTES + sealed.length);
+        System.arraycopy(sealed, 0, wrapped, NONCE_BYTES, sealed.length);
+        return wrapped;
+    }
+
+    private byte[] unwrap(String jobId, byte[] wrapped) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, wrappingKey, new GCMParameterSpec(TAG_BITS, wrapped, 0, NONCE_BYTES));
+        cipher.updateAAD(jobId.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(wrapped, NONCE_BYTES, wrapped.length - NONCE_BYTES);
+    }
+}
@@ -177,6 +177,51 @@ public class FFmpegEncoderService {
         return targetDir;
     }
 
+    /**
+     * Build the HLS output of a live recording from its captured playlist: either the captured rendition
+     * stream-copied as the only rung (v0), or remuxed to MP4 and encoded through the regular ladder
+     */
+    public Path generateHlsFromCapture(Path captureIndex, String slug, Path targetDir, String jobId,
+                                       ResourceType resourceType, boolean reladder) throws Exception {
+        log.info("Starting live recording HLS generation - Capture: {}, Target directory: {}, Re-ladder: {}", captureIndex, targetDir, reladder);
+        if (!ffmpegHelper.isFFmpegAvailable()) {
+            throw new RuntimeException("FFmpeg is not available in the system PATH. Please install FFmpeg.");
+        }
+
+        if (reladder) {
+            Path recording = captureIndex.resolveSibling("recording.mp4");
+            processHelper.runFFmpeg(ffmpegHelper.buildCaptureRemuxCommand(captureIndex, recording), "live recording remux", jobId, null);
+            if (isJobCancelled(jobId)) {
+                log.info("Job {} was cancelled during live recording remux", jobId);
+                return null;
+            }
+            return generateAbrHls(recording, slug, targetDir, jobId, resourceType);
+        }
+
+        Path variantPath = targetDir.resolve("v0");
+        Files.createDirectories(variantPath);
+        Path keyInfoFile = encryptionEnabled ? setupEncryption(targetDir, jobId) : null;
+        jobService.updateAcceleration(jobId, "copy");
+        processHelper.runFFmpeg(ffmpegHelper.buildCaptureCopyCommand(captureIndex, keyInfoFile), "live recording copy", jobId,
+                (percentage, currentTime, totalTime) -> {
+                    if (jobService != null) {
+                        jobService.updateJobProgressWithVariant(jobId, percentage, currentTime, totalTime,
+                                1, 1, "source", "Source (stream copy)", percentage);
+                    }
+                }, variantPath);
+
+        if (isJobCancelled(jobId)) {
+            log.info("Job {} was cancelled during live recording copy", jobId);
+            return null;
+        }
+        playlistHelper.generateMasterPlaylist(targetDir, jobId);
+        if (!isOutputDirectoryValid(targetDir, ResourceType.VIDEO)) {
+            throw new RuntimeException("Output directory validation failed - missing required files for upload");
+        }
+        log.info("Live recording HLS generation completed - Output directory: {}", targetDir);
+        return targetDir;
+    }
+
     /**
      * Validate input parameters
      */
@@ -226,23 +271,14 @@ public class FFmpegEncoderService {
         
         // Create variant directories
         log.info("Creating variant directories v0, v1, v2, v3 in: {}", targetDir);
-        Files.createDirectories(targetDir.resolve("v0"));
-        Files.createDirectories(targetDir.resolve("v1"));
-        Files.createDirectories(targetDir.resolve("v2"));
-        Files.createDirectories(targetDir.resolve("v3"));
+        for (FFmpegHelper.LadderRung rung : FFmpegHelper.VIDEO_LADDER) {
+            Files.createDirectories(targetDir.resolve(rung.variant()));
+        }
         log.info("Successfully created all variant directories in: {}", targetDir);
 
         // Generate each variant separately for better reliability
         List<String> failedVariants = new ArrayList<>();
         List<String> successfulVariants = new ArrayList<>();
-        
-        // Define variants to generate
-        String[][] variantConfigs = {
-            {"v0", "1080p", "1920x1080", "4000k", "4200k", "8000k", "30", "high", "4.0"},
-            {"v1", "720p", "1280x720", "2500k", "2750k", "5000k", "30", "high", "3.1"},
-            {"v2", "480p", "854x480", "1000k", "1100k", "2000k", "25", "main", "3.0"},
-            {"v3", "360p", "640x360", "500k", "550k", "1000k", "25", "baseline", "3.0"}
-        };
 
         // Setup encryption if enabled
         Path keyInfoFile = null;
@@ -250,10 +286,11 @@ public class FFmpegEncoderService {
             keyInfoFile = setupEncryption(targetDir, jobId);
         }
         
-        for (int i = 0; i < variantConfigs.length; i++) {
-            String[] config = variantConfigs[i];
+        List<FFmpegHelper.LadderRung> ladder = FFmpegHelper.VIDEO_LADDER;
+        for (int i = 0; i < ladder.size(); i++) {
+            FFmpegHelper.LadderRung rung = ladder.get(i);
             int variantNumber = i + 1;
-            int totalVariants = variantConfigs.length;
+            int totalVariants = ladder.size();
             
             // Check if job was cancelled before processing each variant
             if (isJobCancelled(jobId)) {
@@ -264,21 +301,21 @@ public class FFmpegEncoderService {
             try {
 
 
-                log.info("Processing variant {}/{} - {} ({})", variantNumber, totalVariants, config[1], config[2]);
-                generateVariant(inputFile, targetDir, config[0], config[1], config[2], 
-                              config[3], config[4], config[5], config[6], config[7], config[8], 
+                log.info("Processing variant {}/{} - {} ({})", variantNumber, totalVariants, rung.quality(), rung.resolution());
+                generateVariant(inputFile, targetDir, rung.variant(), rung.quality(), rung.resolution(), 
+                              rung.bitrate(), rung.maxrate(), rung.bufsize(), rung.framerate(), rung.profile(), rung.level(), 
                               jobId, variantNumber, totalVariants,keyInfoFile);
-                successfulVariants.add(config[1]);
-                log.info("✓ Completed variant {}/{} - {} successfully", variantNumber, totalVariants, config[1]);
+                successfulVariants.add(rung.quality());
+                log.info("✓ Completed variant {}/{} - {} successfully", variantNumber, totalVariants, rung.quality());
             } catch (Exception e) {
                 // Check if this is a cancellation-related error
                 if (isJobCancelled(jobId)) {
-                    log.info("Job {} was cancelled during {} variant generation, stopping", jobId, config[1]);
+                    log.info("Job {} was cancelled during {} variant generation, stopping", jobId, rung.quality());
                     return; // Exit early - don't generate master playlist
                 }
                 
-                log.error("✗ Failed variant {}/{} - {}: {}", variantNumber, totalVariants, config[1], e.getMessage());
-                failedVariants.add(config[1]);
+                log.error("✗ Failed variant {}/{} - {}: {}", variantNumber, totalVariants, rung.quality(), e.getMessage());
+                failedVariants.add(rung.quality());
                 // Continue with other variants instead of failing completely
             }
         }
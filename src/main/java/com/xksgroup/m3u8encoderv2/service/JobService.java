@@ -13,6 +13,7 @@ import java.util.UUID;
 import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
@@ -21,9 +22,9 @@ import com.xksgroup.m3u8encoderv2.model.Job.JobStatus;
 import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
 import com.xksgroup.m3u8encoderv2.model.RequestIssuer;
 import com.xksgroup.m3u8encoderv2.model.ResourceType;
-import com.xksgroup.m3u8encoderv2.model.VariantSegment;
 import com.xksgroup.m3u8encoderv2.repo.JobRepository;
 import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
+import com.xksgroup.m3u8encoderv2.repo.VariantSegmentIndexRepository;
 import com.xksgroup.m3u8encoderv2.repo.VariantSegmentRepository;
 
 import jakarta.annotation.PostConstruct;
@@ -40,6 +41,9 @@ public class JobService {
     private final R2StorageService storage;
     private final MasterPlaylistRecordRepository masterPlaylistRecordRepository;
     private final VariantSegmentRepository variantSegmentRepository;
+    private final VariantSegmentIndexRepository variantSegmentIndexRepository;
+    private final PlaylistCache playlistCache;
+    private final SegmentDiskCache segmentDiskCache;
 
     private final EventService eventService;
 
@@ -53,6 +57,12 @@ public class JobService {
     @Value("${server.port:8080}")
     private int serverPort;
 
+    @Value("${upload.resume.maxAttempts:3}")
+    private int uploadResumeAttempts;
+
+    @Value("${upload.resume.delayMs:5000}")
+    private long uploadResumeDelayMs;
+
 
     @PostConstruct
     public void init() {
@@ -77,7 +87,7 @@ public class JobService {
                         long fileSize, String contentType, RequestIssuer userAgent) {
         
         String slug = generateSlug(title);
-        String jobId = "job-" + UUID.randomUUID().toString();
+        String jobId = newJobId();
         
         Job job = Job.builder()
                 .jobId(jobId)
@@ -109,12 +119,28 @@ public class JobService {
                 .acceleration("cpu/libx264")
                 .build();
         
-        Job savedJob = jobRepository.save(job);
-        log.info("Created job: {} for title: '{}' with slug: '{}'", jobId, title, slug);
+        Job savedJob = null;
+        for (int attempt = 1; savedJob == null; attempt++) {
+            try {
+                savedJob = jobRepository.insert(job);
+            } catch (DuplicateKeyException e) {
+                // jobId is unique: on a collision draw another one rather than failing the upload
+                if (attempt >= 3) {
+                    throw e;
+                }
+                log.warn("Job id {} already exists, retrying with a new one", job.getJobId());
+                job.setJobId(newJobId());
+            }
+        }
+        log.info("Created job: {} for title: '{}' with slug: '{}'", savedJob.getJobId(), title, slug);
         
         return savedJob;
     }
 
+    private static String newJobId() {
+        return "job-" + UUID.randomUUID();
+    }
+
     /**
      * Update job status
      */
@@ -401,11 +427,37 @@ public class JobService {
         });
     }
 
+    /**
+     * Encoding step of the pipeline: writes the HLS output into outDir and returns it, or null when cancelled
+     */
+    @FunctionalInterface
+    private interface EncodeStep {
+        Path encode(Path outDir) throws Exception;
+    }
+
     /**
      * Process job asynchronously
      */
     @Async("taskExecutor")
     public void processJobAsync(Job job, Path sourceFile) {
+        runPipeline(job, outDir -> encoder.generateAbrHls(sourceFile, job.getSlug(), outDir, job.getJobId(), job.getResourceType()));
+    }
+
+    /**
+     * Process a captured live recording asynchronously; the capture directory is removed once the job ends
+     */
+    @Async("taskExecutor")
+    public void processLiveRecordingAsync(Job job, Path captureIndex, boolean reladder) {
+        try {
+            runPipeline(job, outDir -> encoder.generateHlsFromCapture(captureIndex, job.getSlug(), outDir,
+                    job.getJobId(), job.getResourceType(), reladder));
+        } finally {
+            deleteDirectoryRecursively(captureIndex.getParent());
+        }
+    }
+
+    private void runPipeline(Job job, EncodeStep encodeStep) {
+        String uploadPrefix = null;
         try {
             log.info("Starting async processing for job: {}", job.getJobId());
             
@@ -423,7 +475,7 @@ public class JobService {
             markEncodingStart(job.getJobId());
             
             // Start FFmpeg encoding
-            Path resultDir = encoder.generateAbrHls(sourceFile, job.getSlug(), outDir, job.getJobId(), job.getResourceType());
+            Path resultDir = encodeStep.encode(outDir);
             
             // Check if encoding was cancelled
             if (resultDir == null) {
@@ -449,7 +501,9 @@ public class JobService {
             
             // Upload to cloud storage
             String prefix = job.getResourceType().name().toLowerCase() + "/" + job.getSlug() + "/" + job.getJobId();
-            String masterUrl = storage.uploadAbrJob(outDir, prefix, job.getSlug(), job.getTitle(), job.getResourceType().name());
+            uploadPrefix = prefix;
+            String masterUrl = uploadWithResume(outDir, prefix, job);
+            uploadPrefix = null;
 
             // Mark upload completion
             markUploadComplete(job.getJobId());
@@ -479,12 +533,39 @@ public class JobService {
             
             // Update job with error
             updateJobError(job.getJobId(), "Processing failed - " + e.getMessage(), e.toString());
+
+            // Resume attempts are exhausted and the local output is about to go: drop what was uploaded
+            if (uploadPrefix != null) {
+                try {
+                    storage.discardUpload(uploadPrefix);
+                } catch (Exception cleanupError) {
+                    log.warn("Failed to discard upload of job {}: {}", job.getJobId(), cleanupError.getMessage());
+                }
+            }
             
             // Clean up only this job's specific directories even on failure
             cleanJobDirectories(job.getJobId(), job.getSlug(), job.getResourceType());
         }
     }
 
+    /**
+     * Upload the encoded output, resuming from the upload manifest when an attempt fails
+     */
+    private String uploadWithResume(Path outDir, String prefix, Job job) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return storage.uploadAbrJob(outDir, prefix, job.getSlug(), job.getTitle(), job.getResourceType().name());
+            } catch (Exception e) {
+                if (attempt >= uploadResumeAttempts || isJobCancelled(job.getJobId())) {
+                    throw e;
+                }
+                log.warn("Upload attempt {}/{} failed for job {} - resuming in {}ms: {}",
+                        attempt, uploadResumeAttempts, job.getJobId(), uploadResumeDelayMs, e.getMessage());
+                Thread.sleep(uploadResumeDelayMs);
+            }
+        }
+    }
+
     /**
      * Clean up only the specific job's directories (not all jobs)
      */
@@ -596,9 +677,16 @@ public class JobService {
             // Stop FFmpeg process first
             encoder.stopProcess(jobId);
             log.info("Stopped FFmpeg process for job: {}", jobId);
+
+            // An explicit cancel is the only case where partially uploaded objects are rolled back
+            boolean wasUploading = job.getStatus() == JobStatus.UPLOADING_TO_CLOUD_STORAGE;
             
             // Update job status to CANCELLED
             updateJobStatus(jobId, JobStatus.CANCELLED);
+
+            if (wasUploading) {
+                storage.cancelUpload(job.getResourceType().name().toLowerCase() + "/" + job.getSlug() + "/" + jobId);
+            }
             
             // Clean up local directories
             cleanupJobDirectories(job);
@@ -713,30 +801,31 @@ public class JobService {
             // 1. Delete from R2 cloud storage
             boolean cloudDeleted = false;
             if (master.getMasterKey() != null && !master.getMasterKey().isEmpty()) {
-                // Extract prefix from master key (remove /master.m3u8 part)
+                // Extract prefix from master key (remove master.m3u8, keep the trailing slash so
+                // "job-1/" does not also match "job-10/")
                 String prefix = master.getMasterKey();
                 if (prefix.endsWith("/master.m3u8")) {
-                    prefix = prefix.substring(0, prefix.lastIndexOf("/master.m3u8"));
+                    prefix = prefix.substring(0, prefix.lastIndexOf("master.m3u8"));
                 }
 
                 cloudDeleted = storage.deleteFilesByPrefix(prefix);
+                segmentDiskCache.invalidatePrefix(prefix);
                 log.info("Cloud storage deletion for prefix '{}': {}", prefix, cloudDeleted ? "SUCCESS" : "FAILED");
             } else {
                 log.warn("No master key found for job ID: {}, skipping cloud deletion", jobId);
                 cloudDeleted = true; // Consider it successful if there's nothing to delete
             }
 
-            // 2. Delete variant segments from MongoDB
-            List<VariantSegment> segments = variantSegmentRepository.findByMasterId(masterId);
-            if (!segments.isEmpty()) {
-                variantSegmentRepository.deleteAll(segments);
-                log.info("Deleted {} variant segments from MongoDB for job ID: {}", segments.size(), jobId);
-            } else {
-                log.info("No variant segments found in MongoDB for job ID: {}", jobId);
-            }
+            // 2. Delete the segment index (plus legacy per-segment documents) from MongoDB, one delete each
+            long indexesDeleted = variantSegmentIndexRepository.deleteByMasterId(masterId);
+            long legacyDeleted = variantSegmentRepository.deleteByMasterId(masterId);
+            log.info("Deleted {} segment index documents and {} legacy segment documents from MongoDB for job ID: {}",
+                    indexesDeleted, legacyDeleted, jobId);
 
-            // 3. Delete master playlist record from MongoDB
+            // 3. Delete master playlist record and upload manifest from MongoDB
             masterPlaylistRecordRepository.delete(master);
+            storage.deleteUploadManifest(jobId);
+            playlistCache.invalidate(jobId);
             log.info("Deleted master playlist record from MongoDB for job ID: {}", jobId);
 
             // 4. Delete associated job if it exists
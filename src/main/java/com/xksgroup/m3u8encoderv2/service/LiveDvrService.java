@@ -0,0 +1,471 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.service.helper.LiveMediaPlaylist;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Origin shielding for popular live channels: one background ingester per watched LiveUrl pulls every
+ * rendition's playlist and segments into a rolling on-disk buffer (indexed in memory), and viewers are served
+ * from that buffer only. The buffer keeps the last N minutes, which doubles as the DVR/timeshift window, and
+ * the channel is stopped and deleted once nobody has requested it for a while.
+ */
+@Slf4j
+@Service
+public class LiveDvrService {
+
+    /**
+     * A buffered segment; sequence numbers are local to the buffer so origin restarts do not break playback
+     */
+    public record DvrSegment(long sequence, double duration, Path path, long size, Instant programDateTime,
+                             boolean discontinuity, String keyTag, String mapTag) { }
+
+    /**
+     * Media playlist snapshot of one rendition; discontinuitySequence counts the discontinuities trimmed off
+     * the front of the window (EXT-X-DISCONTINUITY-SEQUENCE)
+     */
+    public record DvrWindow(int targetDuration, long discontinuitySequence, List<DvrSegment> segments) { }
+
+    private final LiveUrlService liveUrlService;
+    private final LiveOriginClients originClients;
+    private final LiveOriginProber originProber;
+    private final Path root;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    // One permit per running channel, so concurrent first viewers cannot overshoot maxChannels
+    private final Semaphore channelSlots;
+
+    private final long windowMillis;
+    private final long idleMillis;
+    private final int maxChannels;
+    private final int initialSegments;
+    private final Duration fetchTimeout;
+
+    public LiveDvrService(LiveUrlService liveUrlService,
+                          LiveOriginClients originClients,
+                          LiveOriginProber originProber,
+                          @Value("${proxy.live.dvr.dir:${java.io.tmpdir}/m3u8-live-dvr}") String directory,
+                          @Value("${proxy.live.dvr.windowMinutes:30}") long windowMinutes,
+                          @Value("${proxy.live.dvr.idleSeconds:120}") long idleSeconds,
+                          @Value("${proxy.live.dvr.maxChannels:20}") int maxChannels,
+                          @Value("${proxy.live.dvr.initialSegments:3}") int initialSegments,
+                          @Value("${proxy.live.dvr.threads:8}") int threads,
+                          @Value("${proxy.live.segments.fetchTimeoutSeconds:30}") long fetchTimeoutSeconds) throws IOException {
+        this.liveUrlService = liveUrlService;
+        this.originClients = originClients;
+        this.originProber = originProber;
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+        this.windowMillis = windowMinutes * 60_000;
+        this.idleMillis = idleSeconds * 1000;
+        this.maxChannels = maxChannels;
+        this.channelSlots = new Semaphore(maxChannels);
+        this.initialSegments = initialSegments;
+        this.fetchTimeout = Duration.ofSeconds(fetchTimeoutSeconds);
+
+        // Not a Spring TaskScheduler bean: that would replace the scheduler used by @Scheduled methods
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "live-dvr-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Buffers are only indexed in memory, so anything left by a previous run is unusable
+        deleteTree(root);
+        Files.createDirectories(root);
+        log.info("Live DVR buffer at {} ({} min window, max {} channels)", root, windowMinutes, maxChannels);
+    }
+
+    /**
+     * Master playlist lines of a channel (variant URIs replaced by the rendition index), starting its ingester
+     * on first use
+     */
+    public List<String> masterLines(String urlId) throws Exception {
+        Channel channel = channel(urlId);
+        channel.touch();
+        return channel.masterLines;
+    }
+
+    /**
+     * Current buffer of one rendition; waits for the ingester's first segment when the rendition has just
+     * started, and never for the origin otherwise
+     */
+    public DvrWindow window(String urlId, int rendition) throws Exception {
+        Channel channel = channel(urlId);
+        channel.touch();
+        if (rendition < 0 || rendition >= channel.renditions.size()) {
+            throw new IllegalArgumentException("Unknown rendition " + rendition + " for " + urlId);
+        }
+        Rendition r = channel.renditions.get(rendition);
+        DvrWindow window = r.window;
+        return window.segments().isEmpty() ? r.awaitWindow() : window;
+    }
+
+    /**
+     * A buffered segment, or null once it has left the window
+     */
+    public DvrSegment segment(String urlId, int rendition, long sequence) {
+        Channel channel = channels.get(urlId);
+        if (channel == null || rendition < 0 || rendition >= channel.renditions.size()) {
+            return null;
+        }
+        channel.touch();
+        return channel.renditions.get(rendition).segments.get(sequence);
+    }
+
+    @Scheduled(fixedDelayString = "${proxy.live.dvr.sweepMillis:10000}")
+    public void stopIdleChannels() {
+        long now = System.currentTimeMillis();
+        channels.values().removeIf(channel -> {
+            if (now - channel.lastAccess > idleMillis) {
+                log.info("Stopping idle live DVR channel {}", channel.urlId);
+                channel.stop();
+                channelSlots.release();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        channels.values().forEach(Channel::stop);
+        channels.clear();
+        scheduler.shutdownNow();
+    }
+
+    private Channel channel(String urlId) throws Exception {
+        Channel existing = channels.get(urlId);
+        if (existing != null) {
+            existing.awaitStarted();
+            return existing;
+        }
+        if (!channelSlots.tryAcquire()) {
+            throw new IllegalStateException("Live DVR channel limit reached (" + maxChannels + ")");
+        }
+        Channel created = new Channel(urlId);
+        Channel raced = channels.putIfAbsent(urlId, created);
+        Channel channel = raced != null ? raced : created;
+        if (raced != null) {
+            channelSlots.release();
+        } else {
+            try {
+                channel.start();
+            } catch (Exception e) {
+                if (channels.remove(urlId, channel)) {
+                    channelSlots.release();
+                }
+                channel.stop();
+                throw e;
+            }
+        }
+        channel.awaitStarted();
+        return channel;
+    }
+
+    private String fetchText(String url) {
+        return originClients.getText(url).block(fetchTimeout);
+    }
+
+    /**
+     * KEY/MAP tag with its (absolute) URI routed through the live segment proxy
+     */
+    public static String proxiedUriTag(String tag, String serverUrl) {
+        int start = tag.indexOf("URI=\"");
+        if (start < 0) {
+            return tag;
+        }
+        start += 5;
+        int end = tag.indexOf('"', start);
+        String proxied = serverUrl + "/m3u8-encoder/api/v2/live-url/proxy/segment?u="
+                + URLEncoder.encode(tag.substring(start, end), StandardCharsets.UTF_8);
+        return tag.substring(0, start) + proxied + tag.substring(end);
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                    .filter(path -> !path.equals(directory))
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private class Channel {
+        final String urlId;
+        final Path directory;
+        final List<Rendition> renditions = new ArrayList<>();
+        volatile List<String> masterLines = List.of();
+        volatile long lastAccess = System.currentTimeMillis();
+        private volatile boolean started;
+        private volatile boolean stopped;
+
+        Channel(String urlId) {
+            this.urlId = urlId;
+            this.directory = root.resolve(urlId.replaceAll("[^A-Za-z0-9._-]", "_"));
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        synchronized void start() throws Exception {
+            LiveUrl liveUrl = liveUrlService.resolveLiveUrl(urlId);
+            String masterUrl = originProber.pickOrigin(liveUrl);
+            String body = fetchText(masterUrl);
+            if (body == null || !body.contains("#EXTM3U")) {
+                throw new IllegalStateException("Origin did not return a playlist for " + urlId);
+            }
+            Files.createDirectories(directory);
+
+            List<String> lines = new ArrayList<>();
+            if (body.contains("#EXT-X-STREAM-INF")) {
+                boolean variantNext = false;
+                for (String raw : body.split("\n")) {
+                    String line = raw.trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (line.startsWith("#EXT-X-STREAM-INF")) {
+                        variantNext = true;
+                        // Alternate renditions are not buffered, so drop the groups that would reference them
+                        lines.add(line.replaceAll(",(AUDIO|SUBTITLES|CLOSED-CAPTIONS)=(\"[^\"]*\"|NONE)", ""));
+                    } else if (!line.startsWith("#") && variantNext) {
+                        String variantUrl = URI.create(masterUrl).resolve(line).toString();
+                        lines.add(Integer.toString(renditions.size()));
+                        renditions.add(new Rendition(this, renditions.size(), variantUrl));
+                        variantNext = false;
+                    } else if (line.startsWith("#EXT-X-MEDIA:") || line.startsWith("#EXT-X-I-FRAME-STREAM-INF")) {
+                        continue;
+                    } else if (line.startsWith("#")) {
+                        lines.add(line);
+                    }
+                }
+            } else {
+                // The LiveUrl points at a media playlist: expose it as a single-variant master
+                lines.add("#EXTM3U");
+                lines.add("#EXT-X-STREAM-INF:BANDWIDTH=1");
+                lines.add("0");
+                renditions.add(new Rendition(this, 0, masterUrl));
+            }
+            masterLines = List.copyOf(lines);
+            renditions.forEach(Rendition::schedule);
+            started = true;
+            notifyAll();
+            log.info("Started live DVR channel {} ({} renditions) from {}", urlId, renditions.size(), masterUrl);
+        }
+
+        synchronized void awaitStarted() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + fetchTimeout.toMillis();
+            while (!started) {
+                if (stopped) {
+                    throw new IllegalStateException("Live DVR channel " + urlId + " failed to start");
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("Live DVR channel " + urlId + " did not start in time");
+                }
+                wait(remaining);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            synchronized (this) {
+                notifyAll();
+            }
+            renditions.forEach(Rendition::cancel);
+            try {
+                deleteTree(directory);
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                log.warn("Failed to delete live DVR buffer {}: {}", directory, e.getMessage());
+            }
+        }
+    }
+
+    private class Rendition {
+        final Channel channel;
+        final int index;
+        final String originUrl;
+        final Path directory;
+        // Segment lookups; playlists are rendered from the published window instead
+        final NavigableMap<Long, DvrSegment> segments = new ConcurrentSkipListMap<>();
+        // Immutable, replaced after every buffered segment: viewers read it without waiting on the ingester
+        volatile DvrWindow window = new DvrWindow(6, 0, List.of());
+
+        // Ingester state, only touched by poll(), which never runs twice at once for a rendition
+        private int targetDuration = 6;
+        private long lastOriginSequence = -1;
+        private long nextSequence;
+        private long discontinuitySequence;
+        // The next buffered segment does not follow the previous one (origin restart, segments lost to failures)
+        private boolean pendingDiscontinuity;
+        private volatile ScheduledFuture<?> task;
+
+        Rendition(Channel channel, int index, String originUrl) {
+            this.channel = channel;
+            this.index = index;
+            this.originUrl = originUrl;
+            this.directory = channel.directory.resolve(Integer.toString(index));
+        }
+
+        void schedule() {
+            // Rescheduled after every poll so the interval follows the playlist's target duration
+            task = scheduler.schedule(this::pollAndReschedule, 0, TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            ScheduledFuture<?> current = task;
+            if (current != null) {
+                current.cancel(true);
+            }
+            task = null;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait for the first published segment of a rendition that has just started
+         */
+        synchronized DvrWindow awaitWindow() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + fetchTimeout.toMillis();
+            while (window.segments().isEmpty()) {
+                if (channel.stopped) {
+                    throw new IllegalStateException("Live DVR channel " + channel.urlId + " was stopped");
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("No segment buffered yet for " + channel.urlId + " rendition " + index);
+                }
+                wait(remaining);
+            }
+            return window;
+        }
+
+        private void pollAndReschedule() {
+            try {
+                poll();
+            } catch (Exception e) {
+                log.warn("Live DVR poll failed for {} rendition {}: {}", channel.urlId, index, e.getMessage());
+            }
+            if (channels.get(channel.urlId) == channel && !scheduler.isShutdown()) {
+                task = scheduler.schedule(this::pollAndReschedule, Math.max(500, targetDuration * 500L), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Fetch the origin playlist (through a healthy mirror), download new segments and trim the window.
+         * Downloads run without any lock held; each segment is then published on its own.
+         */
+        void poll() throws IOException {
+            if (channel.stopped) {
+                return;
+            }
+            String url = originProber.preferred(originUrl);
+            String body = fetchText(url);
+            if (body == null || channel.stopped) {
+                return;
+            }
+            LiveMediaPlaylist playlist = LiveMediaPlaylist.parse(body, url, targetDuration);
+            targetDuration = playlist.targetDuration();
+            Files.createDirectories(directory);
+
+            List<LiveMediaPlaylist.Segment> entries = playlist.segments();
+            long originSequence = playlist.mediaSequence();
+            boolean restarted = lastOriginSequence >= 0 && originSequence + entries.size() - 1 < lastOriginSequence;
+            long skipBelow = lastOriginSequence < 0 || restarted
+                    ? originSequence + Math.max(0, entries.size() - initialSegments)
+                    : lastOriginSequence + 1;
+            if (restarted || (lastOriginSequence >= 0 && originSequence > skipBelow)) {
+                // Origin restarted, or segments left its window before we could fetch them
+                pendingDiscontinuity = true;
+            }
+
+            for (LiveMediaPlaylist.Segment entry : entries) {
+                if (entry.sequence() < skipBelow) {
+                    continue;
+                }
+                // Download under a temporary name: a failed fetch must not consume a local sequence number,
+                // or the buffer would advertise a gap. The next poll retries from lastOriginSequence.
+                Path temp = directory.resolve(".tmp-" + UUID.randomUUID());
+                originClients.download(entry.url(), temp).block(fetchTimeout);
+                if (channel.stopped) {
+                    Files.deleteIfExists(temp);
+                    return;
+                }
+                long local = nextSequence++;
+                Path file = directory.resolve(local + ".seg");
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                Instant programDateTime = entry.programDateTime() != null ? entry.programDateTime() : Instant.now();
+                boolean discontinuity = entry.discontinuity() || pendingDiscontinuity;
+                publish(new DvrSegment(local, entry.duration(), file, Files.size(file), programDateTime,
+                        discontinuity, entry.keyTag(), entry.mapTag()));
+                lastOriginSequence = entry.sequence();
+                pendingDiscontinuity = false;
+            }
+        }
+
+        /**
+         * Add a downloaded segment, trim the window to its duration and publish the new snapshot; trimmed
+         * files are deleted after the lock is released
+         */
+        private void publish(DvrSegment segment) {
+            List<DvrSegment> trimmed = new ArrayList<>();
+            synchronized (this) {
+                segments.put(segment.sequence(), segment);
+                double total = segments.values().stream().mapToDouble(DvrSegment::duration).sum();
+                while (segments.size() > 1 && total * 1000 > windowMillis) {
+                    DvrSegment oldest = segments.pollFirstEntry().getValue();
+                    total -= oldest.duration();
+                    if (oldest.discontinuity()) {
+                        discontinuitySequence++;
+                    }
+                    trimmed.add(oldest);
+                }
+                window = new DvrWindow(targetDuration, discontinuitySequence, List.copyOf(segments.values()));
+                notifyAll();
+            }
+            for (DvrSegment oldest : trimmed) {
+                try {
+                    Files.deleteIfExists(oldest.path());
+                } catch (IOException e) {
+                    log.debug("Failed to delete DVR segment {}: {}", oldest.path(), e.getMessage());
+                }
+            }
+        }
+    }
+}
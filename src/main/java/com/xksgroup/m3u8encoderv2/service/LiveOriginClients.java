@@ -0,0 +1,352 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.repo.LiveUrlRepository;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * WebClients for live origins, one per origin (scheme, host, port) so a slow origin only exhausts its own
+ * connection pool. Each origin has a bounded number of concurrent requests and a circuit breaker: after
+ * consecutive failures requests fail fast for a cool-down, then a single trial request decides whether to close it.
+ * Origins of configured LiveUrls are kept for good; any other origin (hosts reached through nested playlist or
+ * segment URIs) is closed once idle, and their number is capped by evicting the least recently used one.
+ */
+@Slf4j
+@Service
+public class LiveOriginClients {
+
+    /**
+     * Raised without contacting the origin while its circuit breaker is open
+     */
+    public static class OriginUnavailableException extends IllegalStateException {
+        public OriginUnavailableException(String origin) {
+            super("Origin temporarily unavailable: " + origin);
+        }
+    }
+
+    private final LiveUrlRepository liveUrlRepository;
+    private final Map<String, Origin> origins = new ConcurrentHashMap<>();
+    // Origins (url and fallbacks) of the configured LiveUrls, refreshed by the idle sweep
+    private volatile Set<String> configuredOrigins = Set.of();
+
+    private final int maxOrigins;
+    private final long idleMillis;
+    private final int maxConnections;
+    private final int maxConcurrentRequests;
+    private final int connectTimeoutMillis;
+    private final Duration responseTimeout;
+    private final boolean http2;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    public LiveOriginClients(LiveUrlRepository liveUrlRepository,
+                             @Value("${proxy.live.origin.maxOrigins:256}") int maxOrigins,
+                             @Value("${proxy.live.origin.idleSeconds:300}") long idleSeconds,
+                             @Value("${proxy.live.origin.maxConnections:50}") int maxConnections,
+                             @Value("${proxy.live.origin.maxConcurrentRequests:64}") int maxConcurrentRequests,
+                             @Value("${proxy.live.origin.connectTimeoutMillis:3000}") int connectTimeoutMillis,
+                             @Value("${proxy.live.origin.responseTimeoutMillis:15000}") long responseTimeoutMillis,
+                             @Value("${proxy.live.origin.http2:true}") boolean http2,
+                             @Value("${proxy.live.origin.breaker.failureThreshold:5}") int failureThreshold,
+                             @Value("${proxy.live.origin.breaker.openSeconds:10}") long openSeconds) {
+        this.liveUrlRepository = liveUrlRepository;
+        this.maxOrigins = maxOrigins;
+        this.idleMillis = idleSeconds * 1000;
+        this.maxConnections = maxConnections;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.responseTimeout = Duration.ofMillis(responseTimeoutMillis);
+        this.http2 = http2;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openSeconds * 1000;
+    }
+
+    /**
+     * Run a request against the origin serving the URL. Fails with OriginUnavailableException while the origin's
+     * breaker is open and with RejectedExecutionException when its concurrency limit is reached. The permit is
+     * held until the returned Mono terminates (for streamed bodies: until the response headers arrive).
+     */
+    public <T> Mono<T> execute(String url, Function<WebClient, Mono<T>> call) {
+        return Mono.defer(() -> {
+            // Permit first: a half-open trial slot is only claimed by a request that can actually run
+            Origin origin = acquire(url);
+            if (!origin.allowRequest()) {
+                origin.permits.release();
+                return Mono.error(new OriginUnavailableException(origin.name));
+            }
+            Mono<T> request;
+            try {
+                request = call.apply(origin.client);
+            } catch (RuntimeException e) {
+                origin.permits.release();
+                origin.trialInFlight.set(false);
+                return Mono.error(e);
+            }
+            return request
+                    .doOnSuccess(value -> origin.onSuccess())
+                    .doOnError(error -> {
+                        if (isOriginFailure(error)) {
+                            origin.onFailure();
+                        } else {
+                            origin.onSuccess();
+                        }
+                    })
+                    .doFinally(signal -> {
+                        origin.permits.release();
+                        if (signal == SignalType.CANCEL) {
+                            origin.trialInFlight.set(false);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * GET a playlist as text through execute()
+     */
+    public Mono<String> getText(String url) {
+        return execute(url, client -> client.get()
+                .uri(url)
+                .header("Accept", "application/vnd.apple.mpegurl,application/x-mpegURL,text/plain,*/*")
+                .retrieve()
+                .bodyToMono(String.class));
+    }
+
+    /**
+     * Stream a segment to a file through execute(); the file only appears once the body is complete
+     */
+    public Mono<Void> download(String url, Path target) {
+        Path temp = target.resolveSibling(".tmp-" + target.getFileName());
+        return execute(url, client -> client.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class)
+                        .as(body -> DataBufferUtils.write(body, temp)))
+                .then(Mono.fromCallable(() -> Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)))
+                .doOnError(error -> temp.toFile().delete())
+                .then();
+    }
+
+    /**
+     * Refresh the configured origins and close the pools of other origins that have been unused for idleSeconds
+     */
+    @Scheduled(fixedDelayString = "${proxy.live.origin.sweepMillis:60000}")
+    public void evictIdleOrigins() {
+        try {
+            Set<String> configured = new HashSet<>();
+            for (LiveUrl liveUrl : liveUrlRepository.findAll()) {
+                for (String url : liveUrl.allUrls()) {
+                    try {
+                        configured.add(originName(URI.create(url)));
+                    } catch (IllegalArgumentException e) {
+                        log.debug("Ignoring malformed live URL {}: {}", url, e.getMessage());
+                    }
+                }
+            }
+            configuredOrigins = configured;
+        } catch (Exception e) {
+            log.warn("Failed to refresh configured live origins, keeping the previous set: {}", e.getMessage());
+        }
+
+        long idleBefore = System.currentTimeMillis() - idleMillis;
+        synchronized (this) {
+            for (Origin origin : List.copyOf(origins.values())) {
+                if (!configuredOrigins.contains(origin.name) && origin.lastUsed < idleBefore) {
+                    retire(origin);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        origins.values().forEach(origin -> origin.provider.dispose());
+    }
+
+    /**
+     * 5xx, timeouts and connection errors count against the origin; 4xx means it is up and answering
+     */
+    private static boolean isOriginFailure(Throwable error) {
+        if (error instanceof WebClientResponseException e) {
+            return e.getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+
+    /**
+     * The origin serving the URL, with one of its request permits taken
+     */
+    private Origin acquire(String url) {
+        URI uri = URI.create(url);
+        String name = originName(uri);
+        while (true) {
+            Origin origin = origins.get(name);
+            if (origin == null) {
+                origin = createOrigin(name, "https".equalsIgnoreCase(uri.getScheme()));
+            }
+            if (origin.permits.tryAcquire()) {
+                if (!origin.retired) {
+                    origin.lastUsed = System.currentTimeMillis();
+                    return origin;
+                }
+                origin.permits.release();
+            } else if (!origin.retired) {
+                throw new RejectedExecutionException("Too many concurrent requests to origin " + origin.name);
+            }
+            // Evicted meanwhile: its replacement is created on the next pass
+        }
+    }
+
+    private synchronized Origin createOrigin(String name, boolean secure) {
+        Origin existing = origins.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (origins.size() >= maxOrigins && !configuredOrigins.contains(name) && !evictLeastRecentlyUsed()) {
+            throw new RejectedExecutionException("Too many live origins in use (" + maxOrigins + "), not adding " + name);
+        }
+        Origin origin = newOrigin(name, secure);
+        origins.put(name, origin);
+        return origin;
+    }
+
+    private boolean evictLeastRecentlyUsed() {
+        List<Origin> candidates = origins.values().stream()
+                .filter(origin -> !configuredOrigins.contains(origin.name))
+                .sorted(Comparator.comparingLong(origin -> origin.lastUsed))
+                .toList();
+        for (Origin origin : candidates) {
+            if (retire(origin)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove an origin and close its pool, unless a request is running on it. Holding every permit keeps new
+     * requests off it until it is marked retired.
+     */
+    private boolean retire(Origin origin) {
+        if (!origin.permits.tryAcquire(maxConcurrentRequests)) {
+            return false;
+        }
+        origin.retired = true;
+        origins.remove(origin.name, origin);
+        origin.provider.disposeLater().subscribe();
+        log.info("Closed live origin client for {} (unused)", origin.name);
+        return true;
+    }
+
+    private static String originName(URI uri) {
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : "http";
+        return scheme + "://" + uri.getHost() + (uri.getPort() > 0 ? ":" + uri.getPort() : "");
+    }
+
+    private Origin newOrigin(String name, boolean secure) {
+        ConnectionProvider provider = ConnectionProvider.builder("live-origin")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .evictInBackground(Duration.ofSeconds(60))
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .responseTimeout(responseTimeout);
+        // HTTP/2 is negotiated through ALPN, so only over TLS; plain-HTTP origins stay on HTTP/1.1
+        if (secure && http2) {
+            httpClient = httpClient.secure().protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        WebClient client = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(configurer -> configurer
+                        .defaultCodecs()
+                        .maxInMemorySize(16 * 1024 * 1024)) // 16MB limit
+                .build();
+        log.info("Live origin client created for {} (max {} connections, {} concurrent requests{})",
+                name, maxConnections, maxConcurrentRequests, secure && http2 ? ", HTTP/2 when offered" : "");
+        return new Origin(name, provider, client, new Semaphore(maxConcurrentRequests));
+    }
+
+    private class Origin {
+        final String name;
+        final ConnectionProvider provider;
+        final WebClient client;
+        final Semaphore permits;
+
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        final AtomicBoolean trialInFlight = new AtomicBoolean();
+        volatile long openUntil;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile boolean retired;
+
+        Origin(String name, ConnectionProvider provider, WebClient client, Semaphore permits) {
+            this.name = name;
+            this.provider = provider;
+            this.client = client;
+            this.permits = permits;
+        }
+
+        boolean allowRequest() {
+            long until = openUntil;
+            if (until == 0) {
+                return true;
+            }
+            if (System.currentTimeMillis() < until) {
+                return false;
+            }
+            // Half-open: one trial request decides
+            return trialInFlight.compareAndSet(false, true);
+        }
+
+        void onSuccess() {
+            consecutiveFailures.set(0);
+            if (openUntil != 0) {
+                log.info("Circuit closed for live origin {}", name);
+                openUntil = 0;
+            }
+            trialInFlight.set(false);
+        }
+
+        void onFailure() {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                if (openUntil == 0) {
+                    log.warn("Circuit opened for live origin {} after {} consecutive failures", name, consecutiveFailures.get());
+                }
+                openUntil = System.currentTimeMillis() + openMillis;
+            }
+            trialInFlight.set(false);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.repo.LiveUrlRepository;
+import com.xksgroup.m3u8encoderv2.service.helper.LiveRewriteWindow;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Background health probing for LiveUrls with fallback origins. Every interval each origin's master playlist
+ * (and its first media playlist) is fetched with bounded concurrency, recording latency and whether the media
+ * sequence is still advancing. The proxy asks this service which origin to use and, for URLs under one origin,
+ * for the equivalent URL on a healthier mirror.
+ */
+@Slf4j
+@Service
+public class LiveOriginProber {
+
+    /**
+     * Latest probe result for one origin master URL
+     */
+    public record OriginHealth(boolean reachable, long latencyMillis, long mediaSequence, long sequenceAdvancedAt,
+                               int consecutiveFailures) {
+
+        static final OriginHealth UNKNOWN = new OriginHealth(true, Long.MAX_VALUE, -1, 0, 0);
+    }
+
+    /**
+     * Mirrors of one LiveUrl: base directories of each origin's master playlist, primary first
+     */
+    private record OriginGroup(List<String> masterUrls, List<String> bases) { }
+
+    private final LiveUrlRepository liveUrlRepository;
+    private final LiveOriginClients originClients;
+
+    private final Map<String, OriginHealth> health = new ConcurrentHashMap<>();
+    private volatile List<OriginGroup> groups = List.of();
+
+    private final boolean enabled;
+    private final int concurrency;
+    private final long staleAfterMillis;
+    private final int failuresBeforeDown;
+    private final Duration probeTimeout;
+
+    public LiveOriginProber(LiveUrlRepository liveUrlRepository,
+                            LiveOriginClients originClients,
+                            @Value("${proxy.live.probe.enabled:true}") boolean enabled,
+                            @Value("${proxy.live.probe.concurrency:16}") int concurrency,
+                            @Value("${proxy.live.probe.staleAfterSeconds:30}") long staleAfterSeconds,
+                            @Value("${proxy.live.probe.failuresBeforeDown:2}") int failuresBeforeDown,
+                            @Value("${proxy.live.probe.timeoutSeconds:10}") long timeoutSeconds) {
+        this.liveUrlRepository = liveUrlRepository;
+        this.originClients = originClients;
+        this.enabled = enabled;
+        this.concurrency = concurrency;
+        this.staleAfterMillis = staleAfterSeconds * 1000;
+        this.failuresBeforeDown = failuresBeforeDown;
+        this.probeTimeout = Duration.ofSeconds(timeoutSeconds);
+    }
+
+    @Scheduled(fixedDelayString = "${proxy.live.probe.intervalMillis:5000}", initialDelayString = "${proxy.live.probe.intervalMillis:5000}")
+    public void probeAll() {
+        if (!enabled) {
+            return;
+        }
+        List<OriginGroup> current = new ArrayList<>();
+        for (LiveUrl liveUrl : liveUrlRepository.findAll()) {
+            List<String> urls = liveUrl.allUrls();
+            if (urls.size() > 1) {
+                current.add(new OriginGroup(urls, urls.stream().map(LiveOriginProber::baseOf).toList()));
+            }
+        }
+        groups = current;
+
+        List<String> masters = current.stream().flatMap(group -> group.masterUrls().stream()).distinct().toList();
+        health.keySet().retainAll(masters);
+        if (masters.isEmpty()) {
+            return;
+        }
+        try {
+            Flux.fromIterable(masters)
+                    .flatMap(this::probe, concurrency)
+                    .then()
+                    .block(probeTimeout.multipliedBy(2));
+        } catch (Exception e) {
+            log.warn("Live origin probe round did not complete: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Origin URL to use for a LiveUrl: the healthiest mirror, the primary when nothing is known
+     */
+    public String pickOrigin(LiveUrl liveUrl) {
+        List<String> urls = liveUrl.allUrls();
+        if (urls.size() == 1) {
+            return urls.get(0);
+        }
+        return urls.stream()
+                .filter(this::isHealthy)
+                .min(Comparator.comparingLong(url -> healthOf(url).latencyMillis()))
+                .orElse(urls.get(0));
+    }
+
+    /**
+     * The URL itself while its origin is healthy, otherwise the same path on the healthiest mirror
+     */
+    public String preferred(String url) {
+        List<String> alternatives = alternatives(url);
+        if (alternatives.isEmpty()) {
+            return url;
+        }
+        OriginGroup group = groupOf(url);
+        String master = group.masterUrls().get(indexOfBase(group, url));
+        if (isHealthy(master)) {
+            return url;
+        }
+        String fallback = alternatives.get(0);
+        log.debug("Live origin for {} unhealthy, using {}", url, fallback);
+        return fallback;
+    }
+
+    /**
+     * Equivalent URLs on the other mirrors, healthiest first; empty when the URL belongs to no multi-origin LiveUrl
+     */
+    public List<String> alternatives(String url) {
+        OriginGroup group = groupOf(url);
+        if (group == null) {
+            return List.of();
+        }
+        int own = indexOfBase(group, url);
+        String relative = url.substring(group.bases().get(own).length());
+        List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < group.bases().size(); i++) {
+            if (i != own) {
+                others.add(i);
+            }
+        }
+        others.sort(Comparator
+                .comparing((Integer i) -> !isHealthy(group.masterUrls().get(i)))
+                .thenComparingLong(i -> healthOf(group.masterUrls().get(i)).latencyMillis()));
+        return others.stream().map(i -> group.bases().get(i) + relative).toList();
+    }
+
+    public OriginHealth healthOf(String masterUrl) {
+        return health.getOrDefault(masterUrl, OriginHealth.UNKNOWN);
+    }
+
+    private boolean isHealthy(String masterUrl) {
+        OriginHealth h = healthOf(masterUrl);
+        if (h.consecutiveFailures() >= failuresBeforeDown) {
+            return false;
+        }
+        // A reachable origin whose media sequence stopped moving is serving a frozen stream
+        return h.mediaSequence() < 0 || System.currentTimeMillis() - h.sequenceAdvancedAt() <= staleAfterMillis;
+    }
+
+    private Mono<Void> probe(String masterUrl) {
+        long start = System.nanoTime();
+        return fetch(masterUrl)
+                .flatMap(body -> {
+                    long latency = (System.nanoTime() - start) / 1_000_000;
+                    String media = firstMediaPlaylist(masterUrl, body);
+                    Mono<String> mediaBody = media != null ? fetch(media) : Mono.just(body);
+                    return mediaBody.doOnNext(playlist -> recordSuccess(masterUrl, latency, LiveRewriteWindow.mediaSequence(playlist)));
+                })
+                .timeout(probeTimeout)
+                .doOnError(e -> recordFailure(masterUrl, e))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Mono<String> fetch(String url) {
+        return originClients.getText(url);
+    }
+
+    private void recordSuccess(String masterUrl, long latency, long sequence) {
+        long now = System.currentTimeMillis();
+        health.compute(masterUrl, (url, previous) -> {
+            boolean advanced = previous == null || sequence != previous.mediaSequence() || sequence < 0;
+            long advancedAt = advanced ? now : previous.sequenceAdvancedAt();
+            return new OriginHealth(true, latency, sequence, advancedAt, 0);
+        });
+    }
+
+    private void recordFailure(String masterUrl, Throwable error) {
+        OriginHealth updated = health.compute(masterUrl, (url, previous) -> previous == null
+                ? new OriginHealth(false, Long.MAX_VALUE, -1, 0, 1)
+                : new OriginHealth(false, previous.latencyMillis(), previous.mediaSequence(), previous.sequenceAdvancedAt(),
+                        previous.consecutiveFailures() + 1));
+        if (updated.consecutiveFailures() == failuresBeforeDown) {
+            log.warn("Live origin {} marked down: {}", masterUrl, error.getMessage());
+        }
+    }
+
+    private OriginGroup groupOf(String url) {
+        for (OriginGroup group : groups) {
+            if (indexOfBase(group, url) >= 0) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOfBase(OriginGroup group, String url) {
+        for (int i = 0; i < group.bases().size(); i++) {
+            if (url.startsWith(group.bases().get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String firstMediaPlaylist(String masterUrl, String body) {
+        if (!body.contains("#EXT-X-STREAM-INF")) {
+            return null;
+        }
+        boolean next = false;
+        for (String line : body.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#EXT-X-STREAM-INF")) {
+                next = true;
+            } else if (next && !trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                return URI.create(masterUrl).resolve(trimmed).toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Directory of a master playlist URL, including the trailing slash
+     */
+    private static String baseOf(String masterUrl) {
+        int query = masterUrl.indexOf('?');
+        String path = query >= 0 ? masterUrl.substring(0, query) : masterUrl;
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+}
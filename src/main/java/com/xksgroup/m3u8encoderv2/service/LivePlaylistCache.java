@@ -0,0 +1,304 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import com.xksgroup.m3u8encoderv2.service.helper.LiveRewriteWindow;
+import com.xksgroup.m3u8encoderv2.service.helper.PlaylistCompression;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Short-lived cache of live origin playlists and their rewritten form. A media playlist is kept for about half
+ * its #EXT-X-TARGETDURATION, so every viewer polling within that window is answered from one origin fetch;
+ * concurrent polls on a miss join the same fetch.
+ */
+@Slf4j
+@Service
+public class LivePlaylistCache {
+
+    /**
+     * Rewrites an origin playlist body for the proxy
+     */
+    @FunctionalInterface
+    public interface Rewriter {
+        String rewrite(String originBody) throws Exception;
+    }
+
+    /**
+     * Live edge of a media playlist: the last complete segment's media sequence number and the number of
+     * parts (#EXT-X-PART) already published for the segment after it
+     */
+    public record LivePosition(long lastMsn, int parts) {
+
+        static final LivePosition UNKNOWN = new LivePosition(-1, 0);
+
+        /**
+         * True when the playlist already contains segment msn (or, with a part index, that part of it)
+         */
+        public boolean reaches(long msn, Integer part) {
+            if (lastMsn < 0) {
+                return false;
+            }
+            if (msn <= lastMsn) {
+                return true;
+            }
+            return part != null && msn == lastMsn + 1 && part < parts;
+        }
+    }
+
+    /**
+     * Origin playlist body and the time it stops being fresh
+     */
+    public record OriginPlaylist(String body, long expiresAt, LivePosition position) {
+        long weight() {
+            return body.length() * 2L + 64;
+        }
+    }
+
+    /**
+     * Rewritten playlist (and its gzip form when large enough), valid as long as the origin body it came from
+     */
+    public record RewrittenPlaylist(byte[] text, byte[] gzipped, long expiresAt, LivePosition position) {
+        long weight() {
+            return text.length + (gzipped != null ? gzipped.length : 0) + 64L;
+        }
+    }
+
+    private final LiveOriginClients originClients;
+    private final Executor ioExecutor;
+    private final BoundedCache<String, OriginPlaylist> origins;
+    private final BoundedCache<String, RewrittenPlaylist> rewritten;
+    // Last successfully rewritten playlist per key, served while its origin is failing
+    private final BoundedCache<String, RewrittenPlaylist> lastGood;
+    // LL-HLS blocking reloads in flight, one upstream request per (stream, msn, part)
+    private final Map<String, CompletableFuture<RewrittenPlaylist>> blockingReloads = new ConcurrentHashMap<>();
+
+    private final long masterTtlMillis;
+    private final long minTtlMillis;
+    private final Duration fetchTimeout;
+
+    // Playlists smaller than this are sent uncompressed
+    @Value("${proxy.compression.minBytes:1024}")
+    private int compressionMinBytes;
+
+    public LivePlaylistCache(LiveOriginClients originClients,
+                             @Qualifier("proxyIoExecutor") Executor ioExecutor,
+                             MeterRegistry meterRegistry,
+                             @Value("${proxy.live.playlists.maxBytes:33554432}") long maxBytes,
+                             @Value("${proxy.live.playlists.masterTtlSeconds:10}") long masterTtlSeconds,
+                             @Value("${proxy.live.playlists.minTtlMillis:500}") long minTtlMillis,
+                             @Value("${proxy.live.playlists.staleMaxSeconds:300}") long staleMaxSeconds,
+                             @Value("${proxy.live.segments.fetchTimeoutSeconds:30}") long fetchTimeoutSeconds) {
+        this.originClients = originClients;
+        this.ioExecutor = ioExecutor;
+        this.origins = new BoundedCache<>(maxBytes, 0, OriginPlaylist::weight);
+        this.rewritten = new BoundedCache<>(maxBytes, 0, RewrittenPlaylist::weight);
+        this.lastGood = new BoundedCache<>(maxBytes, staleMaxSeconds * 1000, RewrittenPlaylist::weight);
+        this.masterTtlMillis = masterTtlSeconds * 1000;
+        this.minTtlMillis = minTtlMillis;
+        this.fetchTimeout = Duration.ofSeconds(fetchTimeoutSeconds);
+
+        FunctionCounter.builder("proxy.cache.hits", rewritten, BoundedCache::hitCount)
+                .tag("cache", "live-playlists").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.misses", rewritten, BoundedCache::missCount)
+                .tag("cache", "live-playlists").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.hits", origins, BoundedCache::hitCount)
+                .tag("cache", "live-origin-playlists").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.misses", origins, BoundedCache::missCount)
+                .tag("cache", "live-origin-playlists").register(meterRegistry);
+    }
+
+    /**
+     * Rewritten playlist for (urlId, origin URL, server URL): every viewer reaching the proxy through the same
+     * server URL gets the same bytes. Misses run on the proxy I/O executor.
+     */
+    public CompletableFuture<RewrittenPlaylist> getRewritten(String urlId, String url, String serverUrl, Rewriter rewriter) {
+        String key = urlId + "|" + url + "|" + serverUrl;
+        RewrittenPlaylist cached = rewritten.getIfPresent(key);
+        if (cached != null && cached.expiresAt() <= System.currentTimeMillis()) {
+            rewritten.invalidate(key);
+        }
+        return rewritten.getAsync(key, () -> {
+            // Same thread as this load: another queued task here could deadlock a saturated executor
+            RewrittenPlaylist playlist = rewrite(getOrigin(urlId, url), rewriter);
+            lastGood.put(key, playlist);
+            return playlist;
+        }, ioExecutor).exceptionally(error -> staleOrThrow(key, error));
+    }
+
+    /**
+     * LL-HLS blocking playlist reload (_HLS_msn/_HLS_part). Answered from the cache when the cached playlist already
+     * reaches the requested part; otherwise every viewer waiting for the same part shares one upstream blocking
+     * request, which holds no thread while the origin waits. The result also refreshes the regular cache entries.
+     */
+    public CompletableFuture<RewrittenPlaylist> getBlocking(String urlId, String url, String serverUrl,
+                                                            long msn, Integer part, Rewriter rewriter) {
+        String key = urlId + "|" + url + "|" + serverUrl;
+        RewrittenPlaylist cached = rewritten.getIfPresent(key);
+        if (cached != null && cached.position().reaches(msn, part)) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        String blockingKey = key + "|" + msn + "|" + (part != null ? part : "");
+        CompletableFuture<RewrittenPlaylist> mine = new CompletableFuture<>();
+        CompletableFuture<RewrittenPlaylist> existing = blockingReloads.putIfAbsent(blockingKey, mine);
+        if (existing != null) {
+            return existing;
+        }
+
+        String blockingUrl = url + (url.contains("?") ? "&" : "?") + "_HLS_msn=" + msn + (part != null ? "&_HLS_part=" + part : "");
+        try {
+            requestOrigin(blockingUrl)
+                    .toFuture()
+                    .thenApplyAsync(body -> {
+                        try {
+                            OriginPlaylist origin = origin(body);
+                            origins.put(urlId + "|" + url, origin);
+                            RewrittenPlaylist playlist = rewrite(origin, rewriter);
+                            rewritten.put(key, playlist);
+                            lastGood.put(key, playlist);
+                            return playlist;
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, ioExecutor)
+                    .exceptionally(error -> staleOrThrow(key, error))
+                    .whenComplete((playlist, error) -> {
+                        blockingReloads.remove(blockingKey, mine);
+                        if (error != null) {
+                            mine.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                        } else {
+                            mine.complete(playlist);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            blockingReloads.remove(blockingKey, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine;
+    }
+
+    /**
+     * Drop everything fetched for a live URL, e.g. after its origin changed
+     */
+    public void invalidate(String urlId) {
+        String prefix = urlId + "|";
+        origins.invalidateIf(key -> key.startsWith(prefix));
+        rewritten.invalidateIf(key -> key.startsWith(prefix));
+    }
+
+    private OriginPlaylist getOrigin(String urlId, String url) throws Exception {
+        String key = urlId + "|" + url;
+        OriginPlaylist cached = origins.getIfPresent(key);
+        if (cached != null && cached.expiresAt() <= System.currentTimeMillis()) {
+            origins.invalidate(key);
+        }
+        return origins.get(key, () -> fetch(url));
+    }
+
+    /**
+     * Last good playlist for a key whose refresh failed (e.g. origin down or its breaker open); rethrows otherwise
+     */
+    private RewrittenPlaylist staleOrThrow(String key, Throwable error) {
+        RewrittenPlaylist stale = lastGood.getIfPresent(key);
+        if (stale != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            log.warn("Live origin refresh failed for {}, serving last good playlist: {}", key, cause.getMessage());
+            return stale;
+        }
+        throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+    }
+
+    private RewrittenPlaylist rewrite(OriginPlaylist origin, Rewriter rewriter) throws Exception {
+        byte[] text = rewriter.rewrite(origin.body()).getBytes(StandardCharsets.UTF_8);
+        byte[] gzipped = text.length >= compressionMinBytes ? PlaylistCompression.gzip(text) : null;
+        return new RewrittenPlaylist(text, gzipped, origin.expiresAt(), origin.position());
+    }
+
+    private Mono<String> requestOrigin(String url) {
+        return originClients.execute(url, client -> client.get()
+                .uri(url)
+                .header("Accept", "application/vnd.apple.mpegurl,application/x-mpegURL,text/plain,*/*")
+                .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120 Safari/537.36")
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(fetchTimeout));
+    }
+
+    private OriginPlaylist fetch(String url) {
+        return origin(requestOrigin(url).block());
+    }
+
+    private OriginPlaylist origin(String body) {
+        if (body == null || body.trim().isEmpty()) {
+            throw new IllegalArgumentException("Failed to fetch M3U8 content");
+        }
+
+        // Log first few lines of fetched content
+        if (log.isDebugEnabled()) {
+            String[] contentLines = body.split("\n", 10);
+            log.debug("Fetched M3U8 content (first {} lines, total {} chars):", contentLines.length, body.length());
+            for (int i = 0; i < Math.min(contentLines.length, 8); i++) {
+                log.debug("  Fetched line {}: {}", i + 1, contentLines[i]);
+            }
+        }
+        return new OriginPlaylist(body, System.currentTimeMillis() + ttlMillis(body), position(body));
+    }
+
+    /**
+     * Last complete segment (media sequence + segment count - 1) and the parts published after it
+     */
+    private static LivePosition position(String body) {
+        long mediaSequence = LiveRewriteWindow.mediaSequence(body);
+        if (mediaSequence < 0) {
+            return LivePosition.UNKNOWN;
+        }
+        int segments = 0;
+        int trailingParts = 0;
+        for (String line : body.split("\n")) {
+            if (line.startsWith("#EXT-X-PART:")) {
+                trailingParts++;
+            } else if (!line.isBlank() && !line.startsWith("#")) {
+                segments++;
+                trailingParts = 0;
+            }
+        }
+        return new LivePosition(mediaSequence + segments - 1, trailingParts);
+    }
+
+    /**
+     * Half the target duration for live media playlists; master and ended playlists change rarely
+     */
+    private long ttlMillis(String body) {
+        if (body.contains("#EXT-X-ENDLIST")) {
+            return masterTtlMillis;
+        }
+        int idx = body.indexOf("#EXT-X-TARGETDURATION:");
+        if (idx < 0) {
+            return masterTtlMillis;
+        }
+        int start = idx + "#EXT-X-TARGETDURATION:".length();
+        int end = start;
+        while (end < body.length() && Character.isDigit(body.charAt(end))) {
+            end++;
+        }
+        try {
+            long targetSeconds = Long.parseLong(body.substring(start, end));
+            return Math.max(minTtlMillis, targetSeconds * 500);
+        } catch (NumberFormatException e) {
+            return minTtlMillis;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.Job.Job;
+import com.xksgroup.m3u8encoderv2.model.Job.JobStatus;
+import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.model.RequestIssuer;
+import com.xksgroup.m3u8encoderv2.model.ResourceType;
+import com.xksgroup.m3u8encoderv2.model.dto.LiveRecordingRequest;
+import com.xksgroup.m3u8encoderv2.service.helper.LiveMediaPlaylist;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Live-to-VOD recordings. A recording follows the highest-bandwidth rendition of a LiveUrl and stream-copies the
+ * segments falling between its start and end times into a staging directory, as a local VOD playlist. Once it
+ * ends (end time reached, stopped, or the stream ended) the capture is handed to JobService as a regular job,
+ * either kept as the only rung or re-laddered by FFmpegEncoderService.
+ */
+@Slf4j
+@Service
+public class LiveRecordingService {
+
+    private final LiveUrlService liveUrlService;
+    private final LiveOriginClients originClients;
+    private final LiveOriginProber originProber;
+    private final JobService jobService;
+    private final Path root;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+
+    private final int maxActive;
+    private final long maxMillis;
+    private final Duration fetchTimeout;
+
+    public LiveRecordingService(LiveUrlService liveUrlService,
+                                LiveOriginClients originClients,
+                                LiveOriginProber originProber,
+                                JobService jobService,
+                                @Value("${proxy.live.recording.dir:live-recording-v2}") String directory,
+                                @Value("${proxy.live.recording.maxActive:10}") int maxActive,
+                                @Value("${proxy.live.recording.maxMinutes:240}") long maxMinutes,
+                                @Value("${proxy.live.segments.fetchTimeoutSeconds:30}") long fetchTimeoutSeconds) {
+        this.liveUrlService = liveUrlService;
+        this.originClients = originClients;
+        this.originProber = originProber;
+        this.jobService = jobService;
+        this.root = Paths.get(directory);
+        this.maxActive = maxActive;
+        this.maxMillis = maxMinutes * 60_000;
+        this.fetchTimeout = Duration.ofSeconds(fetchTimeoutSeconds);
+
+        // Not a Spring TaskScheduler bean: that would replace the scheduler used by @Scheduled methods
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, Math.min(maxActive, 4)), runnable -> {
+            Thread thread = new Thread(runnable, "live-recording-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create the job and start capturing; the job stays DOWNLOADING until the capture ends
+     */
+    public Job start(String urlId, LiveRecordingRequest request, RequestIssuer userAgent) throws Exception {
+        Instant now = Instant.now();
+        Instant startAt = request.getStartAt() != null ? request.getStartAt() : now;
+        Instant endAt = request.getEndAt();
+        ResourceType resourceType = request.getResourceType() != null ? request.getResourceType() : ResourceType.VIDEO;
+        boolean reladder = request.getMode() != LiveRecordingRequest.Mode.COPY;
+
+        if (endAt != null && !endAt.isAfter(startAt)) {
+            throw new IllegalArgumentException("endAt must be after startAt");
+        }
+        if (endAt != null && !endAt.isAfter(now)) {
+            throw new IllegalArgumentException("endAt is in the past");
+        }
+        if (endAt != null && Duration.between(startAt, endAt).toMillis() > maxMillis) {
+            throw new IllegalArgumentException("Recording longer than " + maxMillis / 60_000 + " minutes");
+        }
+        if (!reladder && resourceType != ResourceType.VIDEO) {
+            throw new IllegalArgumentException("COPY mode is only available for VIDEO recordings");
+        }
+        if (recordings.size() >= maxActive) {
+            throw new IllegalStateException("Too many active live recordings (" + maxActive + ")");
+        }
+
+        LiveUrl liveUrl = liveUrlService.resolveLiveUrl(urlId);
+        String masterUrl = originProber.pickOrigin(liveUrl);
+        String body = originClients.getText(masterUrl).block(fetchTimeout);
+        if (body == null || !body.contains("#EXTM3U")) {
+            throw new IllegalStateException("Origin did not return a playlist for " + urlId);
+        }
+        String variant = LiveMediaPlaylist.bestVariant(body, masterUrl);
+        String mediaUrl = variant != null ? variant : masterUrl;
+
+        Job job = jobService.createJob(request.getTitle(), resourceType, null, 0L, null, userAgent);
+        jobService.updateJobStatus(job.getJobId(), JobStatus.DOWNLOADING);
+        Recording recording = new Recording(job, urlId, mediaUrl, startAt, endAt, reladder);
+        Files.createDirectories(recording.directory);
+        recordings.put(job.getJobId(), recording);
+
+        // Nothing to fetch before the start time; begin a little early so the first segment is not missed
+        long delay = Math.max(0, Duration.between(now, startAt).toMillis() - 30_000);
+        scheduler.schedule(recording::pollAndReschedule, delay, TimeUnit.MILLISECONDS);
+        log.info("Live recording {} started for {} ({} -> {}, {}) from {}", job.getJobId(), urlId, startAt,
+                endAt != null ? endAt : "stop", reladder ? "ladder" : "copy", mediaUrl);
+        return job;
+    }
+
+    /**
+     * Request the end of an open-ended (or early end of a bounded) recording; the capture is then processed
+     */
+    public boolean stop(String jobId) {
+        Recording recording = recordings.get(jobId);
+        if (recording == null) {
+            return false;
+        }
+        recording.stopRequested = true;
+        scheduler.execute(recording::pollAndReschedule);
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        recordings.values().forEach(recording -> {
+            jobService.updateJobError(recording.job.getJobId(), "Live recording interrupted", "Server shutdown during capture");
+            deleteTree(recording.directory);
+        });
+        recordings.clear();
+    }
+
+    private static void deleteTree(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to delete live recording directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private class Recording {
+        final Job job;
+        final String urlId;
+        final String mediaUrl;
+        final Instant startAt;
+        final Instant endAt;
+        final boolean reladder;
+        final Path directory;
+
+        // Body of the capture playlist; the header is written at the end, once the longest segment is known
+        final List<String> lines = new ArrayList<>();
+        volatile boolean stopRequested;
+        private boolean finished;
+        private int targetDuration = 6;
+        // Last origin sequence captured (or deliberately skipped); only advanced once a segment is handled
+        private long lastSequence = -1;
+        // Set when captured segments are not contiguous (origin restart, segments lost to failed polls)
+        private boolean pendingDiscontinuity;
+        private int segmentCount;
+        private double maxDuration;
+        private double capturedSeconds;
+        private long capturedBytes;
+        // KEY/MAP tags in effect, as sent by the origin; the capture playlist points at local copies instead
+        private String keyTag;
+        private String mapTag;
+        private int keyCount;
+        private int mapCount;
+        private boolean initMap;
+
+        Recording(Job job, String urlId, String mediaUrl, Instant startAt, Instant endAt, boolean reladder) {
+            this.job = job;
+            this.urlId = urlId;
+            this.mediaUrl = mediaUrl;
+            this.startAt = startAt;
+            this.endAt = endAt;
+            this.reladder = reladder;
+            this.directory = root.resolve(job.getJobId());
+        }
+
+        synchronized void pollAndReschedule() {
+            if (finished) {
+                return;
+            }
+            boolean done;
+            try {
+                if (jobService.isJobCancelled(job.getJobId())) {
+                    log.info("Live recording {} cancelled", job.getJobId());
+                    abandon();
+                    return;
+                }
+                done = poll();
+            } catch (Exception e) {
+                log.warn("Live recording {} poll failed: {}", job.getJobId(), e.getMessage());
+                done = stopRequested;
+            }
+            if (done) {
+                finish();
+            } else if (!scheduler.isShutdown()) {
+                scheduler.schedule(this::pollAndReschedule, Math.max(500, targetDuration * 500L), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Capture the new segments inside the time range; true once the recording is complete
+         */
+        private boolean poll() throws IOException {
+            Instant now = Instant.now();
+            String url = originProber.preferred(mediaUrl);
+            String body = originClients.getText(url).block(fetchTimeout);
+            if (body == null) {
+                return stopRequested;
+            }
+            LiveMediaPlaylist playlist = LiveMediaPlaylist.parse(body, url, targetDuration);
+            targetDuration = playlist.targetDuration();
+            List<LiveMediaPlaylist.Segment> segments = playlist.segments();
+            Instant[] starts = startTimes(segments, now);
+
+            boolean restarted = lastSequence >= 0 && playlist.mediaSequence() + segments.size() - 1 < lastSequence;
+            if (restarted) {
+                lastSequence = -1;
+                pendingDiscontinuity = true;
+            }
+            if (segmentCount == 0 && !segments.isEmpty() && starts[0].isAfter(startAt) && lastSequence < 0) {
+                log.warn("Live recording {}: origin window starts at {}, after the requested start {}",
+                        job.getJobId(), starts[0], startAt);
+            }
+
+            for (int i = 0; i < segments.size(); i++) {
+                LiveMediaPlaylist.Segment segment = segments.get(i);
+                if (segment.sequence() <= lastSequence) {
+                    continue;
+                }
+                if (lastSequence >= 0 && segment.sequence() > lastSequence + 1) {
+                    // Segments left the origin window before they could be captured
+                    pendingDiscontinuity = true;
+                }
+                Instant segmentStart = starts[i];
+                Instant segmentEnd = segmentStart.plusMillis((long) (segment.duration() * 1000));
+                if (endAt != null && !segmentStart.isBefore(endAt)) {
+                    return true;
+                }
+                if (!segmentEnd.isAfter(startAt)) {
+                    lastSequence = segment.sequence();
+                    pendingDiscontinuity = true;
+                    continue;
+                }
+                // A failed download propagates: lastSequence stays put and the next poll retries the segment
+                capture(segment, pendingDiscontinuity);
+                lastSequence = segment.sequence();
+                pendingDiscontinuity = false;
+                if (capturedSeconds * 1000 >= maxMillis) {
+                    log.warn("Live recording {} reached the maximum duration", job.getJobId());
+                    return true;
+                }
+            }
+            updateProgress(now);
+
+            if (stopRequested || playlist.endList()) {
+                return true;
+            }
+            // The origin stopped advancing past the end time (stream ended without ENDLIST)
+            return endAt != null && now.isAfter(endAt.plusSeconds(targetDuration * 3L));
+        }
+
+        private void capture(LiveMediaPlaylist.Segment segment, boolean forcedDiscontinuity) throws IOException {
+            // Keys and init sections are fetched along with the segment, while their origin URLs (and any tokens in
+            // them) are still valid: ffmpeg only reads the capture once it ends
+            String newKeyTag = null;
+            String newMapTag = null;
+            List<Path> fetched = new ArrayList<>();
+            String name = String.format("seg_%06d.%s", segmentCount, segment.mapTag() != null ? "m4s" : "ts");
+            Path file = directory.resolve(name);
+            try {
+                if (!Objects.equals(keyTag, segment.keyTag())) {
+                    newKeyTag = segment.keyTag() != null
+                            ? localCopy(segment.keyTag(), String.format("key_%04d.key", keyCount), fetched)
+                            : "#EXT-X-KEY:METHOD=NONE";
+                }
+                if (segment.mapTag() != null && !segment.mapTag().equals(mapTag)) {
+                    newMapTag = localCopy(segment.mapTag(), String.format("init_%04d.mp4", mapCount), fetched);
+                }
+                fetched.add(file);
+                originClients.download(segment.url(), file).block(fetchTimeout);
+            } catch (RuntimeException e) {
+                for (Path path : fetched) {
+                    Files.deleteIfExists(path);
+                }
+                throw e;
+            }
+
+            // Tags are only written once the segment is on disk, so a failed download leaves no trace
+            if (segment.discontinuity() || forcedDiscontinuity) {
+                if (segmentCount > 0) {
+                    lines.add("#EXT-X-DISCONTINUITY");
+                }
+            }
+            if (newKeyTag != null) {
+                keyTag = segment.keyTag();
+                if (keyTag != null) {
+                    keyCount++;
+                }
+                lines.add(newKeyTag);
+            }
+            if (newMapTag != null) {
+                mapTag = segment.mapTag();
+                mapCount++;
+                initMap = true;
+                lines.add(newMapTag);
+            }
+            lines.add("#EXTINF:" + segment.duration() + ",");
+            lines.add(name);
+
+            segmentCount++;
+            maxDuration = Math.max(maxDuration, segment.duration());
+            capturedSeconds += segment.duration();
+            capturedBytes += Files.size(file);
+        }
+
+        /**
+         * Download the URI of a KEY/MAP tag next to the capture playlist and return the tag pointing at that file
+         */
+        private String localCopy(String tag, String fileName, List<Path> fetched) {
+            int start = tag.indexOf("URI=\"");
+            if (start < 0) {
+                return tag;
+            }
+            start += 5;
+            int end = tag.indexOf('"', start);
+            if (end <= start) {
+                return tag;
+            }
+            Path file = directory.resolve(fileName);
+            fetched.add(file);
+            originClients.download(tag.substring(start, end), file).block(fetchTimeout);
+            return tag.substring(0, start) + fileName + tag.substring(end);
+        }
+
+        /**
+         * Wall-clock start of each segment: PROGRAM-DATE-TIME when the origin sends it (carried forward over
+         * segments without one), otherwise counted back from the live edge
+         */
+        private Instant[] startTimes(List<LiveMediaPlaylist.Segment> segments, Instant now) {
+            Instant[] starts = new Instant[segments.size()];
+            Instant cursor = now;
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                cursor = cursor.minusMillis((long) (segments.get(i).duration() * 1000));
+                starts[i] = cursor;
+            }
+            Instant dated = null;
+            for (int i = 0; i < segments.size(); i++) {
+                LiveMediaPlaylist.Segment segment = segments.get(i);
+                if (segment.programDateTime() != null) {
+                    dated = segment.programDateTime();
+                }
+                if (dated != null) {
+                    starts[i] = dated;
+                    dated = dated.plusMillis((long) (segment.duration() * 1000));
+                }
+            }
+            return starts;
+        }
+
+        private void updateProgress(Instant now) {
+            int percent = 0;
+            if (endAt != null) {
+                double total = Duration.between(startAt, endAt).toMillis();
+                double elapsed = Math.max(0, Duration.between(startAt, now).toMillis());
+                percent = (int) Math.min(100, elapsed * 100 / total);
+            }
+            jobService.updateJobDownloadProgress(job.getJobId(), percent, capturedBytes, capturedBytes);
+        }
+
+        private void finish() {
+            finished = true;
+            recordings.remove(job.getJobId());
+            if (segmentCount == 0) {
+                log.warn("Live recording {} captured no segments", job.getJobId());
+                jobService.updateJobError(job.getJobId(), "Live recording captured no segments",
+                        "No segment of " + urlId + " fell between " + startAt + " and " + (endAt != null ? endAt : "stop"));
+                deleteTree(directory);
+                return;
+            }
+            try {
+                List<String> playlist = new ArrayList<>();
+                playlist.add("#EXTM3U");
+                playlist.add("#EXT-X-VERSION:" + (initMap ? 7 : 3));
+                playlist.add("#EXT-X-TARGETDURATION:" + (int) Math.ceil(maxDuration));
+                playlist.add("#EXT-X-MEDIA-SEQUENCE:0");
+                playlist.add("#EXT-X-PLAYLIST-TYPE:VOD");
+                playlist.addAll(lines);
+                playlist.add("#EXT-X-ENDLIST");
+                Path index = directory.resolve("capture.m3u8");
+                Files.write(index, playlist, StandardCharsets.UTF_8);
+
+                log.info("Live recording {} captured {} segments ({}s, {} bytes), handing over to the encoding pipeline",
+                        job.getJobId(), segmentCount, Math.round(capturedSeconds), capturedBytes);
+                jobService.updateJobFileInfo(job.getJobId(), "live-" + urlId + ".m3u8", capturedBytes, "application/vnd.apple.mpegurl");
+                jobService.updateJobStatus(job.getJobId(), JobStatus.PENDING);
+                jobService.processLiveRecordingAsync(job, index, reladder);
+            } catch (Exception e) {
+                log.error("Live recording {} could not be handed over: {}", job.getJobId(), e.getMessage(), e);
+                jobService.updateJobError(job.getJobId(), "Live recording failed - " + e.getMessage(), e.toString());
+                deleteTree(directory);
+            }
+        }
+
+        private void abandon() {
+            finished = true;
+            recordings.remove(job.getJobId());
+            deleteTree(directory);
+        }
+    }
+}
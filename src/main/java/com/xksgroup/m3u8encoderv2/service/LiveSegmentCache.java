@@ -0,0 +1,190 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Node-local disk cache of live segments keyed by absolute origin URL, shared by every viewer of a channel.
+ * Concurrent requests for the same segment join one origin fetch; entries expire once they have left the
+ * live window of the playlist that referenced them, and the cache is LRU-bounded by total bytes.
+ */
+@Slf4j
+@Service
+public class LiveSegmentCache {
+
+    /**
+     * A live segment on local disk
+     */
+    public record LiveSegment(Path path, long size, String contentType, long expiresAt) { }
+
+    private final LiveOriginClients originClients;
+    private final Executor ioExecutor;
+    private final Path root;
+    private final BoundedCache<String, LiveSegment> segments;
+    // Segment URL -> live window (ms) of the playlist that listed it, learned when the playlist is rewritten
+    private final BoundedCache<String, Long> windows;
+
+    private final boolean enabled;
+    private final long maxEntryBytes;
+    private final long defaultTtlMillis;
+    private final int prefetchCount;
+    private final Duration fetchTimeout;
+
+    public LiveSegmentCache(LiveOriginClients originClients,
+                            @Qualifier("proxyIoExecutor") Executor ioExecutor,
+                            MeterRegistry meterRegistry,
+                            @Value("${proxy.live.segments.cache.enabled:true}") boolean enabled,
+                            @Value("${proxy.live.segments.cache.dir:${java.io.tmpdir}/m3u8-live-segment-cache}") String directory,
+                            @Value("${proxy.live.segments.cache.maxBytes:2147483648}") long maxBytes,
+                            @Value("${proxy.live.segments.cache.maxEntryBytes:33554432}") long maxEntryBytes,
+                            @Value("${proxy.live.segments.cache.ttlSeconds:60}") long defaultTtlSeconds,
+                            @Value("${proxy.live.segments.prefetch:2}") int prefetchCount,
+                            @Value("${proxy.live.segments.fetchTimeoutSeconds:30}") long fetchTimeoutSeconds) throws IOException {
+        this.originClients = originClients;
+        this.ioExecutor = ioExecutor;
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.maxEntryBytes = maxEntryBytes;
+        this.defaultTtlMillis = defaultTtlSeconds * 1000;
+        this.prefetchCount = prefetchCount;
+        this.fetchTimeout = Duration.ofSeconds(fetchTimeoutSeconds);
+        this.segments = new BoundedCache<>(maxBytes, 0, LiveSegment::size, LiveSegmentCache::deleteQuietly);
+        this.windows = new BoundedCache<>(100_000, 0, window -> 1);
+
+        // The index lives in memory, so files left by a previous run are unaccounted for
+        clear(root);
+        Files.createDirectories(root);
+
+        FunctionCounter.builder("proxy.cache.hits", segments, BoundedCache::hitCount)
+                .tag("cache", "live-segments").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.misses", segments, BoundedCache::missCount)
+                .tag("cache", "live-segments").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.evictions", segments, BoundedCache::evictionCount)
+                .tag("cache", "live-segments").register(meterRegistry);
+        Gauge.builder("proxy.cache.bytes", segments, BoundedCache::weight)
+                .tag("cache", "live-segments").register(meterRegistry);
+        log.info("Live segment cache {} at {} (max {} MB, prefetch {})",
+                enabled ? "enabled" : "disabled", root, maxBytes / (1024 * 1024), prefetchCount);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Cached segment for an origin URL, fetched once on a miss (off the caller's thread). Completes with null when
+     * the object is too large to cache; fails with the origin error (e.g. WebClientResponseException) otherwise.
+     */
+    public CompletableFuture<LiveSegment> get(String url) {
+        LiveSegment cached = segments.getIfPresent(url);
+        if (cached != null && cached.expiresAt() < System.currentTimeMillis()) {
+            segments.invalidate(url);
+        }
+        return segments.getAsync(url, () -> fill(url), ioExecutor);
+    }
+
+    /**
+     * Called for every rewritten media playlist: records the live window of its segments and prefetches the
+     * newest ones, which are what players at the live edge request next
+     */
+    public void onMediaPlaylist(List<String> segmentUrls, long windowMillis) {
+        if (!enabled || segmentUrls.isEmpty()) {
+            return;
+        }
+        long ttl = Math.max(windowMillis, defaultTtlMillis);
+        for (String url : segmentUrls) {
+            windows.put(url, ttl);
+        }
+        for (String url : segmentUrls.subList(Math.max(0, segmentUrls.size() - prefetchCount), segmentUrls.size())) {
+            get(url).exceptionally(e -> {
+                log.debug("Live segment prefetch failed for {}: {}", url, e.getMessage());
+                return null;
+            });
+        }
+    }
+
+    public void invalidateAll() {
+        segments.invalidateAll();
+    }
+
+    private LiveSegment fill(String url) throws Exception {
+        // Unique names: a refetch after expiry must not collide with a file another viewer is still reading
+        Path temp = root.resolve(".tmp-" + UUID.randomUUID());
+        Path target = root.resolve(UUID.randomUUID().toString());
+        String contentType;
+        try {
+            contentType = originClients.execute(url, client -> client.get()
+                    .uri(url)
+                    .header("Accept", "*/*")
+                    .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120 Safari/537.36")
+                    .retrieve()
+                    .toEntityFlux(DataBuffer.class)
+                    .flatMap(entity -> {
+                        if (entity.getHeaders().getContentLength() > maxEntryBytes) {
+                            // Cancel the body so the connection is released without downloading it
+                            return entity.getBody().take(0).then(Mono.<String>empty());
+                        }
+                        MediaType type = entity.getHeaders().getContentType();
+                        String value = type != null ? type.toString() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+                        return DataBufferUtils.write(entity.getBody(), temp).thenReturn(value);
+                    }))
+                    .block(fetchTimeout);
+
+            if (contentType == null || !Files.exists(temp) || Files.size(temp) > maxEntryBytes) {
+                log.debug("Live object too large to cache, passing through: {}", url);
+                return null;
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        long size = Files.size(target);
+        Long window = windows.getIfPresent(url);
+        long expiresAt = System.currentTimeMillis() + (window != null ? window : defaultTtlMillis);
+        log.debug("Cached live segment {} ({} bytes)", url, size);
+        return new LiveSegment(target, size, contentType, expiresAt);
+    }
+
+    private static void deleteQuietly(LiveSegment segment) {
+        try {
+            Files.deleteIfExists(segment.path());
+        } catch (IOException e) {
+            log.warn("Failed to delete cached live segment {}: {}", segment.path(), e.getMessage());
+        }
+    }
+
+    private static void clear(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                    .filter(path -> !path.equals(directory))
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.LiveUrl;
+import com.xksgroup.m3u8encoderv2.service.helper.FFmpegHelper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Live ABR transcoding for single-bitrate LiveUrls. The first viewer starts one long-lived ffmpeg per channel
+ * that reads the LiveUrl and writes a rolling multi-rendition HLS window (the VOD ladder, without upscaling)
+ * into a local directory; the live proxy serves that directory. The process is stopped once the channel has
+ * had no request for the idle timeout, and restarted on the next request if it exited.
+ */
+@Slf4j
+@Service
+public class LiveTranscodeService {
+
+    // master.m3u8, vN/index.m3u8 or vN/seg_NNNNN.ts: nothing outside the channel directory
+    private static final Pattern OUTPUT_FILE = Pattern.compile("master\\.m3u8|v\\d+/(index\\.m3u8|seg_\\d+\\.ts)");
+
+    private final LiveUrlService liveUrlService;
+    private final LiveOriginProber originProber;
+    private final FFmpegHelper ffmpegHelper;
+    private final Path root;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final int maxChannels;
+    private final long idleMillis;
+    private final int segmentSeconds;
+    private final int windowSegments;
+    private final long startTimeoutMillis;
+    private final int readTimeoutSeconds;
+
+    public LiveTranscodeService(LiveUrlService liveUrlService,
+                                LiveOriginProber originProber,
+                                FFmpegHelper ffmpegHelper,
+                                @Value("${proxy.live.transcode.dir:${java.io.tmpdir}/m3u8-live-transcode}") String directory,
+                                @Value("${proxy.live.transcode.maxChannels:4}") int maxChannels,
+                                @Value("${proxy.live.transcode.idleSeconds:60}") long idleSeconds,
+                                @Value("${proxy.live.transcode.segmentSeconds:4}") int segmentSeconds,
+                                @Value("${proxy.live.transcode.windowSegments:10}") int windowSegments,
+                                @Value("${proxy.live.transcode.startTimeoutSeconds:30}") long startTimeoutSeconds,
+                                @Value("${proxy.live.transcode.readTimeoutSeconds:15}") int readTimeoutSeconds) throws IOException {
+        this.liveUrlService = liveUrlService;
+        this.originProber = originProber;
+        this.ffmpegHelper = ffmpegHelper;
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+        this.maxChannels = maxChannels;
+        this.idleMillis = idleSeconds * 1000;
+        this.segmentSeconds = segmentSeconds;
+        this.windowSegments = windowSegments;
+        this.startTimeoutMillis = startTimeoutSeconds * 1000;
+        this.readTimeoutSeconds = readTimeoutSeconds;
+
+        // Windows are rebuilt by a fresh ffmpeg, anything left by a previous run is stale
+        deleteTree(root);
+        Files.createDirectories(root);
+    }
+
+    /**
+     * A file of the transcoded window, starting ffmpeg on first use. Playlists are waited for while the
+     * transcode starts up; segments are returned as they are (null once deleted from the window).
+     */
+    public Path file(String urlId, String relativePath) throws Exception {
+        if (!OUTPUT_FILE.matcher(relativePath).matches()) {
+            throw new IllegalArgumentException("Unknown transcode output: " + relativePath);
+        }
+        Channel channel = channel(urlId);
+        channel.touch();
+        Path file = channel.directory.resolve(relativePath);
+        if (relativePath.endsWith(".m3u8")) {
+            channel.awaitFile(file);
+        }
+        return Files.exists(file) ? file : null;
+    }
+
+    @Scheduled(fixedDelayString = "${proxy.live.transcode.sweepMillis:10000}")
+    public void stopIdleChannels() {
+        long now = System.currentTimeMillis();
+        channels.values().removeIf(channel -> {
+            if (now - channel.lastAccess > idleMillis) {
+                log.info("Stopping idle live transcode for {}", channel.urlId);
+                channel.stop();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        channels.values().forEach(Channel::stop);
+        channels.clear();
+    }
+
+    private Channel channel(String urlId) throws Exception {
+        Channel channel = channels.get(urlId);
+        if (channel == null) {
+            if (channels.size() >= maxChannels) {
+                throw new IllegalStateException("Live transcode channel limit reached (" + maxChannels + ")");
+            }
+            channel = channels.computeIfAbsent(urlId, Channel::new);
+        }
+        channel.ensureRunning();
+        return channel;
+    }
+
+    /**
+     * Ladder rungs not above the source height, clamped to the source size; the lowest rung alone when the
+     * source is smaller than all of them
+     */
+    private List<FFmpegHelper.LadderRung> ladderFor(FFmpegHelper.VideoDimensions source) {
+        List<FFmpegHelper.LadderRung> rungs = new ArrayList<>();
+        List<FFmpegHelper.LadderRung> ladder = FFmpegHelper.VIDEO_LADDER;
+        for (FFmpegHelper.LadderRung rung : ladder) {
+            int height = Integer.parseInt(rung.resolution().split("x")[1]);
+            boolean lowest = rung == ladder.get(ladder.size() - 1);
+            if (height <= source.height || (lowest && rungs.isEmpty())) {
+                String resolution = ffmpegHelper.adjustResolution(rung.resolution(), source);
+                rungs.add(new FFmpegHelper.LadderRung(rung.variant(), rung.quality(), resolution, rung.bitrate(),
+                        rung.maxrate(), rung.bufsize(), rung.framerate(), rung.profile(), rung.level()));
+            }
+        }
+        return rungs;
+    }
+
+    private static void deleteTree(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                    .filter(path -> !path.equals(directory))
+                    .forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to clean live transcode directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private class Channel {
+        final String urlId;
+        final Path directory;
+        volatile long lastAccess = System.currentTimeMillis();
+        private Process process;
+        private boolean stopped;
+
+        Channel(String urlId) {
+            this.urlId = urlId;
+            this.directory = root.resolve(urlId.replaceAll("[^A-Za-z0-9._-]", "_"));
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * Start ffmpeg unless it is already running; a process that exited (origin restart, crash) is replaced
+         */
+        synchronized void ensureRunning() throws Exception {
+            if (stopped) {
+                throw new IllegalStateException("Live transcode for " + urlId + " was stopped");
+            }
+            if (process != null && process.isAlive()) {
+                return;
+            }
+            if (process != null) {
+                log.warn("Live transcode for {} exited with code {}, restarting (see {})", urlId, process.exitValue(),
+                        keepLog());
+            }
+
+            LiveUrl liveUrl = liveUrlService.resolveLiveUrl(urlId);
+            String inputUrl = originProber.pickOrigin(liveUrl);
+            // Bounded: this runs under the channel lock, with viewers waiting on it
+            FFmpegHelper.ProbeInfo probe = ffmpegHelper.probeUrl(inputUrl, readTimeoutSeconds, startTimeoutMillis / 1000);
+            if (!probe.hasVideo) {
+                throw new IllegalStateException("Live source has no video stream: " + urlId);
+            }
+            List<FFmpegHelper.LadderRung> rungs = ladderFor(probe.dimensions);
+
+            deleteTree(directory);
+            Files.createDirectories(directory);
+            for (int i = 0; i < rungs.size(); i++) {
+                Files.createDirectories(directory.resolve("v" + i));
+            }
+            List<String> command = ffmpegHelper.buildLiveLadderCommand(inputUrl, rungs, probe.hasAudio, segmentSeconds,
+                    windowSegments, readTimeoutSeconds);
+            ProcessBuilder pb = new ProcessBuilder(command)
+                    .directory(directory.toFile())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(directory.resolve("ffmpeg.log").toFile());
+            pb.environment().put("MALLOC_ARENA_MAX", "2");
+            process = pb.start();
+            log.info("Started live transcode for {} from {} ({} renditions: {})", urlId, inputUrl, rungs.size(),
+                    rungs.stream().map(FFmpegHelper.LadderRung::resolution).toList());
+        }
+
+        /**
+         * Move the log of the exited process out of the directory about to be wiped; one previous log is kept
+         */
+        private Path keepLog() {
+            Path current = directory.resolve("ffmpeg.log");
+            Path kept = root.resolve(directory.getFileName() + "-ffmpeg.log.1");
+            try {
+                Files.move(current, kept, StandardCopyOption.REPLACE_EXISTING);
+                return kept;
+            } catch (IOException e) {
+                return current;
+            }
+        }
+
+        /**
+         * Wait for ffmpeg to write a playlist (first segment of a fresh transcode)
+         */
+        void awaitFile(Path file) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + startTimeoutMillis;
+            while (!Files.exists(file)) {
+                synchronized (this) {
+                    if (process == null || !process.isAlive()) {
+                        throw new IllegalStateException("Live transcode for " + urlId + " is not running");
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Live transcode for " + urlId + " did not start in time");
+                }
+                Thread.sleep(200);
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            if (process != null) {
+                process.destroy();
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            deleteTree(directory);
+            try {
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                log.debug("Failed to delete live transcode directory {}: {}", directory, e.getMessage());
+            }
+        }
+    }
+}
@@ -2,8 +2,9 @@ package com.xksgroup.m3u8encoderv2.service;
 
 import com.xksgroup.m3u8encoderv2.model.LiveUrl;
 import com.xksgroup.m3u8encoderv2.repo.LiveUrlRepository;
-import lombok.RequiredArgsConstructor;
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -13,10 +14,22 @@ import java.util.UUID;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class LiveUrlService {
 
     private final LiveUrlRepository liveUrlRepository;
+    private final LivePlaylistCache livePlaylistCache;
+
+    // Resolved on every viewer poll; the TTL bounds staleness for updates made through another instance
+    private final BoundedCache<String, LiveUrl> liveUrlCache;
+
+    public LiveUrlService(LiveUrlRepository liveUrlRepository,
+                          LivePlaylistCache livePlaylistCache,
+                          @Value("${proxy.live.urls.maxEntries:10000}") long maxEntries,
+                          @Value("${proxy.live.urls.ttlSeconds:30}") long ttlSeconds) {
+        this.liveUrlRepository = liveUrlRepository;
+        this.livePlaylistCache = livePlaylistCache;
+        this.liveUrlCache = new BoundedCache<>(maxEntries, ttlSeconds * 1000, liveUrl -> 1);
+    }
 
     /**
      * Create a new LiveUrl entry
@@ -55,6 +68,17 @@ public class LiveUrlService {
                 .orElseThrow(() -> new IllegalArgumentException("LiveUrl not found with urlId: " + urlId));
     }
 
+    /**
+     * Cached lookup for the proxy hot path; misses are not cached so a new LiveUrl is usable immediately
+     */
+    public LiveUrl resolveLiveUrl(String urlId) throws Exception {
+        LiveUrl liveUrl = liveUrlCache.get(urlId, () -> liveUrlRepository.findByUrlId(urlId).orElse(null));
+        if (liveUrl == null) {
+            throw new IllegalArgumentException("LiveUrl not found with urlId: " + urlId);
+        }
+        return liveUrl;
+    }
+
     /**
      * Delete LiveUrl by urlId
      */
@@ -66,6 +90,7 @@ public class LiveUrlService {
         }
         
         liveUrlRepository.deleteByUrlId(urlId);
+        evict(urlId);
         log.info("Deleted LiveUrl with urlId: {}", urlId);
         return true;
     }
@@ -80,11 +105,22 @@ public class LiveUrlService {
         if (updatedLiveUrl.getUrl() != null) {
             existing.setUrl(updatedLiveUrl.getUrl());
         }
+
+        if (updatedLiveUrl.getFallbackUrls() != null) {
+            existing.setFallbackUrls(updatedLiveUrl.getFallbackUrls());
+        }
         
         existing.setUpdatedAt(Instant.now());
         
+        LiveUrl saved = liveUrlRepository.save(existing);
+        evict(urlId);
         log.info("Updated LiveUrl with urlId: {}", urlId);
-        return liveUrlRepository.save(existing);
+        return saved;
+    }
+
+    private void evict(String urlId) {
+        liveUrlCache.invalidate(urlId);
+        livePlaylistCache.invalidate(urlId);
     }
 }
 
@@ -0,0 +1,140 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
+import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
+import com.xksgroup.m3u8encoderv2.repo.VariantSegmentIndexRepository;
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import com.xksgroup.m3u8encoderv2.service.helper.PlaylistCompression;
+import com.xksgroup.m3u8encoderv2.service.helper.VariantPlaylistTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Caches MasterPlaylistRecord lookups and raw origin playlist bodies for the secure proxy.
+ * VOD playlists never change once the job is COMPLETED, so entries live until evicted by size
+ * or invalidated when the job's content is deleted.
+ */
+@Slf4j
+@Service
+public class PlaylistCache {
+
+    /**
+     * A fully rendered playlist, with its gzip form when it is large enough to be worth compressing
+     */
+    public record RenderedPlaylist(byte[] text, byte[] gzipped) {
+        long weight() {
+            return text.length + (gzipped != null ? gzipped.length : 0) + 64L;
+        }
+    }
+
+    // Rough in-memory footprint of a record with four variants
+    private static final long RECORD_WEIGHT = 4 * 1024;
+
+    private final MasterPlaylistRecordRepository masterRepo;
+    private final VariantSegmentIndexRepository segmentIndexRepo;
+    private final R2StorageService storageService;
+    private final EncryptionKeyCache keyCache;
+
+    private final BoundedCache<String, MasterPlaylistRecord> records;
+    private final BoundedCache<String, String> playlists;
+    private final BoundedCache<String, VariantPlaylistTemplate> variantTemplates;
+    private final BoundedCache<String, RenderedPlaylist> rendered;
+
+    public PlaylistCache(MasterPlaylistRecordRepository masterRepo,
+                         VariantSegmentIndexRepository segmentIndexRepo,
+                         R2StorageService storageService,
+                         EncryptionKeyCache keyCache,
+                         @Value("${proxy.cache.records.maxEntries:10000}") long maxRecords,
+                         @Value("${proxy.cache.playlists.maxBytes:67108864}") long maxPlaylistBytes) {
+        this.masterRepo = masterRepo;
+        this.segmentIndexRepo = segmentIndexRepo;
+        this.storageService = storageService;
+        this.keyCache = keyCache;
+        this.records = new BoundedCache<>(maxRecords * RECORD_WEIGHT, 0, record -> RECORD_WEIGHT);
+        // Java strings are at most 2 bytes per char
+        this.playlists = new BoundedCache<>(maxPlaylistBytes, 0, body -> body.length() * 2L);
+        this.variantTemplates = new BoundedCache<>(maxPlaylistBytes, 0, VariantPlaylistTemplate::weight);
+        this.rendered = new BoundedCache<>(maxPlaylistBytes, 0, RenderedPlaylist::weight);
+    }
+
+    /**
+     * Completed record for a job; misses are not cached so a job becomes visible as soon as its upload finishes
+     */
+    public Optional<MasterPlaylistRecord> getRecord(String jobId) throws Exception {
+        return Optional.ofNullable(records.get(jobId, () -> loadRecord(jobId)));
+    }
+
+    /**
+     * Raw playlist body as stored at the origin
+     */
+    public String getPlaylist(String jobId, String objectKey) throws Exception {
+        return playlists.get(cacheKey(jobId, objectKey), () -> storageService.getPlaylistContent(objectKey));
+    }
+
+    /**
+     * Variant playlist pre-parsed for per-viewer rendering. Built from the record's segment index when it has one,
+     * so a cold miss costs one Mongo read instead of an object store GET; jobs uploaded before the index existed,
+     * or whose index cannot reproduce the playlist, fall back to parsing the stored playlist.
+     */
+    public VariantPlaylistTemplate getVariantTemplate(MasterPlaylistRecord record, String keyPrefix, String variant) throws Exception {
+        String jobId = record.getJobId();
+        String objectKey = keyPrefix + "/" + variant + "/index.m3u8";
+        return variantTemplates.get(cacheKey(jobId, objectKey), () -> {
+            VariantPlaylistTemplate template = segmentIndexRepo.findByMasterIdAndVariantLabel(record.getId(), variant)
+                    .map(index -> VariantPlaylistTemplate.fromIndex(index, keyPrefix, variant))
+                    .orElse(null);
+            if (template == null) {
+                log.debug("No usable segment index for job {} variant {}, parsing {}", jobId, variant, objectKey);
+                template = VariantPlaylistTemplate.parse(getPlaylist(jobId, objectKey), keyPrefix, variant);
+            }
+            return template;
+        });
+    }
+
+    /**
+     * Rendered (and pre-compressed) output for responses that are identical for every viewer, keyed by job and ETag.
+     * The ETag already covers the record version and token epoch, so stale entries are simply never asked for again;
+     * the job part lets {@link #invalidate} drop a deleted job's renderings at once.
+     */
+    public RenderedPlaylist getRendered(String jobId, String etag, int compressionMinBytes, BoundedCache.Loader<String> renderer) throws Exception {
+        return rendered.get(cacheKey(jobId, etag), () -> {
+            byte[] text = renderer.load().getBytes(StandardCharsets.UTF_8);
+            byte[] gzipped = text.length >= compressionMinBytes
+                    ? PlaylistCompression.gzip(text)
+                    : null;
+            return new RenderedPlaylist(text, gzipped);
+        });
+    }
+
+    public void invalidate(String jobId) {
+        records.invalidate(jobId);
+        keyCache.invalidate(jobId);
+        String prefix = jobId + "|";
+        playlists.invalidateIf(key -> key.startsWith(prefix));
+        variantTemplates.invalidateIf(key -> key.startsWith(prefix));
+        rendered.invalidateIf(key -> key.startsWith(prefix));
+        log.debug("Invalidated playlist cache for job: {}", jobId);
+    }
+
+    public void invalidateAll() {
+        records.invalidateAll();
+        keyCache.invalidateAll();
+        playlists.invalidateAll();
+        variantTemplates.invalidateAll();
+        rendered.invalidateAll();
+    }
+
+    private MasterPlaylistRecord loadRecord(String jobId) {
+        return masterRepo.findByJobId(jobId)
+                .filter(record -> record.getStatus() == null || "COMPLETED".equals(record.getStatus()))
+                .orElse(null);
+    }
+
+    private static String cacheKey(String jobId, String objectKey) {
+        return jobId + "|" + objectKey;
+    }
+}
@@ -1,33 +1,38 @@
 package com.xksgroup.m3u8encoderv2.service;
 
 import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
+import com.xksgroup.m3u8encoderv2.model.UploadManifest;
 import com.xksgroup.m3u8encoderv2.model.VariantInfo;
 import com.xksgroup.m3u8encoderv2.model.VariantSegment;
+import com.xksgroup.m3u8encoderv2.model.VariantSegmentIndex;
 import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
-import com.xksgroup.m3u8encoderv2.repo.VariantSegmentRepository;
+import com.xksgroup.m3u8encoderv2.repo.UploadManifestRepository;
+import com.xksgroup.m3u8encoderv2.repo.VariantSegmentIndexRepository;
+import com.xksgroup.m3u8encoderv2.service.helper.EncryptionHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.FFmpegHelper;
 import com.xksgroup.m3u8encoderv2.service.helper.R2StorageHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.SegmentIndexHelper;
 import com.xksgroup.m3u8encoderv2.service.helper.UploadProgressHelper;
+import com.xksgroup.m3u8encoderv2.service.storage.ObjectStore;
+import com.xksgroup.m3u8encoderv2.service.storage.StoredObject;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import static com.xksgroup.m3u8encoderv2.service.helper.R2StorageHelper.findSegmentFiles;
@@ -36,20 +41,15 @@ import static com.xksgroup.m3u8encoderv2.service.helper.R2StorageHelper.findSegm
 @Service
 public class R2StorageService {
 
-    private final S3Client s3;
-    private final S3Presigner s3Presigner;
+    private final ObjectStore store;
     private final MasterPlaylistRecordRepository masterRepo;
-    private final VariantSegmentRepository segmentRepo;
+    private final VariantSegmentIndexRepository segmentIndexRepo;
+    private final UploadManifestRepository manifestRepo;
     private final UploadProgressHelper progressHelper;
-
-    @Value("${r2.bucket}")
-    private String bucket;
-
-    @Value("${r2.accountId}")
-    private String accountId;
-
-    @Value("${cdn.baseUrl:}")
-    private String cdnBaseUrl;
+    private final StorageDeletionService deletionService;
+    private final FFmpegHelper ffmpegHelper;
+    private final EncryptionHelper encryptionHelper;
+    private final EncryptionKeyCache keyCache;
 
     @Value("${upload.parallel.enabled:true}")
     private boolean parallelUploadEnabled;
@@ -65,20 +65,35 @@ public class R2StorageService {
 
     private ExecutorService executor;
 
+    private static final Pattern EXT_X_KEY = Pattern.compile("#EXT-X-KEY:METHOD=([A-Z0-9-]+)(?:.*?,IV=0[xX]([0-9a-fA-F]{32}))?");
+
+    // Prefixes whose upload was explicitly cancelled; running workers stop picking up new segments.
+    // A marker lives until the upload it targets has rolled back.
+    private final Set<String> cancelledPrefixes = ConcurrentHashMap.newKeySet();
+    private final Set<String> activeUploads = ConcurrentHashMap.newKeySet();
+
     JobService jobService;
 
 
 
-    public R2StorageService(@Qualifier("r2Client") S3Client s3,
-                            @Qualifier("r2Presigner") S3Presigner s3Presigner,
+    public R2StorageService(ObjectStore store,
                             MasterPlaylistRecordRepository masterRepo,
-                            VariantSegmentRepository segmentRepo,
-                            UploadProgressHelper progressHelper) {
-        this.s3 = s3;
-        this.s3Presigner = s3Presigner;
+                            VariantSegmentIndexRepository segmentIndexRepo,
+                            UploadManifestRepository manifestRepo,
+                            UploadProgressHelper progressHelper,
+                            StorageDeletionService deletionService,
+                            FFmpegHelper ffmpegHelper,
+                            EncryptionHelper encryptionHelper,
+                            EncryptionKeyCache keyCache) {
+        this.store = store;
         this.masterRepo = masterRepo;
-        this.segmentRepo = segmentRepo;
+        this.segmentIndexRepo = segmentIndexRepo;
+        this.manifestRepo = manifestRepo;
         this.progressHelper = progressHelper;
+        this.deletionService = deletionService;
+        this.ffmpegHelper = ffmpegHelper;
+        this.encryptionHelper = encryptionHelper;
+        this.keyCache = keyCache;
     }
 
     // Setter for circular dependency
@@ -90,16 +105,25 @@ public class R2StorageService {
     @Transactional
     public String uploadAbrJob(Path jobDir, String keyPrefix, String fileSlug, String title, String resourceType) throws Exception {
         log.info("Starting ABR job upload - Job: {}, Variants: {}", fileSlug, countVariantDirs(jobDir));
-        UploadTransaction transaction = new UploadTransaction(keyPrefix);
+        String prefix = keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+        String jobId = extractJobIdFromKeyPrefix(keyPrefix);
+        cancelledPrefixes.remove(prefix);
+        activeUploads.add(prefix);
+        UploadTransaction transaction;
+        try {
+            transaction = openTransaction(jobId, prefix);
+        } catch (RuntimeException e) {
+            activeUploads.remove(prefix);
+            throw e;
+        }
+        saveManifest(transaction, UploadManifest.Status.IN_PROGRESS);
 
         try {
             initializeExecutor();
             validateMasterPlaylist(jobDir);
 
             List<Path> variantDirs = findVariantDirs(jobDir);
-            String baseUrl = buildBaseUrl();
-            boolean includeBucketInUrl = baseUrl.contains("cloudflarestorage.com");
-            String prefix = keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+            String baseUrl = store.publicBaseUrl();
 
 
             // Parse master playlist to extract proper variant attributes
@@ -110,10 +134,7 @@ public class R2StorageService {
             log.info("Parsed {} variants from master playlist with proper attributes", parsedVariants.size());
 
             // Upload encryption keys if they exist
-            uploadEncryptionKeys(jobDir, prefix, transaction);
-
-            // Upload master playlist
-            String masterUrl = uploadMasterPlaylist(jobDir, prefix, baseUrl, includeBucketInUrl, variantDirs, transaction);
+            uploadEncryptionKeys(jobDir, prefix, jobId, transaction);
 
             // Create mapping of variant directory names to parsed variant info
             Map<String, VariantInfo> variantInfoMap = new HashMap<>();
@@ -124,6 +145,7 @@ public class R2StorageService {
             // Upload variants and segments with parsed attributes
             List<VariantInfo> variants = new ArrayList<>();
             List<VariantSegment> stagedSegments = new ArrayList<>();
+            List<VariantSegmentIndex> segmentIndexes = new ArrayList<>();
 
             for (Path variantDir : variantDirs) {
                 String dirName = variantDir.getFileName().toString();
@@ -141,36 +163,152 @@ public class R2StorageService {
 
                 }
                 
-                VariantUploadResult result = uploadVariant(variantDir, prefix, baseUrl, includeBucketInUrl, transaction, parsedVariantInfo);
+                VariantUploadResult result = uploadVariant(jobDir, variantDir, prefix, baseUrl, transaction, parsedVariantInfo);
                 variants.add(result.variantInfo);
                 stagedSegments.addAll(result.segments);
+                segmentIndexes.add(result.segmentIndex);
+
+                // Checkpoint after every variant so a later failure only redoes the current one
+                saveManifest(transaction, UploadManifest.Status.IN_PROGRESS);
             }
 
             // Verify all uploads succeeded before committing to database
             verifyAllUploadsSuccessful(stagedSegments);
 
+            // Upload master playlist last, advertising what was actually measured on each rendition
+            String masterUrl = uploadMasterPlaylist(jobDir, prefix, baseUrl, variantDirs, variants, transaction);
+
             // Save to database (this will commit the transaction)
             saveToDatabase(title, fileSlug, resourceType, masterUrl,
-                    prefix + "master.m3u8", variants, stagedSegments,
+                    prefix + "master.m3u8", variants, segmentIndexes,
                     R2StorageHelper.calculateVideoDuration(variantDirs.get(0)));
 
-            log.info("ABR upload completed successfully - Master: {}, Variants: {}, Segments: {}",
-                    masterUrl, variants.size(), stagedSegments.size());
+            log.info("ABR upload completed successfully - Master: {}, Variants: {}, Segments: {} ({} already in storage)",
+                    masterUrl, variants.size(), stagedSegments.size(), transaction.getSkippedCount());
+
+            // The manifest has served its purpose; keep only the status
+            transaction.clearEntries();
+            saveManifest(transaction, UploadManifest.Status.COMPLETED);
 
             // Mark upload completion to calculate duration
-            if (jobService != null) {
-                String jobId = extractJobIdFromKeyPrefix(keyPrefix);
-                if (jobId != null) {
-                    jobService.markUploadComplete(jobId);
-                }
+            if (jobService != null && jobId != null) {
+                jobService.markUploadComplete(jobId);
             }
 
             return masterUrl;
 
         } catch (Exception e) {
-            log.error("ABR upload failed for job: {} - initiating rollback", fileSlug, e);
-            rollbackUpload(transaction);
+            if (isCancelled(prefix) || (jobService != null && jobService.isJobCancelled(jobId))) {
+                log.warn("ABR upload cancelled for job: {} - initiating rollback", fileSlug);
+                rollbackUpload(transaction);
+            } else {
+                log.error("ABR upload failed for job: {} - keeping {} uploaded objects for resume", fileSlug,
+                        transaction.getEntryCount(), e);
+                saveManifest(transaction, UploadManifest.Status.IN_PROGRESS);
+            }
             throw e;
+        } finally {
+            activeUploads.remove(prefix);
+            cancelledPrefixes.remove(prefix);
+        }
+    }
+
+    /**
+     * Explicitly cancel an upload: stop pending segment uploads and delete everything stored under the prefix,
+     * including objects kept from previous attempts.
+     */
+    public void cancelUpload(String keyPrefix) {
+        String prefix = keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+        cancelledPrefixes.add(prefix);
+        log.warn("Cancelling upload for prefix: {}", prefix);
+
+        deleteFilesByPrefix(prefix);
+
+        String jobId = extractJobIdFromKeyPrefix(keyPrefix);
+        if (jobId != null) {
+            manifestRepo.deleteByJobId(jobId);
+        }
+        // No upload running for the prefix: nothing left for the marker to stop
+        if (!activeUploads.contains(prefix)) {
+            cancelledPrefixes.remove(prefix);
+        }
+    }
+
+    /**
+     * Give up on an upload that failed for good: the encoded output is gone, so the objects kept for a
+     * resume and the manifest would only be orphans.
+     */
+    public void discardUpload(String keyPrefix) {
+        String prefix = keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+        log.warn("Discarding failed upload for prefix: {}", prefix);
+        deleteFilesByPrefix(prefix);
+        deleteUploadManifest(extractJobIdFromKeyPrefix(keyPrefix));
+    }
+
+    /**
+     * Drop the upload manifest of a job (used when its content is deleted)
+     */
+    public void deleteUploadManifest(String jobId) {
+        if (jobId != null) {
+            manifestRepo.deleteByJobId(jobId);
+        }
+    }
+
+    private boolean isCancelled(String prefix) {
+        return cancelledPrefixes.contains(prefix);
+    }
+
+    /**
+     * Load (or create) the job manifest and snapshot what the bucket already holds under the prefix.
+     * One paginated ListObjectsV2 replaces a HEAD per key on retry.
+     */
+    private UploadTransaction openTransaction(String jobId, String prefix) {
+        UploadManifest manifest = jobId != null ? manifestRepo.findByJobId(jobId).orElse(null) : null;
+        if (manifest == null) {
+            manifest = UploadManifest.builder()
+                    .jobId(jobId)
+                    .keyPrefix(prefix)
+                    .entries(new ArrayList<>())
+                    .createdAt(Instant.now())
+                    .build();
+        }
+        manifest.setAttempts(manifest.getAttempts() + 1);
+
+        Map<String, StoredObject> existing = new HashMap<>();
+        if (manifest.getAttempts() > 1 || manifest.getEntries() != null && !manifest.getEntries().isEmpty()) {
+            existing = listExistingObjects(prefix);
+            log.info("Resuming upload for prefix {} (attempt {}): {} objects already in storage, {} in manifest",
+                    prefix, manifest.getAttempts(), existing.size(),
+                    manifest.getEntries() != null ? manifest.getEntries().size() : 0);
+        }
+
+        return new UploadTransaction(manifest, existing);
+    }
+
+    private Map<String, StoredObject> listExistingObjects(String prefix) {
+        Map<String, StoredObject> objects = new HashMap<>();
+        try {
+            store.listPages(prefix, ObjectStore.MAX_BATCH_SIZE,
+                    page -> page.forEach(object -> objects.put(object.getKey(), object)));
+        } catch (Exception e) {
+            // Worst case we re-upload everything, which is what used to happen anyway
+            log.warn("Could not list existing objects for prefix {}: {}", prefix, e.getMessage());
+        }
+        return objects;
+    }
+
+    private void saveManifest(UploadTransaction transaction, UploadManifest.Status status) {
+        if (transaction.manifest.getJobId() == null) {
+            return;
+        }
+        try {
+            UploadManifest manifest = transaction.manifest;
+            manifest.setStatus(status);
+            manifest.setEntries(transaction.snapshotEntries());
+            manifest.setUpdatedAt(Instant.now());
+            transaction.manifest = manifestRepo.save(manifest);
+        } catch (Exception e) {
+            log.warn("Failed to save upload manifest for job {}: {}", transaction.manifest.getJobId(), e.getMessage());
         }
     }
 
@@ -188,7 +326,7 @@ public class R2StorageService {
         log.warn("Starting rollback for upload transaction - {} keys to delete", transaction.getUploadedKeys().size());
 
         try {
-            // Delete all uploaded objects from R2
+            // Delete all uploaded objects from R2, including the ones kept from previous attempts
             deleteUploadedObjects(transaction.getUploadedKeys());
 
             // Delete any database records that might have been created
@@ -206,68 +344,16 @@ public class R2StorageService {
         if (keys.isEmpty()) {
             return;
         }
-
-        // Use batch delete for efficiency
-        List<String> keyList = new ArrayList<>(keys);
-        int batchSize = 1000; // S3 delete limit
-
-        for (int i = 0; i < keyList.size(); i += batchSize) {
-            List<String> batch = keyList.subList(i, Math.min(i + batchSize, keyList.size()));
-            deleteBatch(batch);
-        }
-    }
-
-    private void deleteBatch(List<String> keys) {
-        try {
-            List<ObjectIdentifier> objectsToDelete = keys.stream()
-                    .map(key -> ObjectIdentifier.builder().key(key).build())
-                    .toList();
-
-            Delete delete = Delete.builder()
-                    .objects(objectsToDelete)
-                    .build();
-
-            DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
-                    .bucket(bucket)
-                    .delete(delete)
-                    .build();
-
-            DeleteObjectsResponse response = s3.deleteObjects(deleteRequest);
-
-            if (!response.errors().isEmpty()) {
-                log.warn("Some objects failed to delete: {}", response.errors());
-            }
-
-            log.debug("Deleted batch of {} objects", keys.size());
-
-        } catch (Exception e) {
-            log.error("Failed to delete batch of objects: {}", keys, e);
-            // Continue with individual deletes as fallback
-            deleteIndividually(keys);
-        }
-    }
-
-    private void deleteIndividually(List<String> keys) {
-        for (String key : keys) {
-            try {
-                DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
-                        .bucket(bucket)
-                        .key(key)
-                        .build();
-
-                s3.deleteObject(deleteRequest);
-                log.debug("Deleted object: {}", key);
-
-            } catch (Exception e) {
-                log.error("Failed to delete object: {}", key, e);
-            }
-        }
+        deletionService.deleteKeys(keys, null);
     }
 
     private void rollbackDatabaseRecords(UploadTransaction transaction) {
         // Note: If this method is called within a @Transactional method that throws an exception,
         // Spring will automatically roll back any database changes.
-        // This method is here for explicit cleanup if needed in the future.
+        // The upload manifest is not covered by it, so drop it explicitly.
+        if (transaction.manifest.getJobId() != null) {
+            manifestRepo.deleteByJobId(transaction.manifest.getJobId());
+        }
         log.debug("Database rollback handled by Spring transaction management");
     }
 
@@ -308,25 +394,30 @@ public class R2StorageService {
         }
     }
 
-    private String uploadMasterPlaylist(Path jobDir, String prefix, String baseUrl,
-                                        boolean includeBucketInUrl, List<Path> variantDirs,
-                                        UploadTransaction transaction) throws Exception {
+    private String uploadMasterPlaylist(Path jobDir, String prefix, String baseUrl, List<Path> variantDirs,
+                                        List<VariantInfo> variants, UploadTransaction transaction) throws Exception {
         Path master = jobDir.resolve("master.m3u8");
         String masterKey = prefix + "master.m3u8";
 
-        String masterContent = Files.readString(master, StandardCharsets.UTF_8);
-        String rewrittenMaster = R2StorageHelper.rewriteMaster(masterContent, prefix, baseUrl, bucket, includeBucketInUrl, variantDirs);
+        Map<String, VariantInfo> measuredByLabel = new HashMap<>();
+        for (VariantInfo variant : variants) {
+            measuredByLabel.put(variant.getLabel(), variant);
+        }
+
+        String masterContent = R2StorageHelper.applyMeasuredAttributes(
+                Files.readString(master, StandardCharsets.UTF_8), measuredByLabel);
+        String rewrittenMaster = R2StorageHelper.rewriteMaster(masterContent, prefix, baseUrl, null, false, variantDirs);
 
-        uploadWithRetry(masterKey, RequestBody.fromString(rewrittenMaster, StandardCharsets.UTF_8),
+        uploadWithRetry(masterKey, rewrittenMaster.getBytes(StandardCharsets.UTF_8),
                 "application/vnd.apple.mpegurl", transaction);
 
-        return includeBucketInUrl ? baseUrl + "/" + bucket + "/" + masterKey : baseUrl + "/" + masterKey;
+        return store.publicUrl(masterKey);
     }
 
     /**
      * Upload encryption keys and related files
      */
-    private void uploadEncryptionKeys(Path jobDir, String prefix, UploadTransaction transaction) throws Exception {
+    private void uploadEncryptionKeys(Path jobDir, String prefix, String jobId, UploadTransaction transaction) throws Exception {
         try {
             // Look for encryption key files (*.key, *.txt, keyinfo_*.txt)
             try (Stream<Path> files = Files.walk(jobDir, 1)) {
@@ -354,8 +445,14 @@ public class R2StorageService {
                     // Determine content type
                     String contentType = fileName.endsWith(".key") ? "application/octet-stream" : "text/plain";
 
-                    uploadWithRetry(keyPath, RequestBody.fromFile(encryptionFile), contentType, transaction);
+                    byte[] data = Files.readAllBytes(encryptionFile);
+                    uploadWithRetry(keyPath, data, contentType, transaction);
                     log.debug("Uploaded encryption file: {} -> {}", fileName, keyPath);
+
+                    // Warm the proxy's key cache so key requests never go back to storage
+                    if (jobId != null && fileName.equals(encryptionHelper.getKeyFileName(jobId))) {
+                        keyCache.put(jobId, data);
+                    }
                 }
 
                 log.info("Successfully uploaded {} encryption files", encryptionFiles.size());
@@ -366,8 +463,8 @@ public class R2StorageService {
         }
     }
 
-    private VariantUploadResult uploadVariant(Path variantDir, String prefix, String baseUrl,
-                                              boolean includeBucketInUrl, UploadTransaction transaction,
+    private VariantUploadResult uploadVariant(Path jobDir, Path variantDir, String prefix, String baseUrl,
+                                              UploadTransaction transaction,
                                               VariantInfo parsedVariantInfo) throws Exception {
         String label = variantDir.getFileName().toString();
         String variantKey = prefix + label + "/index.m3u8";
@@ -375,29 +472,106 @@ public class R2StorageService {
         // Upload variant playlist
         Path index = variantDir.resolve("index.m3u8");
         String indexContent = Files.readString(index, StandardCharsets.UTF_8);
-        String rewrittenVariant = R2StorageHelper.rewriteVariant(indexContent, variantKey, baseUrl, bucket, includeBucketInUrl);
+        String rewrittenVariant = R2StorageHelper.rewriteVariant(indexContent, variantKey, baseUrl, null, false);
 
-        uploadWithRetry(variantKey, RequestBody.fromString(rewrittenVariant, StandardCharsets.UTF_8),
+        uploadWithRetry(variantKey, rewrittenVariant.getBytes(StandardCharsets.UTF_8),
                 "application/vnd.apple.mpegurl", transaction);
 
-        String variantUrl = includeBucketInUrl ? baseUrl + "/" + bucket + "/" + variantKey : baseUrl + "/" + variantKey;
+        String variantUrl = store.publicUrl(variantKey);
 
         // Upload segments
         List<Path> segmentFiles = findSegmentFiles(variantDir);
         List<VariantSegment> segments = uploadSegments(variantDir, segmentFiles, prefix, label, transaction);
+        VariantSegmentIndex segmentIndex = buildSegmentIndex(label, segmentFiles, segments, indexContent);
+        FFmpegHelper.RenditionInfo rendition = probeRendition(jobDir, indexContent, segmentFiles);
+
+        long totalBytes = 0;
+        for (int i = 0; i < segmentIndex.getSegmentCount(); i++) {
+            totalBytes += segmentIndex.sizeAt(i);
+        }
 
-        // Use parsed variant info with proper attributes
+        // Measured values win; the attributes FFmpeg/PlaylistHelper wrote are only a fallback
         VariantInfo variantInfo = VariantInfo.builder()
                 .label(label)
-                .bandwidth(parsedVariantInfo.getBandwidth())
-                .resolution(parsedVariantInfo.getResolution())
-                .codecs(parsedVariantInfo.getCodecs())
+                .bandwidth(segmentIndex.getPeakBitrate() > 0
+                        ? String.valueOf(segmentIndex.getPeakBitrate()) : parsedVariantInfo.getBandwidth())
+                .averageBandwidth(segmentIndex.getAverageBitrate() > 0
+                        ? String.valueOf(segmentIndex.getAverageBitrate()) : null)
+                .resolution(rendition != null && rendition.resolution != null
+                        ? rendition.resolution : parsedVariantInfo.getResolution())
+                .codecs(rendition != null && rendition.codecs != null
+                        ? rendition.codecs : parsedVariantInfo.getCodecs())
+                .frameRate(rendition != null ? rendition.frameRate : null)
+                .durationSeconds(segmentIndex.totalDurationSeconds())
+                .totalBytes(totalBytes)
                 .playlistKey(variantKey)
                 .playlistUrl(variantUrl)
                 .segmentCount(segmentFiles.size())
                 .build();
 
-        return new VariantUploadResult(variantInfo, segments);
+        return new VariantUploadResult(variantInfo, segments, segmentIndex);
+    }
+
+    private VariantSegmentIndex buildSegmentIndex(String label, List<Path> segmentFiles, List<VariantSegment> segments,
+                                                  String playlistContent) throws Exception {
+        Map<String, Double> durationsByFile = R2StorageHelper.parseSegmentDurations(playlistContent);
+        List<VariantSegment> ordered = segments.stream()
+                .sorted(Comparator.comparingInt(VariantSegment::getPosition))
+                .toList();
+
+        List<String> keys = new ArrayList<>(ordered.size());
+        double[] durations = new double[ordered.size()];
+        long[] sizes = new long[ordered.size()];
+        for (int i = 0; i < ordered.size(); i++) {
+            Path file = segmentFiles.get(ordered.get(i).getPosition());
+            keys.add(ordered.get(i).getKey());
+            durations[i] = durationsByFile.getOrDefault(file.getFileName().toString(), 0.0);
+            sizes[i] = Files.size(file);
+            ordered.get(i).setDuration(durations[i]);
+        }
+        return SegmentIndexHelper.build(null, label, keys, durations, sizes);
+    }
+
+    /**
+     * ffprobe the first segment of a rendition; AES-128 segments are decrypted to a temp file first
+     */
+    private FFmpegHelper.RenditionInfo probeRendition(Path jobDir, String playlistContent, List<Path> segmentFiles) {
+        if (segmentFiles.isEmpty()) {
+            return null;
+        }
+        Path segment = segmentFiles.get(0);
+        Path decrypted = null;
+        try {
+            Matcher key = EXT_X_KEY.matcher(playlistContent);
+            if (key.find() && "AES-128".equals(key.group(1))) {
+                Path keyFile;
+                try (Stream<Path> files = Files.list(jobDir)) {
+                    keyFile = files.filter(p -> p.getFileName().toString().endsWith(".key")).findFirst().orElse(null);
+                }
+                if (keyFile == null) {
+                    return null;
+                }
+                // Without an explicit IV the media sequence number is used, 0 for the first segment of a VOD playlist
+                byte[] iv = key.group(2) != null ? HexFormat.of().parseHex(key.group(2)) : new byte[16];
+                decrypted = Files.createTempFile(jobDir, "probe-", ".ts");
+                Files.write(decrypted, encryptionHelper.decryptSegment(
+                        Files.readAllBytes(segment), Files.readAllBytes(keyFile), iv));
+                segment = decrypted;
+            }
+            return ffmpegHelper.probeRendition(segment);
+
+        } catch (Exception e) {
+            log.warn("Could not probe rendition from {}: {}", segmentFiles.get(0), e.getMessage());
+            return null;
+        } finally {
+            if (decrypted != null) {
+                try {
+                    Files.deleteIfExists(decrypted);
+                } catch (Exception ignored) {
+                    // temp file lives in the job directory, which is cleaned up anyway
+                }
+            }
+        }
     }
 
 
@@ -548,8 +722,11 @@ public class R2StorageService {
         Exception lastException = null;
 
         for (int attempt = 1; attempt <= maxRetryAttempts; attempt++) {
+            if (isCancelled(transaction.prefix)) {
+                return new SegmentUploadResult(key, position, false, new Exception("Upload cancelled"));
+            }
             try {
-                uploadWithRetry(key, RequestBody.fromFile(file), "video/mp2t", transaction);
+                uploadWithRetry(key, Files.readAllBytes(file), "video/mp2t", transaction);
                 return new SegmentUploadResult(key, position, true, null);
             } catch (Exception e) {
                 lastException = e;
@@ -568,20 +745,25 @@ public class R2StorageService {
         return new SegmentUploadResult(key, position, false, lastException);
     }
 
-    private void uploadWithRetry(String key, RequestBody body, String contentType, UploadTransaction transaction) throws Exception {
+    private void uploadWithRetry(String key, byte[] data, String contentType, UploadTransaction transaction) throws Exception {
+        // Checksum is computed from the same bytes that are sent, so storage verifies exactly what we read
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(data);
+        String md5Hex = HexFormat.of().formatHex(md5);
+
+        if (transaction.isAlreadyStored(key, md5Hex, data.length)) {
+            transaction.recordSkipped(key, md5Hex, data.length);
+            log.debug("Skipping upload, identical object already stored: {}", key);
+            return;
+        }
+
         Exception lastException = null;
 
         for (int attempt = 1; attempt <= maxRetryAttempts; attempt++) {
             try {
-                s3.putObject(PutObjectRequest.builder()
-                        .bucket(bucket)
-                        .key(key)
-                        .contentType(contentType)
-                        .cacheControl(cache(key))
-                        .build(), body);
-
-                // Track successful upload for potential rollback
-                transaction.addUploadedKey(key);
+                store.put(key, data, contentType, cache(key), md5);
+
+                // Track successful upload for potential rollback and resume
+                transaction.recordUploaded(key, md5Hex, data.length);
                 return;
 
             } catch (Exception e) {
@@ -602,7 +784,7 @@ public class R2StorageService {
     }
 
     private String saveToDatabase(String title, String fileSlug, String resourceType, String masterUrl,
-                                  String masterKey, List<VariantInfo> variants, List<VariantSegment> segments,
+                                  String masterKey, List<VariantInfo> variants, List<VariantSegmentIndex> segmentIndexes,
                                   Long durationSeconds) throws Exception {
 
         // Extract jobId from masterKey (format: resourceType/slug/jobId/master.m3u8)
@@ -628,26 +810,31 @@ public class R2StorageService {
                 .updatedAt(Instant.now())
                 .build();
 
-        masterRec = masterRepo.save(masterRec);
+        // jobId is unique: a resumed upload whose previous attempt already got this far replaces that record
+        MasterPlaylistRecord existing = jobId != null ? masterRepo.findByJobId(jobId).orElse(null) : null;
+        if (existing != null) {
+            log.info("Replacing master playlist record {} of a previous attempt for job {}", existing.getId(), jobId);
+            masterRec.setId(existing.getId());
+            masterRec.setCreatedAt(existing.getCreatedAt());
+            segmentIndexRepo.deleteByMasterId(existing.getId());
+        }
+        try {
+            masterRec = masterRepo.save(masterRec);
+        } catch (DuplicateKeyException e) {
+            throw new IllegalStateException("A master playlist record for job " + jobId + " was written concurrently", e);
+        }
 
-        // Set masterId for all segments and save
+        // One index document per variant, written in a single bulk insert
         String masterId = masterRec.getId();
-        segments.forEach(s -> s.setMasterId(masterId));
+        segmentIndexes.forEach(index -> index.setMasterId(masterId));
 
-        if (!segments.isEmpty()) {
-            segmentRepo.saveAll(segments);
+        if (!segmentIndexes.isEmpty()) {
+            segmentIndexRepo.insert(segmentIndexes);
         }
 
         return masterId;
     }
 
-    private String buildBaseUrl() {
-        if (cdnBaseUrl != null && !cdnBaseUrl.isBlank()) {
-            return cdnBaseUrl.replaceAll("/+$", "");
-        }
-        return "https://" + accountId + ".r2.cloudflarestorage.com";
-    }
-
     private static String cache(String key) {
         return key.endsWith(".m3u8")
                 ? "public, max-age=15, s-maxage=15, must-revalidate"
@@ -659,12 +846,7 @@ public class R2StorageService {
 
     public String getPlaylistContent(String key) throws Exception {
         try {
-            GetObjectRequest getRequest = GetObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .build();
-
-            byte[] contentBytes = s3.getObject(getRequest).readAllBytes();
+            byte[] contentBytes = store.get(key);
             return new String(contentBytes, StandardCharsets.UTF_8);
 
         } catch (Exception e) {
@@ -674,18 +856,7 @@ public class R2StorageService {
 
     public String generatePresignedUrl(String key, int expirationSeconds) throws Exception {
         try {
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .build();
-
-            GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                    .signatureDuration(Duration.ofSeconds(expirationSeconds))
-                    .getObjectRequest(getObjectRequest)
-                    .build();
-
-            PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(presignRequest);
-            return presignedRequest.url().toString();
+            return store.presignGet(key, Duration.ofSeconds(expirationSeconds));
 
         } catch (Exception e) {
             throw new Exception("Failed to generate presigned URL: " + key, e);
@@ -697,12 +868,7 @@ public class R2StorageService {
      */
     public byte[] getKeyData(String key) throws Exception {
         try {
-            GetObjectRequest getRequest = GetObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .build();
-
-            byte[] keyData = s3.getObject(getRequest).readAllBytes();
+            byte[] keyData = store.get(key);
             log.debug("Retrieved encryption key data: {} bytes from key: {}", keyData.length, key);
             return keyData;
 
@@ -729,18 +895,69 @@ public class R2StorageService {
 
     // Helper classes
     private static class UploadTransaction {
-        private final Set<String> uploadedKeys = ConcurrentHashMap.newKeySet();
+        private final String prefix;
+        private final Map<String, StoredObject> existingObjects;
+        private final Map<String, UploadManifest.Entry> entries = new ConcurrentHashMap<>();
+        private final AtomicInteger skippedCount = new AtomicInteger(0);
+        private UploadManifest manifest;
+
+        UploadTransaction(UploadManifest manifest, Map<String, StoredObject> existingObjects) {
+            this.manifest = manifest;
+            this.prefix = manifest.getKeyPrefix();
+            this.existingObjects = existingObjects;
+            if (manifest.getEntries() != null) {
+                for (UploadManifest.Entry entry : manifest.getEntries()) {
+                    entries.put(entry.getKey(), entry);
+                }
+            }
+        }
 
-        UploadTransaction(String keyPrefix) {
-            // keyPrefix not used in this implementation
+        /**
+         * An object can be skipped when the store already holds it and either its ETag is the MD5 of our bytes
+         * (single-part PUT) or the manifest recorded the same checksum and the stored size matches
+         * (backends without ETags, e.g. the local store, only take the second path).
+         */
+        boolean isAlreadyStored(String key, String md5Hex, long size) {
+            StoredObject stored = existingObjects.get(key);
+            if (stored == null) {
+                return false;
+            }
+            if (md5Hex.equalsIgnoreCase(stored.getETag())) {
+                return true;
+            }
+            UploadManifest.Entry entry = entries.get(key);
+            return entry != null && md5Hex.equalsIgnoreCase(entry.getMd5()) && stored.getSize() == size;
         }
 
-        void addUploadedKey(String key) {
-            uploadedKeys.add(key);
+        void recordUploaded(String key, String md5Hex, long size) {
+            entries.put(key, new UploadManifest.Entry(key, md5Hex, size));
+        }
+
+        void recordSkipped(String key, String md5Hex, long size) {
+            entries.put(key, new UploadManifest.Entry(key, md5Hex, size));
+            skippedCount.incrementAndGet();
+        }
+
+        int getSkippedCount() {
+            return skippedCount.get();
+        }
+
+        int getEntryCount() {
+            return entries.size();
+        }
+
+        void clearEntries() {
+            entries.clear();
+        }
+
+        List<UploadManifest.Entry> snapshotEntries() {
+            return new ArrayList<>(entries.values());
         }
 
         Set<String> getUploadedKeys() {
-            return new HashSet<>(uploadedKeys);
+            Set<String> keys = new HashSet<>(entries.keySet());
+            keys.addAll(existingObjects.keySet());
+            return keys;
         }
 
     }
@@ -748,10 +965,12 @@ public class R2StorageService {
     private static class VariantUploadResult {
         final VariantInfo variantInfo;
         final List<VariantSegment> segments;
+        final VariantSegmentIndex segmentIndex;
 
-        VariantUploadResult(VariantInfo variantInfo, List<VariantSegment> segments) {
+        VariantUploadResult(VariantInfo variantInfo, List<VariantSegment> segments, VariantSegmentIndex segmentIndex) {
             this.variantInfo = variantInfo;
             this.segments = segments;
+            this.segmentIndex = segmentIndex;
         }
     }
 
@@ -774,24 +993,16 @@ public class R2StorageService {
      */
     public List<String> listAllFiles() {
         try {
-            log.info("Listing all files in R2 bucket: {}", bucket);
-            
-            ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
-                    .bucket(bucket)
-                    .build();
-            
-            ListObjectsV2Response listResponse = s3.listObjectsV2(listRequest);
-            List<S3Object> objects = listResponse.contents();
-            
-            List<String> fileNames = objects.stream()
-                    .map(S3Object::key)
-                    .toList();
-            
-            log.info("Found {} files in bucket {}", fileNames.size(), bucket);
+            log.info("Listing all files in object store: {}", store.publicBaseUrl());
+
+            List<String> fileNames = new ArrayList<>();
+            deletionService.forEachPage(null, page -> page.forEach(object -> fileNames.add(object.getKey())));
+
+            log.info("Found {} files in object store", fileNames.size());
             return fileNames;
-            
+
         } catch (Exception e) {
-            log.error("Failed to list files in R2 bucket {}: {}", bucket, e.getMessage(), e);
+            log.error("Failed to list files in object store: {}", e.getMessage(), e);
             return new ArrayList<>();
         }
     }
@@ -800,111 +1011,28 @@ public class R2StorageService {
      * Delete ALL files from R2 storage (DANGEROUS - deletes entire bucket content)
      */
     public boolean deleteAllFiles() {
-        try {
-            log.warn("🚨 DELETING ALL FILES FROM R2 BUCKET: {}", bucket);
-            
-            // List all objects in the bucket
-            ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
-                    .bucket(bucket)
-                    .build();
-            
-            ListObjectsV2Response listResponse = s3.listObjectsV2(listRequest);
-            List<S3Object> objects = listResponse.contents();
-            
-            if (objects.isEmpty()) {
-                log.info("No files found in bucket: {}", bucket);
-                return true;
-            }
-            
-            log.warn("Found {} files to delete from entire bucket", objects.size());
-            
-            // Delete objects in batches (max 1000 per batch)
-            int batchSize = 1000;
-            int totalDeleted = 0;
-            
-            for (int i = 0; i < objects.size(); i += batchSize) {
-                List<S3Object> batch = objects.subList(i, Math.min(i + batchSize, objects.size()));
-                
-                List<ObjectIdentifier> objectsToDelete = batch.stream()
-                        .map(obj -> ObjectIdentifier.builder().key(obj.key()).build())
-                        .toList();
-                
-                Delete delete = Delete.builder()
-                        .objects(objectsToDelete)
-                        .build();
-                
-                DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
-                        .bucket(bucket)
-                        .delete(delete)
-                        .build();
-                
-                DeleteObjectsResponse deleteResponse = s3.deleteObjects(deleteRequest);
-                totalDeleted += deleteResponse.deleted().size();
-                
-                log.info("Deleted batch of {} files (total so far: {})", batch.size(), totalDeleted);
-            }
-            
-            log.warn("✅ Successfully deleted ALL {} files from R2 bucket: {}", totalDeleted, bucket);
-            return true;
-            
-        } catch (Exception e) {
-            log.error("Failed to delete all files from R2 bucket {}: {}", bucket, e.getMessage(), e);
-            return false;
+        log.warn("🚨 DELETING ALL FILES FROM OBJECT STORE: {}", store.publicBaseUrl());
+
+        StorageDeletionService.DeletionReport report = deletionService.deleteByPrefix("", null);
+        if (report.isSuccess()) {
+            log.warn("✅ Successfully deleted ALL {} files from object store", report.getDeleted());
+        } else {
+            log.error("Failed to delete all files from object store: {} deleted, {} failed",
+                    report.getDeleted(), report.getFailed());
         }
+        return report.isSuccess();
     }
 
     /**
-     * Delete all files with a specific prefix from R2 storage
+     * Delete all files with a specific prefix from R2 storage (every listing page, not just the first 1000 keys)
      */
     public boolean deleteFilesByPrefix(String prefix) {
-        try {
-            log.info("Starting deletion of files with prefix: {}", prefix);
-            
-            // List all objects with the prefix
-            ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
-                    .bucket(bucket)
-                    .prefix(prefix)
-                    .build();
-            
-            ListObjectsV2Response listResponse = s3.listObjectsV2(listRequest);
-            List<S3Object> objects = listResponse.contents();
-            
-            if (objects.isEmpty()) {
-                log.info("No files found with prefix: {}", prefix);
-                return true;
-            }
-            
-            log.info("Found {} files to delete with prefix: {}", objects.size(), prefix);
-            
-            // Delete objects in batches
-            List<ObjectIdentifier> objectsToDelete = objects.stream()
-                    .map(obj -> ObjectIdentifier.builder().key(obj.key()).build())
-                    .toList();
-            
-            Delete delete = Delete.builder()
-                    .objects(objectsToDelete)
-                    .build();
-            
-            DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
-                    .bucket(bucket)
-                    .delete(delete)
-                    .build();
-            
-            DeleteObjectsResponse deleteResponse = s3.deleteObjects(deleteRequest);
-            
-            log.info("Successfully deleted {} files with prefix: {}", 
-                    deleteResponse.deleted().size(), prefix);
-            
-            if (!deleteResponse.errors().isEmpty()) {
-                log.warn("Some files failed to delete: {}", deleteResponse.errors());
-                return false;
-            }
-            
-            return true;
-            
-        } catch (Exception e) {
-            log.error("Failed to delete files with prefix: {} - Error: {}", prefix, e.getMessage(), e);
+        if (prefix == null || prefix.isBlank()) {
+            // An empty prefix would match the entire bucket; that has to go through deleteAllFiles()
+            log.error("Refusing to delete files with an empty prefix");
             return false;
         }
+        log.info("Starting deletion of files with prefix: {}", prefix);
+        return deletionService.deleteByPrefix(prefix, null).isSuccess();
     }
-}
\ No newline at end of file
+}
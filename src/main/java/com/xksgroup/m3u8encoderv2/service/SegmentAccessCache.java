@@ -0,0 +1,125 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Short-lived caches for the segment hot path: verified JWTs (keyed by a digest of the token),
+ * verified prefix signatures, and presigned origin URLs reused for most of their validity window.
+ * Hit/miss counters are published as proxy.cache.hits / proxy.cache.misses tagged by cache name.
+ */
+@Slf4j
+@Service
+public class SegmentAccessCache {
+
+    private final TokenService tokenService;
+    private final R2StorageService storageService;
+
+    private final BoundedCache<String, TokenService.TokenValidationResult> verifiedTokens;
+    private final BoundedCache<String, Boolean> verifiedSignatures;
+    private final BoundedCache<String, String> presignedUrls;
+    private final int presignTtlSeconds;
+
+    private final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    });
+
+    public SegmentAccessCache(TokenService tokenService,
+                              R2StorageService storageService,
+                              MeterRegistry meterRegistry,
+                              @Value("${proxy.cache.tokens.maxEntries:100000}") long maxTokens,
+                              @Value("${proxy.cache.tokens.ttlSeconds:60}") long tokenTtlSeconds,
+                              @Value("${proxy.cache.presigned.maxEntries:50000}") long maxPresigned,
+                              @Value("${proxy.segment.presign.ttlSeconds:300}") int presignTtlSeconds,
+                              @Value("${proxy.segment.presign.reuseFraction:0.8}") double reuseFraction) {
+        this.tokenService = tokenService;
+        this.storageService = storageService;
+        this.presignTtlSeconds = presignTtlSeconds;
+        this.verifiedTokens = new BoundedCache<>(maxTokens, tokenTtlSeconds * 1000, result -> 1);
+        this.verifiedSignatures = new BoundedCache<>(maxTokens, tokenTtlSeconds * 1000, valid -> 1);
+        // Stop handing out a URL while the player still has enough of its window left to follow the redirect
+        this.presignedUrls = new BoundedCache<>(maxPresigned, (long) (presignTtlSeconds * 1000L * reuseFraction), url -> 1);
+
+        register(meterRegistry, "tokens", verifiedTokens);
+        register(meterRegistry, "signatures", verifiedSignatures);
+        register(meterRegistry, "presigned", presignedUrls);
+    }
+
+    /**
+     * JWT validation, served from cache for repeat tokens until the token's own expiry
+     */
+    public TokenService.TokenValidationResult validateToken(String token) throws Exception {
+        String digest = digest(token);
+        TokenService.TokenValidationResult result = verifiedTokens.get(digest, () -> tokenService.validateToken(token));
+        Long expiresAt = result.getExpiresAtMillis();
+        if (result.isValid() && expiresAt != null && expiresAt < System.currentTimeMillis()) {
+            verifiedTokens.invalidate(digest);
+            return new TokenService.TokenValidationResult(false, null, null, "Token expired");
+        }
+        return result;
+    }
+
+    /**
+     * Prefix signature validation; only successful checks are cached, expiry is always re-checked
+     */
+    public boolean validatePrefixSignature(String resourceKey, long expiresEpochSeconds, String signature) throws Exception {
+        if (System.currentTimeMillis() / 1000 > expiresEpochSeconds) {
+            return false;
+        }
+        int lastSlash = resourceKey != null ? resourceKey.lastIndexOf('/') : -1;
+        // Same rejections as TokenService, before the lookup: the cache key only covers the parent prefix, so
+        // "prefix/.." would otherwise be accepted on the strength of a signature cached for "prefix/"
+        if (lastSlash < 0 || resourceKey.contains("..")) {
+            return false;
+        }
+        String cacheKey = resourceKey.substring(0, lastSlash + 1) + "|" + expiresEpochSeconds + "|" + signature;
+        Boolean valid = verifiedSignatures.get(cacheKey,
+                () -> tokenService.validatePrefixSignature(resourceKey, expiresEpochSeconds, signature) ? Boolean.TRUE : null);
+        return valid != null;
+    }
+
+    /**
+     * Presigned origin URL for a segment, shared across viewers while it is comfortably valid
+     */
+    public String presignedUrl(String resourceKey) throws Exception {
+        return presignedUrls.get(resourceKey, () -> storageService.generatePresignedUrl(resourceKey, presignTtlSeconds));
+    }
+
+    public void invalidateAll() {
+        verifiedTokens.invalidateAll();
+        verifiedSignatures.invalidateAll();
+        presignedUrls.invalidateAll();
+    }
+
+    private String digest(String token) {
+        MessageDigest md = sha256.get();
+        byte[] hash = md.digest(token.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 16));
+    }
+
+    private static void register(MeterRegistry registry, String name, BoundedCache<?, ?> cache) {
+        FunctionCounter.builder("proxy.cache.hits", cache, BoundedCache::hitCount)
+                .tag("cache", name).register(registry);
+        FunctionCounter.builder("proxy.cache.misses", cache, BoundedCache::missCount)
+                .tag("cache", name).register(registry);
+        FunctionCounter.builder("proxy.cache.evictions", cache, BoundedCache::evictionCount)
+                .tag("cache", name).register(registry);
+        Gauge.builder("proxy.cache.size", cache, BoundedCache::size)
+                .tag("cache", name).register(registry);
+    }
+}
@@ -0,0 +1,138 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.service.helper.BoundedCache;
+import com.xksgroup.m3u8encoderv2.service.storage.ObjectStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Node-local disk cache of hot segments for the streaming delivery mode. Files are LRU-evicted by total
+ * bytes; a miss downloads the object once (concurrent requests for the same key wait for that download)
+ * and publishes it with an atomic rename so readers never see a partial file.
+ */
+@Slf4j
+@Service
+public class SegmentDiskCache {
+
+    /**
+     * A cached segment on local disk
+     */
+    public record CachedSegment(Path path, long size) { }
+
+    /**
+     * An open cached segment: the channel plus the file it reads, for sendfile
+     */
+    public record OpenSegment(Path path, FileChannel channel) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final ObjectStore store;
+    private final Path root;
+    private final BoundedCache<String, CachedSegment> segments;
+
+    public SegmentDiskCache(ObjectStore store,
+                            MeterRegistry meterRegistry,
+                            @Value("${proxy.segment.cache.dir:${java.io.tmpdir}/m3u8-segment-cache}") String directory,
+                            @Value("${proxy.segment.cache.maxBytes:10737418240}") long maxBytes) throws IOException {
+        this.store = store;
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+        this.segments = new BoundedCache<>(maxBytes, 0, CachedSegment::size, SegmentDiskCache::deleteQuietly);
+
+        // The index lives in memory, so files left by a previous run are unaccounted for
+        clear(root);
+        Files.createDirectories(root);
+
+        FunctionCounter.builder("proxy.cache.hits", segments, BoundedCache::hitCount)
+                .tag("cache", "segments-disk").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.misses", segments, BoundedCache::missCount)
+                .tag("cache", "segments-disk").register(meterRegistry);
+        FunctionCounter.builder("proxy.cache.evictions", segments, BoundedCache::evictionCount)
+                .tag("cache", "segments-disk").register(meterRegistry);
+        Gauge.builder("proxy.cache.bytes", segments, BoundedCache::weight)
+                .tag("cache", "segments-disk").register(meterRegistry);
+        log.info("Segment disk cache at {} (max {} MB)", root, maxBytes / (1024 * 1024));
+    }
+
+    /**
+     * Open a cached segment, filling the cache from object storage on a miss. The caller closes the channel;
+     * an eviction while the channel is open does not affect it.
+     */
+    public OpenSegment open(String key) throws Exception {
+        CachedSegment segment = segments.get(key, () -> fill(key));
+        try {
+            return new OpenSegment(segment.path(), FileChannel.open(segment.path(), READ));
+        } catch (NoSuchFileException e) {
+            // Evicted between lookup and open
+            segments.invalidate(key);
+            Path path = segments.get(key, () -> fill(key)).path();
+            return new OpenSegment(path, FileChannel.open(path, READ));
+        }
+    }
+
+    /**
+     * Drop every cached segment under an object key prefix (a deleted job)
+     */
+    public void invalidatePrefix(String prefix) {
+        segments.invalidateIf(key -> key.startsWith(prefix));
+    }
+
+    public void invalidateAll() {
+        segments.invalidateAll();
+    }
+
+    private CachedSegment fill(String key) throws Exception {
+        Path temp = root.resolve(".tmp-" + UUID.randomUUID());
+        // Every fill gets its own file: the removal listener of an entry being replaced (invalidate, then a
+        // refill of the same key) deletes that entry's file, never the one just written
+        Path target = root.resolve(UUID.randomUUID().toString());
+        try {
+            store.getToFile(key, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        long size = Files.size(target);
+        log.debug("Cached segment {} ({} bytes)", key, size);
+        return new CachedSegment(target, size);
+    }
+
+    private static void deleteQuietly(CachedSegment segment) {
+        try {
+            Files.deleteIfExists(segment.path());
+        } catch (IOException e) {
+            log.warn("Failed to delete cached segment {}: {}", segment.path(), e.getMessage());
+        }
+    }
+
+    private static void clear(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                    .filter(path -> !path.equals(directory))
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+}
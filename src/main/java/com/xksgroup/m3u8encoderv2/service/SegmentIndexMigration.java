@@ -0,0 +1,133 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
+import com.xksgroup.m3u8encoderv2.model.VariantInfo;
+import com.xksgroup.m3u8encoderv2.model.VariantSegment;
+import com.xksgroup.m3u8encoderv2.model.VariantSegmentIndex;
+import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
+import com.xksgroup.m3u8encoderv2.repo.VariantSegmentIndexRepository;
+import com.xksgroup.m3u8encoderv2.repo.VariantSegmentRepository;
+import com.xksgroup.m3u8encoderv2.service.helper.R2StorageHelper;
+import com.xksgroup.m3u8encoderv2.service.helper.SegmentIndexHelper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Converts legacy per-segment VariantSegment documents into VariantSegmentIndex documents, one master at a time.
+ * Runs in the background at startup and is idempotent: a master that already has an index only gets its legacy
+ * documents removed.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SegmentIndexMigration implements ApplicationRunner {
+
+    private final MongoTemplate mongoTemplate;
+    private final VariantSegmentRepository legacyRepo;
+    private final VariantSegmentIndexRepository indexRepo;
+    private final MasterPlaylistRecordRepository masterRepo;
+    private final R2StorageService storage;
+
+    @Value("${segments.index.migrateOnStartup:true}")
+    private boolean migrateOnStartup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!migrateOnStartup) {
+            return;
+        }
+        Thread thread = new Thread(this::migrateAll, "segment-index-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void migrateAll() {
+        try {
+            List<String> masterIds = mongoTemplate.findDistinct(new Query(), "masterId", VariantSegment.class, String.class);
+            if (masterIds.isEmpty()) {
+                return;
+            }
+            log.info("Migrating legacy segment documents of {} masters to the compact segment index", masterIds.size());
+
+            int migrated = 0;
+            for (String masterId : masterIds) {
+                try {
+                    if (migrateMaster(masterId)) {
+                        migrated++;
+                    }
+                } catch (Exception e) {
+                    log.error("Segment index migration failed for master {}: {}", masterId, e.getMessage(), e);
+                }
+            }
+            log.info("Segment index migration finished: {}/{} masters migrated", migrated, masterIds.size());
+
+        } catch (Exception e) {
+            log.error("Segment index migration failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean migrateMaster(String masterId) {
+        if (masterId == null) {
+            return false;
+        }
+        Optional<MasterPlaylistRecord> master = masterRepo.findById(masterId);
+        if (master.isEmpty() || indexRepo.existsByMasterId(masterId)) {
+            // Orphaned or already migrated: the legacy documents carry nothing we still need
+            legacyRepo.deleteByMasterId(masterId);
+            return false;
+        }
+
+        Map<String, List<VariantSegment>> byVariant = legacyRepo.findByMasterId(masterId).stream()
+                .collect(Collectors.groupingBy(VariantSegment::getVariantLabel, TreeMap::new, Collectors.toList()));
+
+        List<VariantSegmentIndex> indexes = new ArrayList<>();
+        for (Map.Entry<String, List<VariantSegment>> entry : byVariant.entrySet()) {
+            List<VariantSegment> segments = entry.getValue().stream()
+                    .sorted(Comparator.comparingInt(VariantSegment::getPosition))
+                    .toList();
+
+            // Legacy documents never had durations; recover them from the stored variant playlist
+            Map<String, Double> durationsByFile = loadDurations(master.get(), entry.getKey());
+            List<String> keys = new ArrayList<>(segments.size());
+            double[] durations = new double[segments.size()];
+            for (int i = 0; i < segments.size(); i++) {
+                String key = segments.get(i).getKey();
+                keys.add(key);
+                double duration = segments.get(i).getDuration();
+                durations[i] = duration > 0 ? duration
+                        : durationsByFile.getOrDefault(key.substring(key.lastIndexOf('/') + 1), 0.0);
+            }
+            indexes.add(SegmentIndexHelper.build(masterId, entry.getKey(), keys, durations, null));
+        }
+
+        indexRepo.insert(indexes);
+        long removed = legacyRepo.deleteByMasterId(masterId);
+        log.debug("Migrated master {}: {} variants, {} legacy documents removed", masterId, indexes.size(), removed);
+        return true;
+    }
+
+    private Map<String, Double> loadDurations(MasterPlaylistRecord master, String variantLabel) {
+        if (master.getVariants() == null) {
+            return Map.of();
+        }
+        for (VariantInfo variant : master.getVariants()) {
+            if (variantLabel.equals(variant.getLabel()) && variant.getPlaylistKey() != null) {
+                try {
+                    return R2StorageHelper.parseSegmentDurations(storage.getPlaylistContent(variant.getPlaylistKey()));
+                } catch (Exception e) {
+                    log.warn("Could not read playlist {} for duration recovery: {}", variant.getPlaylistKey(), e.getMessage());
+                }
+            }
+        }
+        return Map.of();
+    }
+}
@@ -0,0 +1,202 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.service.storage.ObjectStore;
+import com.xksgroup.m3u8encoderv2.service.storage.StoredObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Deletion engine for object storage: paginated listings are streamed into 1,000-key DeleteObjects
+ * batches that run in parallel with a bounded number of batches in flight.
+ */
+@Slf4j
+@Service
+public class StorageDeletionService {
+
+    private static final int MAX_KEYS_PER_BATCH = ObjectStore.MAX_BATCH_SIZE; // S3 DeleteObjects limit
+
+    private final ObjectStore store;
+
+    private final int concurrency;
+    private final ExecutorService executor;
+
+    public StorageDeletionService(ObjectStore store,
+                                  @Value("${storage.delete.concurrency:4}") int concurrency) {
+        this.store = store;
+        this.concurrency = Math.max(1, concurrency);
+        this.executor = Executors.newFixedThreadPool(this.concurrency);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Stream every page of the store listing under a prefix
+     */
+    public void forEachPage(String prefix, Consumer<List<StoredObject>> pageConsumer) throws Exception {
+        store.listPages(prefix, MAX_KEYS_PER_BATCH, pageConsumer);
+    }
+
+    /**
+     * Delete every object under a prefix ("" deletes the whole bucket)
+     */
+    public DeletionReport deleteByPrefix(String prefix, ProgressListener listener) {
+        BatchDeleter deleter = openBatchDeleter(prefix == null || prefix.isEmpty() ? "<bucket>" : prefix, listener);
+        try {
+            forEachPage(prefix, page -> page.forEach(object -> deleter.add(object.getKey())));
+        } catch (Exception e) {
+            log.error("Listing failed while deleting prefix {}: {}", prefix, e.getMessage(), e);
+            deleter.markListingFailed();
+        }
+        return deleter.finish();
+    }
+
+    /**
+     * Delete an explicit set of keys
+     */
+    public DeletionReport deleteKeys(Collection<String> keys, ProgressListener listener) {
+        BatchDeleter deleter = openBatchDeleter("explicit keys", listener);
+        keys.forEach(deleter::add);
+        return deleter.finish();
+    }
+
+    public BatchDeleter openBatchDeleter(String label, ProgressListener listener) {
+        return new BatchDeleter(label, listener);
+    }
+
+    /**
+     * Progress callback, invoked after every completed batch
+     */
+    public interface ProgressListener {
+        void onProgress(String label, long submitted, long deleted, long failed);
+    }
+
+    /**
+     * Accumulates keys into 1,000-key batches and deletes them in the background. The number of batches
+     * waiting or running is bounded, so producers (listings) are slowed down instead of buffering keys.
+     */
+    public class BatchDeleter {
+        private final String label;
+        private final ProgressListener listener;
+        private final Semaphore inFlight = new Semaphore(concurrency * 2);
+        private final List<Future<?>> futures = new ArrayList<>();
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final long startedAt = System.currentTimeMillis();
+        private List<String> current = new ArrayList<>(MAX_KEYS_PER_BATCH);
+        private boolean listingFailed;
+
+        private BatchDeleter(String label, ProgressListener listener) {
+            this.label = label;
+            this.listener = listener;
+        }
+
+        public void add(String key) {
+            current.add(key);
+            if (current.size() == MAX_KEYS_PER_BATCH) {
+                flush();
+            }
+        }
+
+        void markListingFailed() {
+            listingFailed = true;
+        }
+
+        private void flush() {
+            if (current.isEmpty()) {
+                return;
+            }
+            List<String> batch = current;
+            current = new ArrayList<>(MAX_KEYS_PER_BATCH);
+            submitted.addAndGet(batch.size());
+
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAndGet(batch.size());
+                return;
+            }
+
+            futures.add(executor.submit(() -> {
+                try {
+                    int batchFailures = store.deleteBatch(batch);
+                    deleted.addAndGet(batch.size() - batchFailures);
+                    failed.addAndGet(batchFailures);
+                    log.info("Deletion progress for {}: {} deleted, {} failed, {} submitted",
+                            label, deleted.get(), failed.get(), submitted.get());
+                    if (listener != null) {
+                        listener.onProgress(label, submitted.get(), deleted.get(), failed.get());
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        }
+
+        /**
+         * Flush the last partial batch and wait for all batches to complete
+         */
+        public DeletionReport finish() {
+            flush();
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    log.error("Deletion batch failed for {}: {}", label, e.getMessage(), e);
+                }
+            }
+
+            DeletionReport report = new DeletionReport(label, submitted.get(), deleted.get(),
+                    submitted.get() - deleted.get(), listingFailed,
+                    System.currentTimeMillis() - startedAt);
+            log.info("Deletion finished for {}: {} deleted, {} failed in {}ms{}", label, report.getDeleted(),
+                    report.getFailed(), report.getElapsedMs(), listingFailed ? " (listing incomplete)" : "");
+            return report;
+        }
+    }
+
+    /**
+     * Outcome of a deletion run
+     */
+    public static class DeletionReport {
+        private final String label;
+        private final long submitted;
+        private final long deleted;
+        private final long failed;
+        private final boolean listingFailed;
+        private final long elapsedMs;
+
+        public DeletionReport(String label, long submitted, long deleted, long failed, boolean listingFailed, long elapsedMs) {
+            this.label = label;
+            this.submitted = submitted;
+            this.deleted = deleted;
+            this.failed = failed;
+            this.listingFailed = listingFailed;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public boolean isSuccess() { return failed == 0 && !listingFailed; }
+        public String getLabel() { return label; }
+        public long getSubmitted() { return submitted; }
+        public long getDeleted() { return deleted; }
+        public long getFailed() { return failed; }
+        public boolean isListingFailed() { return listingFailed; }
+        public long getElapsedMs() { return elapsedMs; }
+    }
+}
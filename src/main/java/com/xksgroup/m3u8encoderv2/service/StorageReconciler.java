@@ -0,0 +1,194 @@
+package com.xksgroup.m3u8encoderv2.service;
+
+import com.xksgroup.m3u8encoderv2.model.MasterPlaylistRecord;
+import com.xksgroup.m3u8encoderv2.model.ResourceType;
+import com.xksgroup.m3u8encoderv2.model.UploadManifest;
+import com.xksgroup.m3u8encoderv2.repo.MasterPlaylistRecordRepository;
+import com.xksgroup.m3u8encoderv2.repo.UploadManifestRepository;
+import com.xksgroup.m3u8encoderv2.service.helper.BloomFilter;
+import com.xksgroup.m3u8encoderv2.service.storage.StoredObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Removes objects whose job prefix (resourceType/slug/jobId/) is no longer referenced by a MasterPlaylistRecord
+ * or by an upload that made progress within the grace period, so an abandoned manifest does not pin its objects
+ * forever. Known prefixes are held in a Bloom filter and the bucket listing is streamed page by page, so memory
+ * stays bounded whatever the size of the inventory. A false positive only keeps an orphan alive until the next
+ * run; it can never delete live content.
+ */
+@Slf4j
+@Service
+public class StorageReconciler {
+
+    private final MasterPlaylistRecordRepository masterRepo;
+    private final UploadManifestRepository manifestRepo;
+    private final StorageDeletionService deletionService;
+
+    @Value("${storage.reconcile.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.reconcile.dryRun:true}")
+    private boolean dryRun;
+
+    @Value("${storage.reconcile.graceHours:24}")
+    private long graceHours;
+
+    @Value("${storage.reconcile.falsePositiveRate:0.001}")
+    private double falsePositiveRate;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public StorageReconciler(MasterPlaylistRecordRepository masterRepo,
+                             UploadManifestRepository manifestRepo,
+                             StorageDeletionService deletionService) {
+        this.masterRepo = masterRepo;
+        this.manifestRepo = manifestRepo;
+        this.deletionService = deletionService;
+    }
+
+    @Scheduled(cron = "${storage.reconcile.cron:0 30 3 * * *}")
+    public void scheduledReconcile() {
+        if (!enabled) {
+            return;
+        }
+        reconcile(dryRun);
+    }
+
+    /**
+     * Diff the bucket inventory against the database and delete (or just report, in dry-run) orphaned objects
+     */
+    public Map<String, Object> reconcile(boolean dryRun) {
+        Map<String, Object> report = new HashMap<>();
+        if (!running.compareAndSet(false, true)) {
+            report.put("status", "ALREADY_RUNNING");
+            return report;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        try {
+            Instant cutoff = Instant.now().minus(Duration.ofHours(graceHours));
+            BloomFilter knownPrefixes = loadKnownPrefixes(cutoff);
+
+            AtomicLong scanned = new AtomicLong();
+            AtomicLong orphaned = new AtomicLong();
+            AtomicLong orphanedBytes = new AtomicLong();
+            StorageDeletionService.BatchDeleter deleter = dryRun ? null
+                    : deletionService.openBatchDeleter("reconciler", null);
+
+            deletionService.forEachPage(null, page -> {
+                for (StoredObject object : page) {
+                    scanned.incrementAndGet();
+                    if (!isOrphan(object, knownPrefixes, cutoff)) {
+                        continue;
+                    }
+                    orphaned.incrementAndGet();
+                    orphanedBytes.addAndGet(object.getSize());
+                    if (deleter != null) {
+                        deleter.add(object.getKey());
+                    } else {
+                        log.info("[dry-run] Orphaned object: {}", object.getKey());
+                    }
+                }
+            });
+
+            report.put("objectsScanned", scanned.get());
+            report.put("orphanedObjects", orphaned.get());
+            report.put("orphanedBytes", orphanedBytes.get());
+            report.put("dryRun", dryRun);
+            if (deleter != null) {
+                StorageDeletionService.DeletionReport deletion = deleter.finish();
+                report.put("deleted", deletion.getDeleted());
+                report.put("failed", deletion.getFailed());
+            }
+            report.put("status", "COMPLETED");
+            report.put("elapsedMs", System.currentTimeMillis() - startedAt);
+
+            log.info("Storage reconciliation finished: {}", report);
+            return report;
+
+        } catch (Exception e) {
+            log.error("Storage reconciliation failed: {}", e.getMessage(), e);
+            report.put("status", "FAILED");
+            report.put("error", e.getMessage());
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private BloomFilter loadKnownPrefixes(Instant cutoff) {
+        long expected = masterRepo.count() + manifestRepo.count();
+        BloomFilter filter = BloomFilter.create(expected, falsePositiveRate);
+
+        long count = 0;
+        try (Stream<MasterPlaylistRecord> masters = masterRepo.streamAllMasterKeys()) {
+            for (MasterPlaylistRecord master : (Iterable<MasterPlaylistRecord>) masters::iterator) {
+                String prefix = jobPrefixOf(master.getMasterKey());
+                if (prefix != null) {
+                    filter.put(prefix);
+                    count++;
+                }
+            }
+        }
+        try (Stream<UploadManifest> manifests = manifestRepo.streamInProgressPrefixesUpdatedAfter(cutoff)) {
+            for (UploadManifest manifest : (Iterable<UploadManifest>) manifests::iterator) {
+                String prefix = jobPrefixOf(manifest.getKeyPrefix());
+                if (prefix != null) {
+                    filter.put(prefix);
+                    count++;
+                }
+            }
+        }
+
+        log.info("Loaded {} known prefixes into Bloom filter ({} bytes)", count, filter.sizeInBytes());
+        return filter;
+    }
+
+    private boolean isOrphan(StoredObject object, BloomFilter knownPrefixes, Instant cutoff) {
+        // Anything recent may belong to an upload whose records are not written yet
+        if (object.getLastModified() != null && object.getLastModified().isAfter(cutoff)) {
+            return false;
+        }
+        String prefix = jobPrefixOf(object.getKey());
+        // Only objects laid out by this service are candidates; foreign keys are left alone
+        return prefix != null && isManagedPrefix(prefix) && !knownPrefixes.mightContain(prefix);
+    }
+
+    private static boolean isManagedPrefix(String prefix) {
+        for (ResourceType type : ResourceType.values()) {
+            if (prefix.startsWith(type.name().toLowerCase(Locale.ROOT) + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * "video/slug/job-123/v0/seg_001.ts" -> "video/slug/job-123/"
+     */
+    static String jobPrefixOf(String key) {
+        if (key == null) {
+            return null;
+        }
+        int end = -1;
+        for (int i = 0; i < 3; i++) {
+            end = key.indexOf('/', end + 1);
+            if (end < 0) {
+                return null;
+            }
+        }
+        return key.substring(0, end + 1);
+    }
+}
@@ -9,8 +9,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
 
 @Slf4j
@@ -20,13 +26,24 @@ public class TokenService {
     private final SecretKey secretKey;
     private final int tokenExpirationMinutes;
     private final int bufferMinutes;
+    private final SecretKeySpec prefixSigningKey;
+    private final long epochSeconds;
+
+    // Mac instances are not thread-safe; one per request thread avoids re-initialising per signature
+    private final ThreadLocal<Mac> prefixMac = ThreadLocal.withInitial(this::newPrefixMac);
+
+    private static final int PREFIX_SIGNATURE_BYTES = 16;
 
     public TokenService(@Value("${security.jwt.secret:my-secure-hls-secret-key-that-is-very-long-and-secure}") String secret,
                        @Value("${security.jwt.expiration-minutes:15}") int expirationMinutes,
-                       @Value("${security.jwt.buffer-minutes:30}") int bufferMinutes) {
+                       @Value("${security.jwt.buffer-minutes:30}") int bufferMinutes,
+                       @Value("${security.token.epoch-seconds:300}") long epochSeconds) {
         this.secretKey = Keys.hmacShaKeyFor(secret.getBytes());
+        // Separate key so a prefix signature can never be confused with a JWT signature
+        this.prefixSigningKey = new SecretKeySpec(("segment-prefix-v1|" + secret).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
         this.tokenExpirationMinutes = expirationMinutes;
         this.bufferMinutes = bufferMinutes;
+        this.epochSeconds = Math.max(1, epochSeconds);
         log.info("TokenService initialized with {}min token expiration, {}min buffer for dynamic tokens", 
                  expirationMinutes, bufferMinutes);
     }
@@ -64,9 +81,10 @@ public class TokenService {
 
             String resourceKey = claims.get("resourceKey", String.class);
             String clientId = claims.get("clientId", String.class);
+            Long expiresAtMillis = claims.getExpiration() != null ? claims.getExpiration().getTime() : null;
             
             log.debug("Token validated successfully for resource: {}", resourceKey);
-            return new TokenValidationResult(true, resourceKey, clientId, null);
+            return new TokenValidationResult(true, resourceKey, clientId, null, null, null, expiresAtMillis);
             
         } catch (Exception e) {
             log.warn("Token validation failed: {}", e.getMessage());
@@ -136,6 +154,74 @@ public class TokenService {
 
 
 
+    /**
+     * Current token epoch; signatures issued within one epoch are identical, so rendered playlists
+     * (and their ETags) only change when the epoch does
+     */
+    public long currentEpoch() {
+        return Instant.now().getEpochSecond() / epochSeconds;
+    }
+
+    public long getEpochSeconds() {
+        return epochSeconds;
+    }
+
+    /**
+     * Expiry (epoch seconds) for playlist-scoped signatures: video duration + buffer, or the default token lifetime,
+     * counted from the end of the current token epoch
+     */
+    public long computeExpiry(Long videoDurationSeconds) {
+        long lifetime = videoDurationSeconds != null
+                ? videoDurationSeconds + bufferMinutes * 60L
+                : tokenExpirationMinutes * 60L;
+        return (currentEpoch() + 1) * epochSeconds + lifetime;
+    }
+
+    /**
+     * Signs a resource prefix (e.g. "video/slug/job-1/v0/") until the given expiry. Computed once per playlist:
+     * every segment under the prefix carries the same exp/sig pair.
+     */
+    public String signPrefix(String prefix, long expiresEpochSeconds) {
+        byte[] mac = prefixMac.get().doFinal((prefix + "|" + expiresEpochSeconds).getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(mac, PREFIX_SIGNATURE_BYTES));
+    }
+
+    /**
+     * Validates a prefix signature for a resource: the resource's parent directory is the signed prefix.
+     * Plain HMAC comparison, no token parsing.
+     */
+    public boolean validatePrefixSignature(String resourceKey, long expiresEpochSeconds, String signature) {
+        if (resourceKey == null || signature == null || Instant.now().getEpochSecond() > expiresEpochSeconds) {
+            return false;
+        }
+        int lastSlash = resourceKey.lastIndexOf('/');
+        if (lastSlash < 0 || resourceKey.contains("..")) {
+            return false;
+        }
+        return validateScopeSignature(resourceKey.substring(0, lastSlash + 1), expiresEpochSeconds, signature);
+    }
+
+    /**
+     * Validates a signature issued by {@link #signPrefix} for an exact scope (e.g. "key/job-1")
+     */
+    public boolean validateScopeSignature(String scope, long expiresEpochSeconds, String signature) {
+        if (scope == null || signature == null || Instant.now().getEpochSecond() > expiresEpochSeconds) {
+            return false;
+        }
+        String expected = signPrefix(scope, expiresEpochSeconds);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac newPrefixMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(prefixSigningKey);
+            return mac;
+        } catch (Exception e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
     /**
      * Result of token validation
      */
@@ -146,18 +232,24 @@ public class TokenService {
         private final String error;
         private final String urlId;
         private final String clientIp;
+        private final Long expiresAtMillis;
 
         public TokenValidationResult(boolean valid, String resourceKey, String clientId, String error) {
             this(valid, resourceKey, clientId, error, null, null);
         }
 
         public TokenValidationResult(boolean valid, String resourceKey, String clientId, String error, String urlId, String clientIp) {
+            this(valid, resourceKey, clientId, error, urlId, clientIp, null);
+        }
+
+        public TokenValidationResult(boolean valid, String resourceKey, String clientId, String error, String urlId, String clientIp, Long expiresAtMillis) {
             this.valid = valid;
             this.resourceKey = resourceKey;
             this.clientId = clientId;
             this.error = error;
             this.urlId = urlId;
             this.clientIp = clientIp;
+            this.expiresAtMillis = expiresAtMillis;
         }
 
         public boolean isValid() { return valid; }
@@ -166,5 +258,6 @@ public class TokenService {
         public String getError() { return error; }
         public String getUrlId() { return urlId; }
         public String getClientIp() { return clientIp; }
+        public Long getExpiresAtMillis() { return expiresAtMillis; }
     }
 }
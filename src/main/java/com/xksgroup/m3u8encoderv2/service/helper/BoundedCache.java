@@ -0,0 +1,173 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache bounded by total weight (e.g. bytes) rather than entry count, with optional expire-after-write and
+ * single-flight loading: concurrent misses on the same key share one load. Backed by a Caffeine AsyncCache, so
+ * hits never serialize on a lock and eviction follows Caffeine's frequency-aware policy rather than strict LRU.
+ * Invalidating a key also fences the load in flight for it: its result still goes to the callers already
+ * waiting, but is not stored, so a value read before the invalidation cannot reappear after it.
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Loader that may throw; the exception is rethrown to every waiting caller
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws Exception;
+    }
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final Consumer<V> removalListener;
+
+    private final AsyncCache<K, V> cache;
+    private final Cache<K, V> view;
+
+    public BoundedCache(long maxWeight, long expireAfterWriteMillis, ToLongFunction<V> weigher) {
+        this(maxWeight, expireAfterWriteMillis, weigher, value -> { });
+    }
+
+    /**
+     * @param removalListener called for every value that leaves the cache (evicted, expired, replaced,
+     *                        invalidated or fenced), e.g. to release a backing file. It runs asynchronously,
+     *                        outside any cache lock.
+     */
+    public BoundedCache(long maxWeight, long expireAfterWriteMillis, ToLongFunction<V> weigher, Consumer<V> removalListener) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+
+        Caffeine<K, V> builder = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .recordStats()
+                .weigher((K key, V value) -> (int) Math.min(Integer.MAX_VALUE, Math.max(1, weigher.applyAsLong(value))))
+                .removalListener((K key, V value, RemovalCause cause) -> {
+                    if (value != null) {
+                        removalListener.accept(value);
+                    }
+                });
+        if (expireAfterWriteMillis > 0) {
+            builder.expireAfterWrite(Duration.ofMillis(expireAfterWriteMillis));
+        }
+        this.cache = builder.buildAsync();
+        this.view = cache.synchronous();
+    }
+
+    /**
+     * Cached value, or null when absent or still loading; never blocks
+     */
+    public V getIfPresent(K key) {
+        return view.getIfPresent(key);
+    }
+
+    /**
+     * Return the cached value or load it on the caller's thread; only one load per key runs at a time
+     */
+    public V get(K key, Loader<V> loader) throws Exception {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> future = cache.get(key, (k, executor) -> mine);
+        if (future == mine) {
+            load(mine, loader);
+        }
+        return await(future);
+    }
+
+    /**
+     * Non-blocking variant of {@link #get}: a hit completes immediately on the caller's thread, a miss runs
+     * the loader on the given executor (sharing any load already in flight). If the executor rejects the
+     * load the future fails with RejectedExecutionException.
+     */
+    public CompletableFuture<V> getAsync(K key, Loader<V> loader, Executor executor) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> future = cache.get(key, (k, ignored) -> mine);
+        if (future == mine) {
+            try {
+                executor.execute(() -> load(mine, loader));
+            } catch (RejectedExecutionException e) {
+                mine.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    public void put(K key, V value) {
+        if (weigher.applyAsLong(value) > maxWeight) {
+            removalListener.accept(value);
+            return; // would evict everything else
+        }
+        cache.put(key, CompletableFuture.completedFuture(value));
+    }
+
+    public void invalidate(K key) {
+        view.invalidate(key);
+    }
+
+    public void invalidateIf(Predicate<K> predicate) {
+        List<K> keys = cache.asMap().keySet().stream().filter(predicate).toList();
+        view.invalidateAll(keys);
+    }
+
+    public void invalidateAll() {
+        view.invalidateAll();
+    }
+
+    public long size() {
+        return view.estimatedSize();
+    }
+
+    public long weight() {
+        return view.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    public long hitCount() {
+        return view.stats().hitCount();
+    }
+
+    public long missCount() {
+        return view.stats().missCount();
+    }
+
+    public long evictionCount() {
+        return view.stats().evictionCount();
+    }
+
+    /**
+     * Complete a load; a null value or a failure is never stored, so misses and errors are retried by the next caller
+     */
+    private static <V> void load(CompletableFuture<V> future, Loader<V> loader) {
+        try {
+            future.complete(loader.load());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
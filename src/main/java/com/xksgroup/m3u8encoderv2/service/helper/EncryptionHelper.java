@@ -3,9 +3,13 @@ package com.xksgroup.m3u8encoderv2.service.helper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.HexFormat;
 
@@ -150,5 +154,13 @@ public class EncryptionHelper {
     public boolean isValidIV(byte[] iv) {
         return iv != null && iv.length == AES_IV_SIZE;
     }
-}
 
+    /**
+     * Decrypt an HLS AES-128 segment (CBC, PKCS7 padding)
+     */
+    public byte[] decryptSegment(byte[] data, byte[] key, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(data);
+    }
+}
@@ -8,17 +8,37 @@ import org.springframework.stereotype.Component;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Component
 public class FFmpegHelper {
 
+    /**
+     * One rung of the video ABR ladder
+     */
+    public record LadderRung(String variant, String quality, String resolution, String bitrate, String maxrate,
+                             String bufsize, String framerate, String profile, String level) { }
+
+    /**
+     * Video ABR ladder shared by VOD encoding and live transcoding, highest rung first
+     */
+    public static final List<LadderRung> VIDEO_LADDER = List.of(
+            new LadderRung("v0", "1080p", "1920x1080", "4000k", "4200k", "8000k", "30", "high", "4.0"),
+            new LadderRung("v1", "720p", "1280x720", "2500k", "2750k", "5000k", "30", "high", "3.1"),
+            new LadderRung("v2", "480p", "854x480", "1000k", "1100k", "2000k", "25", "main", "3.0"),
+            new LadderRung("v3", "360p", "640x360", "500k", "550k", "1000k", "25", "baseline", "3.0")
+    );
+
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    // Local files: only a wedged ffprobe gets anywhere near this
+    private static final long FILE_PROBE_TIMEOUT_SECONDS = 120;
     // Cache simple pour éviter de relancer ffprobe plusieurs fois sur le même fichier
     private final Map<String, ProbeInfo> probeCache = new ConcurrentHashMap<>();
     // Détection d’encodeur matériel faite une seule fois
@@ -78,33 +98,58 @@ public class FFmpegHelper {
             return cached;
         }
 
-        List<String> probeCommand = List.of(
+        ProbeInfo info = probe(key);
+        probeCache.put(key, info);
+        return info;
+    }
+
+    /**
+     * Probe a live stream URL (not cached: the source can change between sessions). A stalled origin read
+     * fails after readTimeoutSeconds, and ffprobe is killed if the whole probe exceeds timeoutSeconds.
+     */
+    public ProbeInfo probeUrl(String url, int readTimeoutSeconds, long timeoutSeconds) throws Exception {
+        return probe(url, readTimeoutOptions(readTimeoutSeconds), timeoutSeconds);
+    }
+
+    private ProbeInfo probe(String target) throws Exception {
+        return probe(target, List.of(), FILE_PROBE_TIMEOUT_SECONDS);
+    }
+
+    private ProbeInfo probe(String target, List<String> inputOptions, long timeoutSeconds) throws Exception {
+        List<String> probeCommand = new ArrayList<>(List.of(
                 "ffprobe", "-v", "quiet",
                 "-print_format", "json",
-                "-show_streams", "-show_format",
-                key
-        );
-
-        ProcessBuilder pb = new ProcessBuilder(probeCommand);
-        Process process = pb.start();
-
-        StringBuilder stdout = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stdout.append(line);
-            }
-        }
+                "-show_streams", "-show_format"
+        ));
+        probeCommand.addAll(inputOptions);
+        probeCommand.add(target);
 
-        int exit = process.waitFor();
-        if (exit != 0) {
-            log.warn("ffprobe exited with code {} for {}", exit, key);
+        // Output goes to a file rather than a pipe, so a hung ffprobe cannot block us on a read
+        Path output = Files.createTempFile("ffprobe-", ".json");
+        try {
+            Process process = new ProcessBuilder(probeCommand)
+                    .redirectOutput(output.toFile())
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IllegalStateException("ffprobe timed out after " + timeoutSeconds + "s for " + target);
+            }
+            int exit = process.exitValue();
+            if (exit != 0) {
+                log.warn("ffprobe exited with code {} for {}", exit, target);
+            }
+            return parseProbeOutput(Files.readString(output, StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(output);
         }
+    }
 
-        ProbeInfo info = parseProbeOutput(stdout.toString());
-        probeCache.put(key, info);
-        return info;
+    /**
+     * Input options failing a network read that stalls for longer than the timeout (microseconds for ffmpeg)
+     */
+    private static List<String> readTimeoutOptions(int readTimeoutSeconds) {
+        return List.of("-rw_timeout", String.valueOf(readTimeoutSeconds * 1_000_000L));
     }
 
     private ProbeInfo parseProbeOutput(String json) {
@@ -142,6 +187,114 @@ public class FFmpegHelper {
         return new ProbeInfo(hasVideo, hasAudio, validMedia, new VideoDimensions(width, height));
     }
 
+    /**
+     * Probe an encoded segment for the attributes advertised in the master playlist
+     * (RFC 6381 CODECS, FRAME-RATE, RESOLUTION). Returns null when ffprobe fails.
+     */
+    public RenditionInfo probeRendition(Path segmentFile) {
+        List<String> output = runCommandLines(List.of(
+                "ffprobe", "-v", "quiet",
+                "-print_format", "json",
+                "-show_streams",
+                segmentFile.toAbsolutePath().toString()
+        ));
+
+        try {
+            JsonNode streams = OBJECT_MAPPER.readTree(String.join("", output)).path("streams");
+            if (!streams.isArray() || streams.isEmpty()) {
+                return null;
+            }
+
+            List<String> codecs = new ArrayList<>();
+            String frameRate = null;
+            String resolution = null;
+            for (JsonNode stream : streams) {
+                String codecType = stream.path("codec_type").asText("");
+                if ("video".equalsIgnoreCase(codecType) && resolution == null) {
+                    String codec = videoCodecString(stream);
+                    if (codec != null) {
+                        codecs.add(codec);
+                    }
+                    frameRate = formatFrameRate(stream.path("avg_frame_rate").asText(stream.path("r_frame_rate").asText("")));
+                    int width = stream.path("width").asInt(0);
+                    int height = stream.path("height").asInt(0);
+                    if (width > 0 && height > 0) {
+                        resolution = width + "x" + height;
+                    }
+                } else if ("audio".equalsIgnoreCase(codecType)) {
+                    String codec = audioCodecString(stream);
+                    if (codec != null && !codecs.contains(codec)) {
+                        codecs.add(codec);
+                    }
+                }
+            }
+            return new RenditionInfo(codecs.isEmpty() ? null : String.join(",", codecs), frameRate, resolution);
+
+        } catch (Exception e) {
+            log.warn("Failed to probe rendition {}: {}", segmentFile, e.getMessage());
+            return null;
+        }
+    }
+
+    // avc1.PPCCLL: profile_idc, constraint flags, level_idc (hex)
+    private static String videoCodecString(JsonNode stream) {
+        String codecName = stream.path("codec_name").asText("");
+        int level = stream.path("level").asInt(-1);
+        if ("h264".equals(codecName) && level > 0) {
+            String profile = stream.path("profile").asText("").toLowerCase();
+            String profileAndConstraints = switch (profile) {
+                case "constrained baseline" -> "42e0";
+                case "baseline" -> "4200";
+                case "main" -> "4d40";
+                case "high" -> "6400";
+                case "high 10" -> "6e00";
+                default -> null;
+            };
+            return profileAndConstraints != null ? String.format("avc1.%s%02x", profileAndConstraints, level) : null;
+        }
+        if ("hevc".equals(codecName) && level > 0) {
+            String profile = stream.path("profile").asText("");
+            return (profile.equalsIgnoreCase("Main 10") ? "hvc1.2.4.L" : "hvc1.1.6.L") + level + ".B0";
+        }
+        return null;
+    }
+
+    private static String audioCodecString(JsonNode stream) {
+        String codecName = stream.path("codec_name").asText("");
+        if ("aac".equals(codecName)) {
+            String profile = stream.path("profile").asText("LC");
+            if (profile.equalsIgnoreCase("HE-AACv2")) {
+                return "mp4a.40.29";
+            }
+            return profile.equalsIgnoreCase("HE-AAC") ? "mp4a.40.5" : "mp4a.40.2";
+        }
+        if ("mp3".equals(codecName)) {
+            return "mp4a.40.34";
+        }
+        if ("ac3".equals(codecName)) {
+            return "ac-3";
+        }
+        if ("eac3".equals(codecName)) {
+            return "ec-3";
+        }
+        return null;
+    }
+
+    private static String formatFrameRate(String ratio) {
+        try {
+            String[] parts = ratio.split("/");
+            double fps = parts.length == 2
+                    ? Double.parseDouble(parts[0]) / Double.parseDouble(parts[1])
+                    : Double.parseDouble(ratio);
+            if (!Double.isFinite(fps) || fps <= 0) {
+                return null;
+            }
+            return String.format(java.util.Locale.ROOT, "%.3f", fps);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private EncoderChoice selectEncoder() {
         EncoderChoice current = cachedEncoderChoice;
         if (current != null) {
@@ -482,6 +635,188 @@ public class FFmpegHelper {
         return command;
     }
 
+    /**
+     * Input options for a captured live playlist: segments, keys and init sections are all local files
+     */
+    private void addCaptureInput(List<String> command, Path captureIndex) {
+        command.add("-allowed_extensions");
+        command.add("ALL");
+        command.add("-protocol_whitelist");
+        command.add("file,crypto");
+        command.add("-i");
+        command.add(captureIndex.toAbsolutePath().toString());
+    }
+
+    /**
+     * Stream-copy a captured live playlist into a single MP4, used as the source of a re-laddered recording
+     */
+    public List<String> buildCaptureRemuxCommand(Path captureIndex, Path outputFile) {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-y");
+        command.add("-hide_banner");
+        command.add("-loglevel");
+        command.add("info");
+        command.add("-progress");
+        command.add("pipe:2");
+        addCaptureInput(command, captureIndex);
+        command.add("-map");
+        command.add("0:v?");
+        command.add("-map");
+        command.add("0:a?");
+        command.add("-c");
+        command.add("copy");
+        // ADTS AAC from MPEG-TS segments must become raw AAC in MP4
+        command.add("-bsf:a");
+        command.add("aac_adtstoasc");
+        command.add("-movflags");
+        command.add("+faststart");
+        command.add(outputFile.toAbsolutePath().toString());
+        return command;
+    }
+
+    /**
+     * Stream-copy a captured live playlist into a VOD HLS rendition (run in the variant directory), re-segmented
+     * like the encoded rungs and encrypted when a key info file is given
+     */
+    public List<String> buildCaptureCopyCommand(Path captureIndex, Path keyInfoFile) {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-y");
+        command.add("-hide_banner");
+        command.add("-loglevel");
+        command.add("info");
+        command.add("-progress");
+        command.add("pipe:2");
+        addCaptureInput(command, captureIndex);
+        command.add("-map");
+        command.add("0:v?");
+        command.add("-map");
+        command.add("0:a?");
+        command.add("-c");
+        command.add("copy");
+
+        // Without re-encoding, segments can only be cut on the source keyframes
+        command.add("-f");
+        command.add("hls");
+        command.add("-hls_time");
+        command.add("6");
+        command.add("-hls_playlist_type");
+        command.add("vod");
+        command.add("-hls_segment_filename");
+        command.add("seg_%04d.ts");
+
+        if (keyInfoFile != null) {
+            command.add("-hls_key_info_file");
+            command.add(keyInfoFile.toAbsolutePath().toString());
+        }
+
+        command.add("index.m3u8");
+        return command;
+    }
+
+    /**
+     * Long-running live transcode of one input into a rolling multi-rendition HLS window, run in the output
+     * directory: master.m3u8 plus v0..vN/index.m3u8 like the VOD layout. Rung resolutions must already be
+     * adjusted to the source. Segments are written under a temporary name and deleted once out of the window.
+     */
+    public List<String> buildLiveLadderCommand(String inputUrl, List<LadderRung> rungs, boolean hasAudio,
+                                               int segmentSeconds, int windowSegments, int readTimeoutSeconds) {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-y");
+        command.add("-hide_banner");
+        command.add("-nostdin");
+        command.add("-loglevel");
+        command.add("warning");
+        // A stalled origin ends the process (and the next request restarts it) instead of hanging forever
+        command.addAll(readTimeoutOptions(readTimeoutSeconds));
+        command.add("-i");
+        command.add(inputUrl);
+
+        // Decode once, then split into one scaler per rung
+        StringBuilder filter = new StringBuilder("[0:v]split=").append(rungs.size());
+        for (int i = 0; i < rungs.size(); i++) {
+            filter.append("[s").append(i).append(']');
+        }
+        for (int i = 0; i < rungs.size(); i++) {
+            LadderRung rung = rungs.get(i);
+            filter.append(";[s").append(i).append("]fps=").append(rung.framerate())
+                    .append(",scale=").append(rung.resolution().replace('x', ':')).append(":flags=bicubic[o").append(i).append(']');
+        }
+        command.add("-filter_complex");
+        command.add(filter.toString());
+
+        StringBuilder streamMap = new StringBuilder();
+        for (int i = 0; i < rungs.size(); i++) {
+            LadderRung rung = rungs.get(i);
+            int gopSize = computeGop(rung.framerate(), segmentSeconds);
+            command.add("-map");
+            command.add("[o" + i + "]");
+            command.add("-c:v:" + i);
+            command.add("libx264");
+            command.add("-b:v:" + i);
+            command.add(rung.bitrate());
+            command.add("-maxrate:v:" + i);
+            command.add(rung.maxrate());
+            command.add("-bufsize:v:" + i);
+            command.add(rung.bufsize());
+            command.add("-profile:v:" + i);
+            command.add(rung.profile());
+            command.add("-level:v:" + i);
+            command.add(rung.level());
+            command.add("-g:v:" + i);
+            command.add(String.valueOf(gopSize));
+            command.add("-keyint_min:v:" + i);
+            command.add(String.valueOf(gopSize));
+            if (hasAudio) {
+                command.add("-map");
+                command.add("0:a:0");
+            }
+            streamMap.append(i > 0 ? " " : "").append("v:").append(i).append(hasAudio ? ",a:" + i : "");
+        }
+
+        // Realtime: fastest preset, no lookahead, fixed GOPs so every rung cuts on the same boundaries
+        command.add("-preset");
+        command.add("veryfast");
+        command.add("-tune");
+        command.add("zerolatency");
+        command.add("-sc_threshold");
+        command.add("0");
+        command.add("-pix_fmt");
+        command.add("yuv420p");
+
+        if (hasAudio) {
+            command.add("-c:a");
+            command.add("aac");
+            command.add("-b:a");
+            command.add("128k");
+            command.add("-ar");
+            command.add("48000");
+            command.add("-ac");
+            command.add("2");
+        }
+
+        command.add("-f");
+        command.add("hls");
+        command.add("-hls_time");
+        command.add(String.valueOf(segmentSeconds));
+        command.add("-hls_list_size");
+        command.add(String.valueOf(windowSegments));
+        command.add("-hls_delete_threshold");
+        command.add("2");
+        command.add("-hls_flags");
+        command.add("delete_segments+independent_segments+temp_file+program_date_time");
+        command.add("-master_pl_name");
+        command.add("master.m3u8");
+        command.add("-var_stream_map");
+        command.add(streamMap.toString());
+        command.add("-hls_segment_filename");
+        command.add("v%v/seg_%05d.ts");
+        command.add("v%v/index.m3u8");
+        return command;
+    }
+
     /**
      * Adjust resolution based on input dimensions
      */
@@ -567,4 +902,19 @@ public class FFmpegHelper {
             this.hwAccel = hwAccel;
         }
     }
+
+    /**
+     * Measured attributes of an encoded rendition
+     */
+    public static class RenditionInfo {
+        public final String codecs;
+        public final String frameRate;
+        public final String resolution;
+
+        public RenditionInfo(String codecs, String frameRate, String resolution) {
+            this.codecs = codecs;
+            this.frameRate = frameRate;
+            this.resolution = resolution;
+        }
+    }
 }
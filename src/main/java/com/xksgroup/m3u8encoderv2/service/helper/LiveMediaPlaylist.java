@@ -0,0 +1,127 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import java.net.URI;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed live media playlist, for the services that ingest a live stream themselves (DVR buffer, recordings)
+ * rather than rewriting it. Segment, key and map URIs are resolved to absolute origin URLs.
+ */
+public record LiveMediaPlaylist(int targetDuration, long mediaSequence, boolean endList, List<Segment> segments) {
+
+    /**
+     * One segment; keyTag and mapTag are the KEY/MAP tags in effect for it, with absolute URIs (null when none)
+     */
+    public record Segment(long sequence, String url, double duration, boolean discontinuity,
+                          Instant programDateTime, String keyTag, String mapTag) { }
+
+    public static LiveMediaPlaylist parse(String body, String playlistUrl, int defaultTargetDuration) {
+        URI base = URI.create(playlistUrl);
+        long mediaSequence = Math.max(0, LiveRewriteWindow.mediaSequence(body));
+        int targetDuration = defaultTargetDuration;
+        boolean endList = false;
+
+        List<Segment> segments = new ArrayList<>();
+        String keyTag = null;
+        String mapTag = null;
+        double duration = -1;
+        boolean discontinuity = false;
+        Instant programDateTime = null;
+        long sequence = mediaSequence;
+        for (String raw : body.split("\n")) {
+            String line = raw.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                targetDuration = (int) Math.ceil(parseNumber(line.substring("#EXT-X-TARGETDURATION:".length()), targetDuration));
+            } else if (line.startsWith("#EXTINF:")) {
+                int comma = line.indexOf(',');
+                duration = parseNumber(line.substring("#EXTINF:".length(), comma > 0 ? comma : line.length()), 0);
+            } else if (line.equals("#EXT-X-DISCONTINUITY")) {
+                discontinuity = true;
+            } else if (line.startsWith("#EXT-X-PROGRAM-DATE-TIME:")) {
+                programDateTime = parseDateTime(line.substring("#EXT-X-PROGRAM-DATE-TIME:".length()));
+            } else if (line.startsWith("#EXT-X-KEY:")) {
+                keyTag = line.contains("METHOD=NONE") ? null : absoluteUri(line, base);
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                mapTag = absoluteUri(line, base);
+            } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                endList = true;
+            } else if (!line.startsWith("#") && duration >= 0) {
+                segments.add(new Segment(sequence++, base.resolve(line).toString(), duration, discontinuity,
+                        programDateTime, keyTag, mapTag));
+                duration = -1;
+                discontinuity = false;
+                programDateTime = null;
+            }
+        }
+        return new LiveMediaPlaylist(targetDuration, mediaSequence, endList, List.copyOf(segments));
+    }
+
+    /**
+     * The URI line of the highest-bandwidth variant of a master playlist, resolved; null for a media playlist
+     */
+    public static String bestVariant(String body, String masterUrl) {
+        long bestBandwidth = -1;
+        String best = null;
+        long pendingBandwidth = -1;
+        for (String raw : body.split("\n")) {
+            String line = raw.trim();
+            if (line.startsWith("#EXT-X-STREAM-INF")) {
+                int idx = line.indexOf("BANDWIDTH=");
+                pendingBandwidth = 0;
+                if (idx >= 0) {
+                    int end = idx + "BANDWIDTH=".length();
+                    while (end < line.length() && Character.isDigit(line.charAt(end))) {
+                        end++;
+                    }
+                    pendingBandwidth = (long) parseNumber(line.substring(idx + "BANDWIDTH=".length(), end), 0);
+                }
+            } else if (pendingBandwidth >= 0 && !line.isEmpty() && !line.startsWith("#")) {
+                if (pendingBandwidth > bestBandwidth) {
+                    bestBandwidth = pendingBandwidth;
+                    best = URI.create(masterUrl).resolve(line).toString();
+                }
+                pendingBandwidth = -1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Rewrites the URI attribute of a tag to an absolute URL
+     */
+    private static String absoluteUri(String line, URI base) {
+        int start = line.indexOf("URI=\"");
+        if (start < 0) {
+            return line;
+        }
+        start += 5;
+        int end = line.indexOf('"', start);
+        if (end <= start) {
+            return line;
+        }
+        return line.substring(0, start) + base.resolve(line.substring(start, end)) + line.substring(end);
+    }
+
+    private static double parseNumber(String value, double fallback) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static Instant parseDateTime(String value) {
+        try {
+            return OffsetDateTime.parse(value.trim()).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
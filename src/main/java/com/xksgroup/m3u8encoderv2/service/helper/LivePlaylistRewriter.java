@@ -0,0 +1,191 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a live origin playlist so every URI goes through the live proxy: nested playlists to
+ * /live-url/proxy/{urlId}?u=..., segments, keys and init sections to /live-url/proxy/segment?u=...
+ * URI lines still in the window of the previous refresh keep their already encoded proxy form.
+ */
+@Slf4j
+public class LivePlaylistRewriter {
+
+    private static final String PROXY_PATH = "/m3u8-encoder/api/v2/live-url/proxy/";
+    private static final String SEGMENT_PATH = PROXY_PATH + "segment?u=";
+
+    /**
+     * @param content      rewritten playlist
+     * @param window       URI lines of this refresh, to pass as previous to the next one; null for master playlists
+     * @param segmentUrls  absolute origin URLs of the media segments, in playlist order
+     * @param windowMillis duration covered by the segments (sum of #EXTINF)
+     */
+    public record Result(String content, LiveRewriteWindow window, List<String> segmentUrls, long windowMillis) { }
+
+    /**
+     * @param previous window returned for the last refresh of the same stream, or null
+     */
+    public static Result rewrite(String content, String baseUrl, String serverUrl, String urlId,
+                                 LiveRewriteWindow previous) throws Exception {
+        if (content == null || content.trim().isEmpty()) {
+            throw new IllegalArgumentException("M3U8 content is empty or null");
+        }
+
+        List<String> newLines = new ArrayList<>();
+        String[] lines = content.split("\n");
+        URL baseURL = new URL(baseUrl);
+        // Media playlists: segment URLs and the live window they cover, for the shared segment cache
+        List<String> segmentUrls = new ArrayList<>();
+        double windowSeconds = 0;
+
+        long mediaSequence = LiveRewriteWindow.mediaSequence(content);
+        if (previous != null && (mediaSequence < 0 || !previous.continuesWith(mediaSequence))) {
+            previous = null;
+        }
+        LiveRewriteWindow current = new LiveRewriteWindow(mediaSequence);
+        int reused = 0;
+
+        for (String line : lines) {
+            if (line == null) {
+                continue;
+            }
+            // Keep empty lines as they may be significant in M3U8 format
+            if (line.trim().isEmpty()) {
+                newLines.add("");
+                continue;
+            }
+
+            if (line.startsWith("#")) {
+                if (line.startsWith("#EXTINF:")) {
+                    windowSeconds += parseExtInfDuration(line);
+                    newLines.add(line);
+                } else if (line.startsWith("#EXT-X-KEY:")
+                        || line.startsWith("#EXT-X-MAP:")) {
+                    // Keys and init sections always go through the segment endpoint
+                    newLines.add(processUriAttribute(line, baseURL, serverUrl, null));
+                } else if (line.startsWith("#EXT-X-I-FRAME-STREAM-INF:")
+                        || line.startsWith("#EXT-X-MEDIA:")
+                        || line.startsWith("#EXT-X-PART:")
+                        || line.startsWith("#EXT-X-PRELOAD-HINT:")
+                        || line.startsWith("#EXT-X-RENDITION-REPORT:")) {
+                    // Same URI handling for I-frame playlists, renditions, LL-HLS parts, preload hints and rendition
+                    // reports (#EXT-X-SERVER-CONTROL and #EXT-X-PART-INF carry no URI and pass through)
+                    newLines.add(processUriAttribute(line, baseURL, serverUrl, urlId));
+                } else {
+                    newLines.add(line);
+                }
+            } else {
+                LiveRewriteWindow.RewrittenLine rewritten = previous != null ? previous.get(line) : null;
+                if (rewritten != null) {
+                    reused++;
+                    if (rewritten.segmentUrl() != null) {
+                        segmentUrls.add(rewritten.segmentUrl());
+                    }
+                } else {
+                    int known = segmentUrls.size();
+                    String proxied = processMediaLine(line, baseURL, serverUrl, urlId, segmentUrls);
+                    rewritten = new LiveRewriteWindow.RewrittenLine(proxied, segmentUrls.size() > known ? segmentUrls.get(known) : null);
+                }
+                current.put(line, rewritten);
+                String modifiedLine = rewritten.line();
+                newLines.add(modifiedLine);
+                // Log first few media lines to debug
+                if (newLines.size() <= 15 && log.isDebugEnabled()) {
+                    log.debug("Media line rewritten: '{}' -> '{}'", line, modifiedLine);
+                }
+            }
+        }
+
+        if (mediaSequence >= 0) {
+            log.debug("Live media playlist {} (sequence {}): {} of {} URI lines reused", baseUrl, mediaSequence, reused, current.size());
+        }
+
+        String result = String.join("\n", newLines);
+        // Log sample of result for debugging
+        if (log.isDebugEnabled()) {
+            String[] resultLines = result.split("\n", 20);
+            log.debug("Processed M3U8 sample (first {} lines):", resultLines.length);
+            for (int i = 0; i < Math.min(resultLines.length, 15); i++) {
+                log.debug("  Line {}: {}", i + 1, resultLines[i]);
+            }
+        }
+        return new Result(result, mediaSequence >= 0 ? current : null, segmentUrls, (long) (windowSeconds * 1000));
+    }
+
+    /**
+     * Rewrite the URI="..." attribute of a tag. With a urlId, playlist URIs go to the playlist proxy and anything
+     * else to the segment endpoint; without one (keys, init sections) the URI always goes to the segment endpoint.
+     */
+    private static String processUriAttribute(String line, URL baseURL, String serverUrl, String urlId) throws Exception {
+        int uriIdx = line.indexOf("URI=\"");
+        if (uriIdx < 0) {
+            return line;
+        }
+        int start = uriIdx + 5;
+        int end = line.indexOf('"', start);
+        if (end <= start) {
+            return line;
+        }
+        String uriValue = line.substring(start, end);
+        URL fullUrl = new URL(baseURL, uriValue);
+        boolean isPlaylist = urlId != null
+                && (uriValue.toLowerCase().contains(".m3u8") || fullUrl.toString().toLowerCase().contains(".m3u8"));
+        String proxied = isPlaylist
+                ? serverUrl + PROXY_PATH + urlId + "?u=" + URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8)
+                : serverUrl + SEGMENT_PATH + URLEncoder.encode(fullUrl.toString(), StandardCharsets.UTF_8);
+        return line.substring(0, start) + proxied + line.substring(end);
+    }
+
+    private static String processMediaLine(String line, URL baseURL, String serverUrl, String urlId, List<String> segmentUrls) {
+        String trimmedLine = line.trim();
+
+        // First check the original line for .m3u8 (before URL resolution)
+        // This catches cases like "video=285868.m3u8?context=..." where .m3u8 is in the filename
+        boolean isPlaylist = trimmedLine.toLowerCase().contains(".m3u8");
+
+        URL segmentUrl;
+        try {
+            if (trimmedLine.startsWith("http://") || trimmedLine.startsWith("https://")) {
+                segmentUrl = new URL(trimmedLine);
+            } else {
+                // Relative URL - resolve against base URL
+                segmentUrl = new URL(baseURL, trimmedLine);
+                // Double-check the resolved URL
+                if (!isPlaylist) {
+                    String resolvedUrl = segmentUrl.toString().toLowerCase();
+                    isPlaylist = resolvedUrl.contains(".m3u8");
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to parse URL from line '{}' with base '{}': {}", trimmedLine, baseURL, e.getMessage());
+            return line; // Return original line if URL parsing fails
+        }
+
+        String result;
+        if (isPlaylist) {
+            result = serverUrl + PROXY_PATH + urlId + "?u=" +
+                    URLEncoder.encode(segmentUrl.toString(), StandardCharsets.UTF_8);
+            log.debug("Rewritten playlist: '{}' -> '{}'", trimmedLine, result);
+        } else {
+            result = serverUrl + SEGMENT_PATH +
+                    URLEncoder.encode(segmentUrl.toString(), StandardCharsets.UTF_8);
+            segmentUrls.add(segmentUrl.toString());
+        }
+        return result;
+    }
+
+    private static double parseExtInfDuration(String line) {
+        int end = line.indexOf(',');
+        String value = line.substring("#EXTINF:".length(), end > 0 ? end : line.length()).trim();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rewritten URI lines of the last refresh of one live media playlist. A live window slides by a segment or two
+ * per refresh, so the next rewrite only resolves and encodes the newly appended lines and reuses the rest.
+ * Lines that left the window are dropped because each refresh builds a new window from the lines it saw.
+ */
+public class LiveRewriteWindow {
+
+    /**
+     * Proxy form of an origin URI line; segmentUrl is the absolute origin URL for segments, null for playlists
+     */
+    public record RewrittenLine(String line, String segmentUrl) { }
+
+    private final long mediaSequence;
+    private final Map<String, RewrittenLine> lines = new HashMap<>();
+
+    public LiveRewriteWindow(long mediaSequence) {
+        this.mediaSequence = mediaSequence;
+    }
+
+    /**
+     * Value of #EXT-X-MEDIA-SEQUENCE, or -1 when the playlist has none (master playlists)
+     */
+    public static long mediaSequence(String content) {
+        int idx = content.indexOf("#EXT-X-MEDIA-SEQUENCE:");
+        if (idx < 0) {
+            return -1;
+        }
+        int start = idx + "#EXT-X-MEDIA-SEQUENCE:".length();
+        int end = start;
+        while (end < content.length() && Character.isDigit(content.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(content.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * True when a refresh with this media sequence continues the window (a lower sequence means the stream restarted)
+     */
+    public boolean continuesWith(long nextMediaSequence) {
+        return mediaSequence >= 0 && nextMediaSequence >= mediaSequence;
+    }
+
+    public long getMediaSequence() {
+        return mediaSequence;
+    }
+
+    public RewrittenLine get(String originLine) {
+        return lines.get(originLine);
+    }
+
+    public void put(String originLine, RewrittenLine rewritten) {
+        lines.put(originLine, rewritten);
+    }
+
+    public int size() {
+        return lines.size();
+    }
+}
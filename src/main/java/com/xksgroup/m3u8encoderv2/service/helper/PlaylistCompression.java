@@ -0,0 +1,79 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip content negotiation for playlist responses. Playlists are mostly repeated URL text and shrink
+ * 5-10x; tiny bodies are sent as-is since the gzip framing would outweigh the saving.
+ */
+public class PlaylistCompression {
+
+    public static final String GZIP = "gzip";
+
+    /**
+     * True when Accept-Encoding allows gzip (explicitly or through "*") with a non-zero q-value
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase();
+            if (!coding.equals(GZIP) && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (q > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ETag of the gzip representation of a resource whose identity ETag is given
+     */
+    public static String gzipETag(String etag) {
+        if (etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + "-gz\"";
+        }
+        return etag;
+    }
+
+    public static byte[] gzip(String text) {
+        return gzip(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap a response stream so text written to it is gzip-compressed on the fly; closing it finishes the stream
+     */
+    public static OutputStream gzipStream(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192);
+    }
+}
@@ -2,6 +2,12 @@ package com.xksgroup.m3u8encoderv2.service.helper;
 
 import jakarta.servlet.http.HttpServletRequest;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
 public class ProxyHelper {
     public static String buildServerUrl(HttpServletRequest request, String protocol) {
         String host = request.getHeader("Host");
@@ -13,4 +19,46 @@ public class ProxyHelper {
 
         return protocol + "://" + host;
     }
+
+    /**
+     * Evaluates If-None-Match (takes precedence) and If-Modified-Since for GET and HEAD
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag, long lastModifiedMillis) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String strong = etag.startsWith("W/") ? etag.substring(2) : etag;
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(strong)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (lastModifiedMillis < 0) {
+            return false;
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && lastModifiedMillis / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Quoted ETag value derived from everything that determines a response body
+     */
+    public static String etag(Object... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                md.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return "\"" + HexFormat.of().formatHex(Arrays.copyOf(md.digest(), 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
 }
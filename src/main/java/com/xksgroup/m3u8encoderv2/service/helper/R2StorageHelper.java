@@ -203,6 +203,116 @@ public class R2StorageHelper {
     }
 
 
+    /**
+     * Replace the advertised BANDWIDTH, AVERAGE-BANDWIDTH, RESOLUTION, CODECS and FRAME-RATE of each
+     * #EXT-X-STREAM-INF with the values measured on the produced rendition. Other attributes are kept.
+     */
+    public static String applyMeasuredAttributes(String masterContent, Map<String, VariantInfo> measuredByLabel) {
+        String[] lines = masterContent.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].trim().startsWith("#EXT-X-STREAM-INF:")) {
+                continue;
+            }
+            VariantInfo measured = null;
+            for (int j = i + 1; j < lines.length; j++) {
+                String uri = lines[j].trim();
+                if (uri.isEmpty() || uri.startsWith("#")) {
+                    continue;
+                }
+                String label = uri.contains("/") ? uri.substring(0, uri.indexOf('/')) : uri;
+                measured = measuredByLabel.get(label);
+                break;
+            }
+            if (measured != null) {
+                lines[i] = "#EXT-X-STREAM-INF:" + mergeStreamInfAttributes(lines[i].trim().substring(18), measured);
+            }
+        }
+        return String.join("\n", lines);
+    }
+
+    private static String mergeStreamInfAttributes(String attributeList, VariantInfo measured) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (String attribute : splitAttributes(attributeList)) {
+            int eq = attribute.indexOf('=');
+            if (eq > 0) {
+                attributes.put(attribute.substring(0, eq).trim(), attribute.substring(eq + 1).trim());
+            }
+        }
+
+        putIfPresent(attributes, "BANDWIDTH", measured.getBandwidth());
+        putIfPresent(attributes, "AVERAGE-BANDWIDTH", measured.getAverageBandwidth());
+        String resolution = measured.getResolution();
+        if (resolution != null && resolution.matches("\\d+x\\d+")) {
+            attributes.put("RESOLUTION", resolution);
+        } else if (attributes.containsKey("RESOLUTION") && !attributes.get("RESOLUTION").matches("\\d+x\\d+")) {
+            // e.g. RESOLUTION=audio is not valid HLS
+            attributes.remove("RESOLUTION");
+        }
+        if (measured.getCodecs() != null) {
+            attributes.put("CODECS", "\"" + measured.getCodecs() + "\"");
+        }
+        putIfPresent(attributes, "FRAME-RATE", measured.getFrameRate());
+
+        StringJoiner joiner = new StringJoiner(",");
+        attributes.forEach((name, value) -> joiner.add(name + "=" + value));
+        return joiner.toString();
+    }
+
+    private static void putIfPresent(Map<String, String> attributes, String name, String value) {
+        if (value != null && !value.isBlank()) {
+            attributes.put(name, value);
+        }
+    }
+
+    // Commas inside quoted values (CODECS="avc1...,mp4a...") do not separate attributes
+    private static List<String> splitAttributes(String attributeList) {
+        List<String> attributes = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (char c : attributeList.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (c == ',' && !quoted) {
+                attributes.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (!current.isEmpty()) {
+            attributes.add(current.toString());
+        }
+        return attributes;
+    }
+
+    /**
+     * Map each segment URI of a media playlist to its #EXTINF duration in seconds
+     */
+    public static Map<String, Double> parseSegmentDurations(String playlistContent) {
+        Map<String, Double> durations = new HashMap<>();
+        Double pending = null;
+        for (String raw : playlistContent.split("\n")) {
+            String line = raw.trim();
+            if (line.startsWith("#EXTINF:")) {
+                int commaIndex = line.indexOf(',');
+                String value = commaIndex > 0 ? line.substring(8, commaIndex) : line.substring(8);
+                try {
+                    pending = Double.parseDouble(value.trim());
+                } catch (NumberFormatException e) {
+                    pending = null;
+                }
+            } else if (!line.isEmpty() && !line.startsWith("#")) {
+                if (pending != null) {
+                    String uri = line.contains("/") ? line.substring(line.lastIndexOf('/') + 1) : line;
+                    durations.put(uri, pending);
+                }
+                pending = null;
+            }
+        }
+        return durations;
+    }
+
     public static List<Path> findSegmentFiles(Path variantDir) throws Exception {
         try (Stream<Path> ls = Files.list(variantDir)) {
             return ls.sorted()
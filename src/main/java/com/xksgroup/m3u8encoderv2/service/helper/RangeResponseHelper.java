@@ -0,0 +1,128 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes a file channel to a servlet response, honouring a single HTTP Range (206) and answering
+ * unsatisfiable ranges with 416. When the file path is known and the connector offers it, the body is
+ * handed to Tomcat's sendfile (kernel copy, no request thread held); otherwise the bytes are copied
+ * through the servlet output stream.
+ */
+public class RangeResponseHelper {
+
+    // Request attributes of Tomcat's sendfile support (org.apache.catalina.Globals, not on our compile path)
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Byte span of a file to send: status is 200, 206 or 416 (length 0)
+     */
+    public record Slice(HttpStatus status, long start, long length, String contentRange) { }
+
+    /**
+     * Resolve a Range header against a file size. Only a single range is honoured: several ranges get the full body.
+     */
+    public static Slice slice(String rangeHeader, long size) {
+        if (rangeHeader == null) {
+            return new Slice(HttpStatus.OK, 0, size, null);
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            ranges = List.of();
+        }
+        // Multipart byteranges are not worth it for segments
+        if (ranges.size() != 1) {
+            return new Slice(HttpStatus.OK, 0, size, null);
+        }
+        try {
+            long start = ranges.get(0).getRangeStart(size);
+            long end = ranges.get(0).getRangeEnd(size);
+            return new Slice(HttpStatus.PARTIAL_CONTENT, start, end - start + 1, "bytes " + start + "-" + end + "/" + size);
+        } catch (IllegalArgumentException e) {
+            return new Slice(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, 0, 0, "bytes */" + size);
+        }
+    }
+
+    public static void write(FileChannel channel, String contentType,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        write(channel, null, contentType, request, response);
+    }
+
+    /**
+     * As {@link #write(FileChannel, String, HttpServletRequest, HttpServletResponse)}, using sendfile for
+     * the file at path (the file the channel was opened on) when the connector supports it. Tomcat opens
+     * the file again once the handler returns, so a file deleted in between fails that one response.
+     */
+    public static void write(FileChannel channel, Path file, String contentType,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Slice slice = slice(request.getHeader(HttpHeaders.RANGE), channel.size());
+        response.setStatus(slice.status().value());
+        if (slice.contentRange() != null) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, slice.contentRange());
+        }
+        if (slice.status() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE) {
+            return;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(contentType);
+        response.setContentLengthLong(slice.length());
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return;
+        }
+        if (file != null && slice.length() > 0 && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, slice.start());
+            request.setAttribute(SENDFILE_END, slice.start() + slice.length());
+            return;
+        }
+        transfer(channel, slice, response.getOutputStream());
+    }
+
+    /**
+     * Copy a slice of the channel to the output. The output stream is not a socket channel, so transferTo
+     * copies through a buffer here rather than using sendfile.
+     */
+    public static void transfer(FileChannel channel, Slice slice, OutputStream output) throws IOException {
+        WritableByteChannel out = Channels.newChannel(output);
+        long position = slice.start();
+        long remaining = slice.length();
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, out);
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    public static String contentTypeOf(String key) {
+        if (key.endsWith(".m3u8")) {
+            return "application/vnd.apple.mpegurl";
+        }
+        if (key.endsWith(".ts")) {
+            return "video/mp2t";
+        }
+        if (key.endsWith(".m4s") || key.endsWith(".mp4")) {
+            return "video/mp4";
+        }
+        if (key.endsWith(".txt")) {
+            return "text/plain";
+        }
+        return "application/octet-stream";
+    }
+}
@@ -0,0 +1,112 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import com.xksgroup.m3u8encoderv2.model.VariantSegmentIndex;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the compact per-variant segment index (packed arrays + key template)
+ */
+public class SegmentIndexHelper {
+
+    // Segments shorter than this (typically the tail) only count towards the peak bitrate when nothing longer exists
+    private static final double MIN_PEAK_SEGMENT_SECONDS = 1.0;
+
+    // Last run of digits in the key: "…/seg_0001.ts" -> "…/seg_", "0001", ".ts"
+    private static final Pattern NUMBERED_KEY = Pattern.compile("^(.*?)(\\d+)([^\\d/]*)$");
+
+    public static VariantSegmentIndex build(String masterId, String variantLabel, List<String> keys,
+                                            double[] durationsSeconds, long[] sizes) {
+        int count = keys.size();
+        ByteBuffer durations = ByteBuffer.allocate(count * Integer.BYTES);
+        ByteBuffer packedSizes = ByteBuffer.allocate(count * Integer.BYTES);
+        double totalDuration = 0;
+        long totalBytes = 0;
+        long peakBitrate = 0;
+        long shortSegmentPeak = 0;
+        for (int i = 0; i < count; i++) {
+            double duration = durationsSeconds != null && i < durationsSeconds.length ? durationsSeconds[i] : 0;
+            long size = sizes != null && i < sizes.length ? sizes[i] : 0;
+            durations.putInt((int) Math.round(duration * 1000));
+            packedSizes.putInt((int) Math.min(size, 0xFFFFFFFFL)); // read back unsigned
+
+            totalDuration += duration;
+            totalBytes += size;
+            if (duration > 0 && size > 0) {
+                long bitrate = Math.round(size * 8 / duration);
+                // A sub-second tail segment inflates the peak without reflecting real throughput needs
+                if (duration >= MIN_PEAK_SEGMENT_SECONDS) {
+                    peakBitrate = Math.max(peakBitrate, bitrate);
+                } else {
+                    shortSegmentPeak = Math.max(shortSegmentPeak, bitrate);
+                }
+            }
+        }
+
+        VariantSegmentIndex.VariantSegmentIndexBuilder index = VariantSegmentIndex.builder()
+                .masterId(masterId)
+                .variantLabel(variantLabel)
+                .segmentCount(count)
+                .durationsMillis(durations.array())
+                .sizes(packedSizes.array())
+                .averageBitrate(totalDuration > 0 ? Math.round(totalBytes * 8 / totalDuration) : 0)
+                .peakBitrate(peakBitrate > 0 ? peakBitrate : shortSegmentPeak)
+                .createdAt(Instant.now());
+
+        KeyTemplate template = detectTemplate(keys);
+        if (template != null) {
+            index.keyTemplate(template.format).startNumber(template.startNumber);
+        } else {
+            index.keys(List.copyOf(keys));
+        }
+        return index.build();
+    }
+
+    /**
+     * Returns a template only if it reproduces every key exactly (same prefix/suffix, consecutive numbers, same padding)
+     */
+    static KeyTemplate detectTemplate(List<String> keys) {
+        if (keys.isEmpty()) {
+            return null;
+        }
+        Matcher first = NUMBERED_KEY.matcher(keys.get(0));
+        if (!first.matches()) {
+            return null;
+        }
+        String head = first.group(1);
+        String digits = first.group(2);
+        String tail = first.group(3);
+        if (head.contains("%") || tail.contains("%")) {
+            return null;
+        }
+
+        String format = head + (digits.length() > 1 && digits.startsWith("0") ? "%0" + digits.length() + "d" : "%d") + tail;
+        int start;
+        try {
+            start = Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (!String.format(format, start + i).equals(keys.get(i))) {
+                return null;
+            }
+        }
+        return new KeyTemplate(format, start);
+    }
+
+    static class KeyTemplate {
+        final String format;
+        final int startNumber;
+
+        KeyTemplate(String format, int startNumber) {
+            this.format = format;
+            this.startNumber = startNumber;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.xksgroup.m3u8encoderv2.service.helper;
+
+import com.xksgroup.m3u8encoderv2.model.VariantSegmentIndex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+/**
+ * A variant playlist parsed once into literal chunks and slots (title header, key tag, segment URIs),
+ * with segment resource keys already URL-encoded. Immutable and shared between requests; rendering
+ * a viewer-specific playlist is then a single pass into a pre-sized buffer.
+ */
+public final class VariantPlaylistTemplate {
+
+    private static final int SLOT_TITLE = -1;
+    private static final int SLOT_KEY = -2;
+
+    private final String[] chunks;       // chunks[i] is written before slots[i]; last chunk after the last slot
+    private final int[] slots;           // >= 0: segment index, otherwise SLOT_TITLE / SLOT_KEY
+    private final String[] segmentKeys;
+    private final String[] encodedSegmentKeys;
+    private final double[] durations;
+    private final int literalLength;
+    private final int encodedKeysLength;
+
+    private VariantPlaylistTemplate(List<String> chunks, List<Integer> slots, List<String> segmentKeys, List<Double> durations) {
+        this.chunks = chunks.toArray(new String[0]);
+        this.slots = slots.stream().mapToInt(Integer::intValue).toArray();
+        this.segmentKeys = segmentKeys.toArray(new String[0]);
+        this.encodedSegmentKeys = new String[this.segmentKeys.length];
+        this.durations = durations.stream().mapToDouble(Double::doubleValue).toArray();
+
+        int encodedLength = 0;
+        for (int i = 0; i < this.segmentKeys.length; i++) {
+            encodedSegmentKeys[i] = URLEncoder.encode(this.segmentKeys[i], StandardCharsets.UTF_8);
+            encodedLength += encodedSegmentKeys[i].length();
+        }
+        int length = 0;
+        for (String chunk : this.chunks) {
+            length += chunk.length();
+        }
+        this.literalLength = length;
+        this.encodedKeysLength = encodedLength;
+    }
+
+    /**
+     * Parse an origin variant playlist. Existing #EXT-X-KEY tags are dropped (the proxy adds its own after
+     * #EXT-X-VERSION) and every .ts line becomes a segment slot keyed keyPrefix/variant/fileName.
+     */
+    public static VariantPlaylistTemplate parse(String content, String keyPrefix, String variant) {
+        List<String> chunks = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<String> segmentKeys = new ArrayList<>();
+        List<Double> durations = new ArrayList<>();
+
+        StringBuilder literal = new StringBuilder();
+        boolean headerAdded = false;
+        boolean keyTagAdded = false;
+        double pendingDuration = 0;
+        String segmentPrefix = keyPrefix + "/" + variant + "/";
+
+        int start = 0;
+        int length = content.length();
+        while (start < length) {
+            int end = content.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            String line = content.substring(start, end);
+            start = end + 1;
+            String trimmed = line.trim();
+
+            if (!headerAdded && line.startsWith("#EXTM3U")) {
+                literal.append(line).append('\n');
+                closeChunk(chunks, slots, literal, SLOT_TITLE);
+                headerAdded = true;
+            } else if (trimmed.startsWith("#EXT-X-KEY:")) {
+                // replaced by the proxy key tag
+            } else if (!keyTagAdded && trimmed.startsWith("#EXT-X-VERSION")) {
+                literal.append(line).append('\n');
+                closeChunk(chunks, slots, literal, SLOT_KEY);
+                keyTagAdded = true;
+            } else if (trimmed.endsWith(".ts")) {
+                String fileName = trimmed.substring(trimmed.lastIndexOf('/') + 1);
+                closeChunk(chunks, slots, literal, segmentKeys.size());
+                segmentKeys.add(segmentPrefix + fileName);
+                durations.add(pendingDuration);
+                literal.append('\n');
+            } else {
+                if (trimmed.startsWith("#EXTINF:")) {
+                    pendingDuration = parseDuration(trimmed);
+                }
+                literal.append(line).append('\n');
+            }
+        }
+        chunks.add(literal.toString());
+
+        return new VariantPlaylistTemplate(chunks, slots, segmentKeys, durations);
+    }
+
+    /**
+     * Build the template from the stored segment index, without reading the playlist body from the object store.
+     * Returns null when the index cannot reproduce the playlist (a duration is unknown, or a key is not a .ts file
+     * directly under keyPrefix/variant/); the caller then parses the stored playlist instead.
+     */
+    public static VariantPlaylistTemplate fromIndex(VariantSegmentIndex index, String keyPrefix, String variant) {
+        int count = index.getSegmentCount();
+        if (count == 0) {
+            return null;
+        }
+        String segmentPrefix = keyPrefix + "/" + variant + "/";
+        StringBuilder segments = new StringBuilder(count * 32);
+        double maxDuration = 0;
+        for (int i = 0; i < count; i++) {
+            String key = index.keyAt(i);
+            double duration = index.durationAt(i);
+            if (duration <= 0 || !key.startsWith(segmentPrefix) || !key.endsWith(".ts")
+                    || key.indexOf('/', segmentPrefix.length()) >= 0) {
+                return null;
+            }
+            maxDuration = Math.max(maxDuration, duration);
+            segments.append("#EXTINF:").append(String.format(Locale.ROOT, "%.3f", duration)).append(",\n")
+                    .append(key, segmentPrefix.length(), key.length()).append('\n');
+        }
+        String content = "#EXTM3U\n#EXT-X-VERSION:3\n"
+                + "#EXT-X-TARGETDURATION:" + (int) Math.ceil(maxDuration) + "\n"
+                + "#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n"
+                + segments
+                + "#EXT-X-ENDLIST\n";
+        return parse(content, keyPrefix, variant);
+    }
+
+    /**
+     * Render the playlist for one viewer.
+     *
+     * @param title            written as "# Title: ..." / "# Variant: ..." comments after #EXTM3U
+     * @param keyTag           full #EXT-X-KEY line without newline, or null for none
+     * @param segmentUriPrefix e.g. "https://host/m3u8-encoder/api/v2/proxy/segment?"
+     * @param segmentQuery     query parameters for segment i, the encoded resource key is appended after it
+     */
+    public String render(String title, String variant, String keyTag, String segmentUriPrefix,
+                         IntFunction<String> segmentQuery) {
+        String firstQuery = segmentKeys.length > 0 ? segmentQuery.apply(0) : "";
+        StringBuilder out = new StringBuilder(estimateLength(title, keyTag, segmentUriPrefix, firstQuery.length()));
+        try {
+            renderTo(out, title, variant, keyTag, segmentUriPrefix, firstQuery, segmentQuery);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder does not throw
+        }
+        return out.toString();
+    }
+
+    /**
+     * Render straight into a writer (e.g. a compressing response stream) without building the whole String
+     */
+    public void renderTo(Appendable out, String title, String variant, String keyTag, String segmentUriPrefix,
+                         IntFunction<String> segmentQuery) throws IOException {
+        renderTo(out, title, variant, keyTag, segmentUriPrefix,
+                segmentKeys.length > 0 ? segmentQuery.apply(0) : "", segmentQuery);
+    }
+
+    /**
+     * Approximate rendered length in chars, given the length of one segment query
+     */
+    public int estimateLength(String title, String keyTag, String segmentUriPrefix, int queryLength) {
+        return literalLength + encodedKeysLength
+                + segmentKeys.length * (segmentUriPrefix.length() + queryLength + 16)
+                + (keyTag != null ? keyTag.length() + 1 : 0)
+                + (title != null ? title.length() * 2 : 0) + 64;
+    }
+
+    private void renderTo(Appendable out, String title, String variant, String keyTag, String segmentUriPrefix,
+                          String firstQuery, IntFunction<String> segmentQuery) throws IOException {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(chunks[i]);
+            int slot = slots[i];
+            if (slot >= 0) {
+                out.append(segmentUriPrefix)
+                        .append(slot == 0 ? firstQuery : segmentQuery.apply(slot))
+                        .append("&resource=")
+                        .append(encodedSegmentKeys[slot]);
+            } else if (slot == SLOT_TITLE) {
+                out.append("# Title: ").append(title).append(" (").append(variant.toUpperCase()).append(")\n")
+                        .append("# Variant: ").append(variant).append('\n');
+            } else if (keyTag != null) {
+                out.append(keyTag).append('\n');
+            }
+        }
+        out.append(chunks[chunks.length - 1]);
+    }
+
+    public int getSegmentCount() {
+        return segmentKeys.length;
+    }
+
+    public String getSegmentKey(int index) {
+        return segmentKeys[index];
+    }
+
+    public double getDuration(int index) {
+        return durations[index];
+    }
+
+    /**
+     * Approximate retained size, used as cache weight
+     */
+    public long weight() {
+        long weight = literalLength * 2L + encodedKeysLength * 2L + durations.length * 8L;
+        for (String key : segmentKeys) {
+            weight += key.length() * 2L + 16;
+        }
+        return weight;
+    }
+
+    private static void closeChunk(List<String> chunks, List<Integer> slots, StringBuilder literal, int slot) {
+        chunks.add(literal.toString());
+        slots.add(slot);
+        literal.setLength(0);
+    }
+
+    private static double parseDuration(String extinf) {
+        int comma = extinf.indexOf(',');
+        try {
+            return Double.parseDouble(extinf.substring(8, comma > 0 ? comma : extinf.length()).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
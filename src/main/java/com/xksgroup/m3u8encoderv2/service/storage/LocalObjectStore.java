@@ -0,0 +1,209 @@
+package com.xksgroup.m3u8encoderv2.service.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * ObjectStore on the local filesystem, for on-prem deployments and for running the pipeline without a bucket.
+ * Writes go to a temporary file in the target directory and are published with an atomic rename, so readers
+ * never see partial objects. Presigned URLs are HMAC-SHA256 signed and served by LocalObjectStoreController.
+ */
+@Slf4j
+public class LocalObjectStore implements ObjectStore {
+
+    private static final String TEMP_PREFIX = ".upload-";
+
+    private final Path root;
+    private final String baseUrl;
+    private final byte[] signingKey;
+
+    public LocalObjectStore(Path root, String baseUrl, String signingSecret) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.baseUrl = baseUrl.replaceAll("/+$", "");
+        this.signingKey = signingSecret.getBytes(StandardCharsets.UTF_8);
+        log.info("Local object store rooted at {}", this.root);
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType, String cacheControl, byte[] md5) throws Exception {
+        if (md5 != null && !MessageDigest.isEqual(md5, MessageDigest.getInstance("MD5").digest(data))) {
+            throw new IOException("Content-MD5 mismatch for " + key);
+        }
+        Path target = resolve(key);
+        Path temp = createTempFor(target);
+        try (FileChannel channel = FileChannel.open(temp, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        publish(temp, target);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        return Files.readAllBytes(resolve(key));
+    }
+
+    @Override
+    public void getToFile(String key, Path target) throws IOException {
+        Files.copy(resolve(key), target);
+    }
+
+    /**
+     * Open an object for zero-copy serving; the caller closes the channel
+     */
+    public FileChannel openChannel(String key) throws IOException {
+        return FileChannel.open(resolve(key), READ);
+    }
+
+    @Override
+    public void listPages(String prefix, int pageSize, Consumer<List<StoredObject>> pageConsumer) throws IOException {
+        String keyPrefix = prefix != null ? prefix : "";
+        // Only walk the deepest directory the prefix fully names
+        int lastSlash = keyPrefix.lastIndexOf('/');
+        Path start = lastSlash >= 0 ? resolve(keyPrefix.substring(0, lastSlash)) : root;
+        if (!Files.isDirectory(start)) {
+            return;
+        }
+
+        List<StoredObject> page = new ArrayList<>(pageSize);
+        try (Stream<Path> files = Files.walk(start)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).sorted().iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                String key = toKey(file);
+                if (key == null || !key.startsWith(keyPrefix)) {
+                    continue;
+                }
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                page.add(new StoredObject(key, attrs.size(), null, attrs.lastModifiedTime().toInstant()));
+                if (page.size() == pageSize) {
+                    pageConsumer.accept(page);
+                    page = new ArrayList<>(pageSize);
+                }
+            }
+        }
+        if (!page.isEmpty()) {
+            pageConsumer.accept(page);
+        }
+    }
+
+    @Override
+    public int deleteBatch(List<String> keys) {
+        int failed = 0;
+        for (String key : keys) {
+            try {
+                Path file = resolve(key);
+                Files.deleteIfExists(file);
+                pruneEmptyParents(file.getParent());
+            } catch (Exception e) {
+                log.error("Failed to delete object: {}", key, e);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public String presignGet(String key, Duration expiration) {
+        long expires = Instant.now().plus(expiration).getEpochSecond();
+        return publicUrl(key) + "?exp=" + expires + "&sig=" + sign(key, expires);
+    }
+
+    /**
+     * Check a signature produced by {@link #presignGet}
+     */
+    public boolean verifySignature(String key, long expires, String signature) {
+        if (signature == null || Instant.now().getEpochSecond() > expires) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(key, expires).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public String publicBaseUrl() {
+        return baseUrl;
+    }
+
+    Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("Invalid object key: " + key);
+        }
+        return path;
+    }
+
+    private String toKey(Path file) {
+        Path relative = root.relativize(file);
+        if (file.getFileName().toString().startsWith(TEMP_PREFIX)) {
+            return null;
+        }
+        return relative.toString().replace(root.getFileSystem().getSeparator(), "/");
+    }
+
+    private Path createTempFor(Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        // Same directory as the target so the rename never crosses filesystems
+        return Files.createTempFile(target.getParent(), TEMP_PREFIX, ".tmp");
+    }
+
+    private static void publish(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private void pruneEmptyParents(Path dir) {
+        while (dir != null && !dir.equals(root) && dir.startsWith(root)) {
+            try (Stream<Path> entries = Files.list(dir)) {
+                if (entries.findAny().isPresent()) {
+                    return;
+                }
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                Files.delete(dir);
+            } catch (IOException e) {
+                // Concurrent writer re-populated it
+                return;
+            }
+            dir = dir.getParent();
+        }
+    }
+
+    private String sign(String key, long expires) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(signingKey, "HmacSHA256"));
+            byte[] digest = mac.doFinal((key + "\n" + expires).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (Exception e) {
+            throw new IllegalStateException("HMAC signing unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.xksgroup.m3u8encoderv2.service.storage;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage backend used by the upload, proxy and deletion paths. Keys are "/"-separated paths
+ * (resourceType/slug/jobId/...), independent of the backend.
+ */
+public interface ObjectStore {
+
+    /** Largest number of keys accepted by {@link #deleteBatch(List)} */
+    int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Store an object. When md5 is given the backend must reject content that does not match it.
+     */
+    void put(String key, byte[] data, String contentType, String cacheControl, byte[] md5) throws Exception;
+
+    byte[] get(String key) throws Exception;
+
+    /**
+     * Download an object straight to a local file (which must not exist yet), without loading it in memory
+     */
+    void getToFile(String key, Path target) throws Exception;
+
+    /**
+     * Stream every object under a prefix ("" or null for everything), one page at a time
+     */
+    void listPages(String prefix, int pageSize, Consumer<List<StoredObject>> pageConsumer) throws Exception;
+
+    /**
+     * Delete up to {@link #MAX_BATCH_SIZE} keys, returns the number of keys that could not be deleted
+     */
+    int deleteBatch(List<String> keys);
+
+    /**
+     * Time-limited URL a client can fetch without credentials
+     */
+    String presignGet(String key, Duration expiration) throws Exception;
+
+    /**
+     * Base URL objects are addressed from (no trailing slash)
+     */
+    String publicBaseUrl();
+
+    default String publicUrl(String key) {
+        return publicBaseUrl() + "/" + key;
+    }
+}
@@ -0,0 +1,135 @@
+package com.xksgroup.m3u8encoderv2.service.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * ObjectStore backed by an S3-compatible bucket (Cloudflare R2 or AWS S3)
+ */
+@Slf4j
+public class S3ObjectStore implements ObjectStore {
+
+    private final S3Client s3;
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final String baseUrl;
+
+    public S3ObjectStore(S3Client s3, S3Presigner presigner, String bucket, String baseUrl) {
+        this.s3 = s3;
+        this.presigner = presigner;
+        this.bucket = bucket;
+        String base = baseUrl.replaceAll("/+$", "");
+        // The R2 S3 endpoint addresses objects path-style, a CDN domain maps directly onto the bucket
+        this.baseUrl = base.contains("cloudflarestorage.com") ? base + "/" + bucket : base;
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType, String cacheControl, byte[] md5) {
+        PutObjectRequest.Builder request = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .cacheControl(cacheControl);
+        if (md5 != null) {
+            request.contentMD5(Base64.getEncoder().encodeToString(md5));
+        }
+        s3.putObject(request.build(), RequestBody.fromBytes(data));
+    }
+
+    @Override
+    public byte[] get(String key) throws Exception {
+        return s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build()).readAllBytes();
+    }
+
+    @Override
+    public void getToFile(String key, Path target) {
+        s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build(), ResponseTransformer.toFile(target));
+    }
+
+    @Override
+    public void listPages(String prefix, int pageSize, Consumer<List<StoredObject>> pageConsumer) {
+        ListObjectsV2Request.Builder request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .maxKeys(Math.min(pageSize, MAX_BATCH_SIZE));
+        if (prefix != null && !prefix.isEmpty()) {
+            request.prefix(prefix);
+        }
+
+        // The paginator follows continuation tokens
+        for (ListObjectsV2Response page : s3.listObjectsV2Paginator(request.build())) {
+            if (page.contents().isEmpty()) {
+                continue;
+            }
+            List<StoredObject> objects = new ArrayList<>(page.contents().size());
+            for (S3Object object : page.contents()) {
+                objects.add(new StoredObject(object.key(),
+                        object.size() != null ? object.size() : 0,
+                        object.eTag() != null ? object.eTag().replace("\"", "") : null,
+                        object.lastModified()));
+            }
+            pageConsumer.accept(objects);
+        }
+    }
+
+    @Override
+    public int deleteBatch(List<String> keys) {
+        try {
+            List<ObjectIdentifier> objectsToDelete = keys.stream()
+                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                    .toList();
+
+            DeleteObjectsResponse response = s3.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucket)
+                    .delete(Delete.builder().objects(objectsToDelete).quiet(true).build())
+                    .build());
+
+            if (!response.errors().isEmpty()) {
+                log.warn("{} objects failed to delete: {}", response.errors().size(), response.errors());
+            }
+            return response.errors().size();
+
+        } catch (Exception e) {
+            log.error("Failed to delete batch of {} objects, falling back to individual deletes: {}", keys.size(), e.getMessage());
+            return deleteIndividually(keys);
+        }
+    }
+
+    private int deleteIndividually(List<String> keys) {
+        int failed = 0;
+        for (String key : keys) {
+            try {
+                s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+            } catch (Exception e) {
+                log.error("Failed to delete object: {}", key, e);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public String presignGet(String key, Duration expiration) {
+        return presigner.presignGetObject(GetObjectPresignRequest.builder()
+                        .signatureDuration(expiration)
+                        .getObjectRequest(GetObjectRequest.builder().bucket(bucket).key(key).build())
+                        .build())
+                .url().toString();
+    }
+
+    @Override
+    public String publicBaseUrl() {
+        return baseUrl;
+    }
+}
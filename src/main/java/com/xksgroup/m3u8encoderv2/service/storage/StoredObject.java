@@ -0,0 +1,20 @@
+package com.xksgroup.m3u8encoderv2.service.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * Listing entry returned by {@link ObjectStore#listPages}. eTag may be null when the backend has none.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class StoredObject {
+    private final String key;
+    private final long size;
+    private final String eTag;
+    private final Instant lastModified;
+}
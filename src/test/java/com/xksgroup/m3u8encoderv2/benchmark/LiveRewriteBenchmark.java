@@ -0,0 +1,106 @@
+package com.xksgroup.m3u8encoderv2.benchmark;
+
+import com.xksgroup.m3u8encoderv2.service.helper.LivePlaylistRewriter;
+import com.xksgroup.m3u8encoderv2.service.helper.LiveRewriteWindow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live media playlist refresh (LivePlaylistRewriter, as called by LiveUrlProxyController) on a 10-minute DVR
+ * window: resolving and encoding every URI line on each refresh against reusing the lines kept in the
+ * LiveRewriteWindow of the previous refresh. Each invocation rewrites the next refresh of a window sliding by
+ * one segment, as a player polling the live edge sees it.
+ *
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/bench.cp -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/bench.cp) org.openjdk.jmh.Main LiveRewriteBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LiveRewriteBenchmark {
+
+    private static final String BASE_URL = "https://origin.example.com/live/channel-1/720p/index.m3u8";
+    private static final String SERVER_URL = "https://media.example.com";
+    private static final String URL_ID = "channel-1";
+    private static final int WINDOW_SECONDS = 600;
+    // Refreshes generated up front; wrapping around looks like an origin restart once per cycle
+    private static final int REFRESHES = 512;
+
+    @Param({"6", "2"})
+    private int segmentSeconds;
+
+    private String[] refreshes;
+    private int fullCursor;
+    private int incrementalCursor;
+    private LiveRewriteWindow window;
+
+    @Setup
+    public void setUp() throws Exception {
+        int windowSegments = WINDOW_SECONDS / segmentSeconds;
+        refreshes = new String[REFRESHES];
+        for (int r = 0; r < REFRESHES; r++) {
+            long first = 1_700_000L + r;
+            StringBuilder body = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n")
+                    .append("#EXT-X-TARGETDURATION:").append(segmentSeconds).append('\n')
+                    .append("#EXT-X-MEDIA-SEQUENCE:").append(first).append('\n');
+            for (long seq = first; seq < first + windowSegments; seq++) {
+                body.append("#EXTINF:").append(segmentSeconds).append(".000,\n")
+                        .append("segment_").append(seq).append(".ts?session=5f2b9c71e0&exp=1767225600\n");
+            }
+            refreshes[r] = body.toString();
+        }
+
+        // Second refresh: mostly reused lines
+        incrementalRewrite(refreshes[0]);
+        if (!fullRewrite(refreshes[1]).equals(incrementalRewrite(refreshes[1]))) {
+            throw new IllegalStateException("Incremental output differs from the full rewrite");
+        }
+        window = null;
+    }
+
+    @Benchmark
+    public String full() throws Exception {
+        String content = refreshes[fullCursor];
+        fullCursor = (fullCursor + 1) % REFRESHES;
+        return fullRewrite(content);
+    }
+
+    @Benchmark
+    public String incremental() throws Exception {
+        String content = refreshes[incrementalCursor];
+        incrementalCursor = (incrementalCursor + 1) % REFRESHES;
+        return incrementalRewrite(content);
+    }
+
+    private String fullRewrite(String content) throws Exception {
+        return LivePlaylistRewriter.rewrite(content, BASE_URL, SERVER_URL, URL_ID, null).content();
+    }
+
+    private String incrementalRewrite(String content) throws Exception {
+        LivePlaylistRewriter.Result result = LivePlaylistRewriter.rewrite(content, BASE_URL, SERVER_URL, URL_ID, window);
+        window = result.window();
+        return result.content();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(LiveRewriteBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,118 @@
+package com.xksgroup.m3u8encoderv2.benchmark;
+
+import com.xksgroup.m3u8encoderv2.service.helper.VariantPlaylistTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-viewer variant playlist rendering (ProxyController): the previous line-by-line rewriter against the
+ * cached VariantPlaylistTemplate. Tokens are a constant of JWT size so that only the rewrite itself is
+ * measured; both paths mint one token per segment in production.
+ *
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/bench.cp -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/bench.cp) org.openjdk.jmh.Main VariantPlaylistBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VariantPlaylistBenchmark {
+
+    private static final String SERVER_HOST = "https://media.example.com";
+    private static final String KEY_PREFIX = "video/match-du-12-mars/job-1734567890123-ab12cd34";
+    private static final String VARIANT = "v1";
+    private static final String TITLE = "Match du 12 mars";
+    private static final String TOKEN = "eyJhbGciOiJIUzI1NiJ9." + "x".repeat(180) + "." + "y".repeat(43);
+
+    @Param({"1200"})
+    private int segments;
+
+    private String playlist;
+    private VariantPlaylistTemplate template;
+    private String keyTag;
+
+    @Setup
+    public void setUp() {
+        StringBuilder body = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:6\n")
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n")
+                .append("#EXT-X-KEY:METHOD=AES-128,URI=\"enc.key\",IV=0x00000000000000000000000000000001\n");
+        for (int i = 0; i < segments; i++) {
+            body.append("#EXTINF:6.006000,\n").append(String.format("seg_%05d.ts", i)).append('\n');
+        }
+        body.append("#EXT-X-ENDLIST\n");
+        playlist = body.toString();
+        // Parsed once per variant and served from PlaylistCache afterwards
+        template = VariantPlaylistTemplate.parse(playlist, KEY_PREFIX, VARIANT);
+        keyTag = "#EXT-X-KEY:METHOD=AES-128,URI=\"" + SERVER_HOST + "/m3u8-encoder/api/v2/proxy/key/job-1734567890123-ab12cd34?token="
+                + TOKEN + "\"";
+
+        if (!legacyRewrite().equals(templateRender())) {
+            throw new IllegalStateException("Template output differs from the legacy rewriter");
+        }
+    }
+
+    @Benchmark
+    public String legacyRewrite() {
+        StringBuilder result = new StringBuilder();
+        String[] lines = playlist.split("\n");
+        boolean keyTagAdded = false;
+        boolean headerAdded = false;
+
+        for (String line : lines) {
+            if (line.startsWith("#EXTM3U") && !headerAdded) {
+                result.append(line).append("\n");
+                result.append("# Title: ").append(TITLE).append(" (").append(VARIANT.toUpperCase()).append(")\n");
+                result.append("# Variant: ").append(VARIANT).append("\n");
+                headerAdded = true;
+                continue;
+            }
+            if (line.trim().startsWith("#EXT-X-KEY:")) {
+                continue;
+            }
+            if (line.trim().startsWith("#EXT-X-VERSION") && !keyTagAdded) {
+                result.append(line).append("\n");
+                result.append(keyTag).append("\n");
+                keyTagAdded = true;
+            } else if (line.trim().endsWith(".ts")) {
+                String[] parts = line.trim().split("/");
+                String segmentKey = KEY_PREFIX + "/" + VARIANT + "/" + parts[parts.length - 1];
+                String encodedResource = URLEncoder.encode(segmentKey, StandardCharsets.UTF_8);
+                String proxyUrl = String.format("%s/m3u8-encoder/api/v2/proxy/segment?token=%s&resource=%s",
+                        SERVER_HOST, TOKEN, encodedResource);
+                result.append(proxyUrl).append("\n");
+            } else {
+                result.append(line).append("\n");
+            }
+        }
+        return result.toString();
+    }
+
+    @Benchmark
+    public String templateRender() {
+        return template.render(TITLE, VARIANT, keyTag, SERVER_HOST + "/m3u8-encoder/api/v2/proxy/segment?",
+                segment -> "token=" + TOKEN);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(VariantPlaylistBenchmark.class.getSimpleName()).build()).run();
+    }
+}